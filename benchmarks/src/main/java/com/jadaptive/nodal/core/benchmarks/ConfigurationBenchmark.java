@@ -0,0 +1,93 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.benchmarks;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jadaptive.nodal.core.lib.VpnAdapterConfiguration;
+import com.jadaptive.nodal.core.lib.VpnPeer;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	public int peers;
+
+	private VpnAdapterConfiguration configuration;
+	private String content;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParseException {
+		var rnd = new Random(0);
+		var builder = new VpnAdapterConfiguration.Builder()
+				.withPrivateKey(randomKey(rnd))
+				.withListenPort(51820);
+		for (var i = 0; i < peers; i++) {
+			builder.addPeers(new VpnPeer.Builder()
+					.withPublicKey(randomKey(rnd))
+					.withEndpoint("198.51.100." + (i % 254 + 1) + ":51820")
+					.withPersistentKeepalive(25)
+					.withAllowedIps(String.format("10.%d.%d.%d/32", i >> 16 & 0xff, i >> 8 & 0xff, i & 0xff))
+					.build());
+		}
+		configuration = builder.build();
+		content = configuration.write();
+	}
+
+	@Benchmark
+	public VpnAdapterConfiguration parse() throws IOException, ParseException {
+		return new VpnAdapterConfiguration.Builder().fromFileContent(content).build();
+	}
+
+	@Benchmark
+	public String write() {
+		return configuration.write();
+	}
+
+	private static String randomKey(Random rnd) {
+		var key = new byte[32];
+		rnd.nextBytes(key);
+		return Base64.getEncoder().encodeToString(key);
+	}
+}
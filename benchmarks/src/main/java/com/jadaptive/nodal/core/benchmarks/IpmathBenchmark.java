@@ -0,0 +1,154 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jadaptive.nodal.core.lib.ipmath.IpPrefix;
+import com.jadaptive.nodal.core.lib.ipmath.Ipv4;
+import com.jadaptive.nodal.core.lib.ipmath.Ipv4Range;
+import com.jadaptive.nodal.core.lib.ipmath.Ipv6;
+import com.jadaptive.nodal.core.lib.ipmath.Ipv6Range;
+import com.jadaptive.nodal.core.lib.ipmath.SortedRangeSet;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpmathBenchmark {
+
+	private static final int SIZE = 1024;
+
+	private String[] ipv4Strings;
+	private String[] ipv6Strings;
+	private String[] cidrStrings;
+	private Ipv4[] ipv4s;
+	private Ipv4Range[] ranges;
+	private Ipv4Range[] unalignedRanges;
+	private Ipv6Range[] unalignedIpv6Ranges;
+	private SortedRangeSet<Ipv4, Ipv4Range> rangeSet;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		var rnd = new Random(0);
+		ipv4Strings = new String[SIZE];
+		ipv6Strings = new String[SIZE];
+		cidrStrings = new String[SIZE];
+		ipv4s = new Ipv4[SIZE];
+		ranges = new Ipv4Range[SIZE];
+		unalignedRanges = new Ipv4Range[SIZE];
+		unalignedIpv6Ranges = new Ipv6Range[SIZE];
+		for (var i = 0; i < SIZE; i++) {
+			var ip = Ipv4.of(rnd.nextInt() & 0xffffffffL);
+			ipv4s[i] = ip;
+			ipv4Strings[i] = ip.toString();
+			var hi = 0xfd00000000000000L | rnd.nextLong() >>> 8;
+			var ip6 = Ipv6.of(hi, rnd.nextLong());
+			ipv6Strings[i] = ip6.toString();
+			var len = 8 + rnd.nextInt(25);
+			cidrStrings[i] = IpPrefix.of(ip, len).toString();
+			ranges[i] = Ipv4Range.from(ip.lowerBoundForPrefix(len)).to(ip.upperBoundForPrefix(len));
+			var start = rnd.nextInt() & 0x7fffffffL;
+			unalignedRanges[i] = Ipv4Range.from(start).to(start + 1 + (rnd.nextInt() & 0xffffffL));
+			unalignedIpv6Ranges[i] = Ipv6Range.from(ip6).to(Ipv6.of(hi + 1, rnd.nextLong()));
+		}
+
+		rangeSet = new SortedRangeSet<>();
+		for (var i = 0; i < SIZE; i++) {
+			rangeSet.add(ranges[i]);
+		}
+	}
+
+	@Benchmark
+	public void parseIpv4(Blackhole bh) {
+		for (var s : ipv4Strings)
+			bh.consume(Ipv4.parse(s));
+	}
+
+	@Benchmark
+	public void parseIpv6(Blackhole bh) {
+		for (var s : ipv6Strings)
+			bh.consume(Ipv6.parse(s));
+	}
+
+	@Benchmark
+	public void parsePrefix(Blackhole bh) {
+		for (var s : cidrStrings)
+			bh.consume(IpPrefix.parse(s));
+	}
+
+	@Benchmark
+	public void rangeContains(Blackhole bh) {
+		for (var i = 0; i < SIZE; i++)
+			bh.consume(ranges[i].contains(ipv4s[(i + 1) % SIZE]));
+	}
+
+	@Benchmark
+	public void rangeSetContains(Blackhole bh) {
+		for (var ip : ipv4s)
+			bh.consume(rangeSet.contains(ip.asRange()));
+	}
+
+	@Benchmark
+	public SortedRangeSet<Ipv4, Ipv4Range> rangeSetAddRemove() {
+		var set = new SortedRangeSet<Ipv4, Ipv4Range>();
+		for (var range : unalignedRanges)
+			set.add(range);
+		for (var range : ranges)
+			set.remove(range);
+		return set;
+	}
+
+	@Benchmark
+	public List<Ipv4Range> splitToPrefixesIpv4() {
+		var l = new ArrayList<Ipv4Range>();
+		for (var range : unalignedRanges)
+			l.addAll(range.splitToPrefixes());
+		return l;
+	}
+
+	@Benchmark
+	public List<Ipv6Range> splitToPrefixesIpv6() {
+		var l = new ArrayList<Ipv6Range>();
+		for (var range : unalignedIpv6Ranges)
+			l.addAll(range.splitToPrefixes());
+		return l;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jadaptive.nodal.core.lib.util.Keys;
+import com.jadaptive.nodal.core.lib.util.Keys.KeyPair;
+import com.jadaptive.nodal.core.lib.util.Keys.KeyPairProvider;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeysBenchmark {
+
+	@Param({ "com.jadaptive.nodal.core.lib.util.impl.WhisperKeys",
+			"com.jadaptive.nodal.core.lib.util.impl.BasicKeys",
+			"com.jadaptive.nodal.core.lib.util.impl.JCEKeys" })
+	public String provider;
+
+	private KeyPairProvider keys;
+	private byte[] privateKey;
+	private String base64PrivateKey;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		keys = (KeyPairProvider) Class.forName(provider).getConstructor().newInstance();
+		/* Timing a provider that gives the wrong answers is no use */
+		if (!Keys.knownAnswers(keys))
+			throw new IllegalStateException(provider + " does not match the RFC 7748 test vectors.");
+		var pair = keys.genkey();
+		privateKey = pair.getPrivateKey();
+		base64PrivateKey = pair.getBase64PrivateKey();
+	}
+
+	@Benchmark
+	public KeyPair genkey() {
+		return keys.genkey();
+	}
+
+	@Benchmark
+	public byte[] pubkey() {
+		return keys.pubkey(privateKey).getPublicKey();
+	}
+
+	@Benchmark
+	public String pubkeyBase64() {
+		return keys.pubkey(base64PrivateKey).getBase64PublicKey();
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jadaptive.nodal.core.lib.VpnInterfaceInformation;
+import com.jadaptive.nodal.core.lib.WgDump;
+
+/**
+ * Parsing of <code>wg show &lt;interface&gt; dump</code> output with
+ * {@link WgDump}, as the Unix platforms do for interface information.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WgDumpBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	public int peers;
+
+	private List<String> lines;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		var rnd = new Random(0);
+		lines = new ArrayList<>();
+		lines.add(String.join("\t", randomKey(rnd), randomKey(rnd), "51820", "off"));
+		for (var i = 0; i < peers; i++) {
+			lines.add(String.join("\t", randomKey(rnd), i % 2 == 0 ? "(none)" : randomKey(rnd),
+					i % 3 == 0 ? "(none)" : "198.51.100." + (i % 254 + 1) + ":" + (1024 + rnd.nextInt(60000)),
+					String.format("10.%d.%d.%d/32,fd00::%x/128", i >> 16 & 0xff, i >> 8 & 0xff, i & 0xff, i),
+					String.valueOf(1700000000 + rnd.nextInt(10000000)),
+					String.valueOf(rnd.nextInt(Integer.MAX_VALUE)),
+					String.valueOf(rnd.nextInt(Integer.MAX_VALUE)), "25"));
+		}
+	}
+
+	@Benchmark
+	public VpnInterfaceInformation parseDump() {
+		return WgDump.parse("wg0", lines);
+	}
+
+	private static String randomKey(Random rnd) {
+		var key = new byte[32];
+		rnd.nextBytes(key);
+		return Base64.getEncoder().encodeToString(key);
+	}
+}
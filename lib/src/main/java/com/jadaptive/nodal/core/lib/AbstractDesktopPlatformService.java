@@ -24,13 +24,11 @@ package com.jadaptive.nodal.core.lib;
 import com.jadaptive.nodal.core.lib.DNSProvider.DNSEntry;
 import com.jadaptive.nodal.core.lib.NativeComponents.Tool;
 import com.jadaptive.nodal.core.lib.Prefs.PrefType;
-import com.jadaptive.nodal.core.lib.ipmath.AbstractIp;
-import com.jadaptive.nodal.core.lib.ipmath.Ipv4;
-import com.jadaptive.nodal.core.lib.ipmath.Ipv4Range;
-import com.jadaptive.nodal.core.lib.ipmath.Ipv6;
-import com.jadaptive.nodal.core.lib.ipmath.Ipv6Range;
-import com.jadaptive.nodal.core.lib.util.IpUtil;
+import com.jadaptive.nodal.core.lib.ipmath.IpPrefix;
+import com.jadaptive.nodal.core.lib.ipmath.PrefixAggregator;
+import com.jadaptive.nodal.core.lib.ipmath.PrefixTrie;
 import com.jadaptive.nodal.core.lib.util.Util;
+import com.sshtools.liftlib.OS;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,18 +48,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ServiceLoader;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 public abstract class AbstractDesktopPlatformService<I extends VpnAddress> extends AbstractPlatformService<I> {
 
 	private final static Logger LOG = LoggerFactory.getLogger(AbstractDesktopPlatformService.class);
+	private final static int MAX_PEERS_PER_COMMAND = 500;
 	
 	protected Path tempCommandDir;
 
@@ -171,39 +168,155 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
 
     @Override
 	public void reconfigure(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
-    	var path = Files.createTempFile("wg", ".cfg");
-    	try {
-    		configuration.write(path);
-        	context.commands().privileged().run(context.nativeComponents().tool(Tool.WG), "setconf", adapter.address().name(), path.toString());
-    	}
-    	finally {
-    		Files.delete(path);
-    	}
+		applyDiff(adapter, configuration);
 	}
 
 	@Override
 	public void sync(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
-		var path = Files.createTempFile("wg", ".cfg");
-    	try {
-    		configuration.write(path);
-        	context.commands().privileged().run(context.nativeComponents().tool(Tool.WG), "syncconf", adapter.address().name(), path.toString());
-    	}
-    	finally {
-    		Files.delete(path);
-    	}
-		
+		applyDiff(adapter, configuration);
 	}
 
 	@Override
 	public void append(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
-		var path = Files.createTempFile("wg", ".cfg");
-    	try {
-    		configuration.write(path);
-        	context.commands().privileged().run(context.nativeComponents().tool(Tool.WG), "addconf", adapter.address().name(), path.toString());
-    	}
-    	finally {
-    		Files.delete(path);
-    	}
+		var tempFiles = new ArrayList<Path>();
+		try {
+			var batch = new PrivilegedBatch(context.commands());
+			withFile(batch, tempFiles, configuration.write(), context.nativeComponents().tool(Tool.WG), "addconf", adapter.address().name());
+			batch.execute().get(0).check();
+		}
+		finally {
+			deleteAll(tempFiles);
+		}
+	}
+
+	/**
+	 * Add a command to a batch whose final argument is a file to read, such as
+	 * a configuration or key. Where possible the content is piped to the
+	 * command and the file given as <code>/dev/stdin</code>, so it never touches
+	 * the filesystem. On Windows, a temporary file is written instead and added
+	 * to <code>tempFiles</code>, which the caller must delete once the batch has
+	 * executed.
+	 *
+	 * @param batch batch
+	 * @param tempFiles temporary files
+	 * @param content file content
+	 * @param args command and arguments, not including the file
+	 * @throws IOException on error
+	 */
+	protected static void withFile(PrivilegedBatch batch, List<Path> tempFiles, String content, String... args) throws IOException {
+		var fargs = Arrays.copyOf(args, args.length + 1);
+		if(OS.isWindows()) {
+			var path = Files.createTempFile("wg", ".cfg");
+			tempFiles.add(path);
+			Files.writeString(path, content);
+			fargs[args.length] = path.toString();
+			batch.run(fargs);
+		}
+		else {
+			fargs[args.length] = "/dev/stdin";
+			batch.pipeTo(content, fargs);
+		}
+	}
+
+	protected static void deleteAll(List<Path> tempFiles) throws IOException {
+		for(var path : tempFiles)
+			Files.deleteIfExists(path);
+	}
+
+	/**
+	 * Compare the desired configuration with the live one, and apply just the
+	 * differences using <code>wg set</code>. Unlike <code>wg setconf</code>,
+	 * peers that have not changed keep their sessions. Very large updates are
+	 * split over several commands, but still use a single privileged round trip.
+	 *
+	 * @param adapter adapter
+	 * @param configuration desired configuration
+	 * @throws IOException on error
+	 */
+	protected void applyDiff(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
+		var diff = ConfigurationDiff.between(configuration(adapter), configuration);
+		LOG.debug("Applying {} to {}", diff, adapter.address().name());
+		if(diff.isEmpty())
+			return;
+
+		var tempFiles = new ArrayList<Path>();
+		try {
+			var wg = context.nativeComponents().tool(Tool.WG);
+			var name = adapter.address().name();
+			var batch = new PrivilegedBatch(context.commands()).stopOnFailure();
+			if(diff.privateKey().isPresent()) {
+				withFile(batch, tempFiles, diff.privateKey().get(), wg, "set", name, "private-key");
+			}
+
+			/*
+			 * Each key needs its own command, as there is only one stdin. They go before
+			 * the endpoints are set, so a new peer can never handshake without its key
+			 */
+			for(var change : diff.changed()) {
+				if(change.presharedKeyChanged()) {
+					var peer = change.peer();
+					withFile(batch, tempFiles, peer.presharedKey().orElse(ConfigurationDiff.NO_KEY), wg, "set", name, "peer", peer.publicKey(), "preshared-key");
+				}
+			}
+
+			var cmds = new ArrayList<List<String>>();
+			var args = wgSet(adapter);
+			diff.listenPort().ifPresent(p -> {
+				args.add("listen-port");
+				args.add(String.valueOf(p));
+			});
+			diff.fwMark().ifPresent(m -> {
+				args.add("fwmark");
+				args.add(m == 0 ? "off" : String.valueOf(m));
+			});
+			cmds.add(args);
+
+			var peers = 0;
+			for(var key : diff.removed()) {
+				peerArgs(adapter, cmds, peers++).addAll(Arrays.asList("peer", key, "remove"));
+			}
+			for(var change : diff.changed()) {
+				var peer = change.peer();
+				var pargs = peerArgs(adapter, cmds, peers++);
+				pargs.add("peer");
+				pargs.add(peer.publicKey());
+				if(change.endpointChanged()) {
+					var host = peer.endpointAddress().get();
+					pargs.add("endpoint");
+					pargs.add((host.contains(":") && !host.startsWith("[") ? "[" + host + "]" : host) + ":" + peer.endpointPort().orElse(Vpn.DEFAULT_PORT));
+				}
+				if(change.persistentKeepaliveChanged()) {
+					pargs.add("persistent-keepalive");
+					pargs.add(peer.persistentKeepalive().map(String::valueOf).orElse("off"));
+				}
+				if(change.allowedIpsChanged()) {
+					pargs.add("allowed-ips");
+					pargs.add(String.join(",", peer.allowedIps()));
+				}
+			}
+
+			for(var cmd : cmds) {
+				if(cmd.size() > 3)
+					batch.run(cmd.toArray(new String[0]));
+			}
+
+			for(var result : batch.execute())
+				result.check();
+		}
+		finally {
+			deleteAll(tempFiles);
+		}
+	}
+
+	private List<String> wgSet(VpnAdapter adapter) {
+		return new ArrayList<>(Arrays.asList(context.nativeComponents().tool(Tool.WG), "set", adapter.address().name()));
+	}
+
+	private List<String> peerArgs(VpnAdapter adapter, List<List<String>> cmds, int peer) {
+		/* Keep each command line well within ARG_MAX */
+		if(peer > 0 && peer % MAX_PEERS_PER_COMMAND == 0)
+			cmds.add(wgSet(adapter));
+		return cmds.get(cmds.size() - 1);
 	}
 
     @Override
@@ -338,14 +451,30 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
 			}
 		}
 		finally {
-			unmap(session.address().name());
+			unmap(session.address().name(), session.address().nativeName());
 		}
 	}
 	
 	protected final void unmap(String name) {
+		unmap(name, null);
+	}
+
+	/**
+	 * Remove both name mappings. If the native name is expected to be known, both
+	 * are removed in the same privileged round trip, otherwise the native name
+	 * is discovered by removing the first mapping.
+	 *
+	 * @param name interface name
+	 * @param expectedNativeName native name or <code>null</code> if not known
+	 */
+	protected final void unmap(String name, String expectedNativeName) {
 		try {
-			var nativeName = context().commands().privileged().task(new Prefs.RemoveKey(getNameToNativeNameNode(), name));
-			if(nativeName != null) {
+			var batch = new PrivilegedBatch(context().commands()).
+					task(new Prefs.RemoveKey(getNameToNativeNameNode(), name));
+			if(expectedNativeName != null)
+				batch.task(new Prefs.RemoveKey(getNativeNameToNameNode(), expectedNativeName));
+			String nativeName = batch.execute().get(0).check().value();
+			if(nativeName != null && !nativeName.equals(expectedNativeName)) {
 				context().commands().privileged().task(new Prefs.RemoveKey(getNativeNameToNameNode(), nativeName));
 			}
 			LOG.info("Unmapped interface names {} -> {}", name, nativeName == null ? "<null>" : nativeName);
@@ -357,8 +486,13 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
 	protected final I map(String name, String nativeName, String type) throws IOException {
 		var addr = add(name, nativeName, type);
 		try {
-			context().commands().privileged().task(new Prefs.PutValue(getNameToNativeNameNode(), name, nativeName, PrefType.STRING));
-			context().commands().privileged().task(new Prefs.PutValue(getNativeNameToNameNode(), nativeName, name, PrefType.STRING));
+			for(var result : new PrivilegedBatch(context().commands()).
+					task(new Prefs.PutValue(getNameToNativeNameNode(), name, nativeName, PrefType.STRING)).
+					task(new Prefs.PutValue(getNativeNameToNameNode(), nativeName, name, PrefType.STRING)).
+					stopOnFailure().
+					execute()) {
+				result.check();
+			}
 		} catch (Exception e) {
 			throw new IOException("Failed to map interface names", e);
 		}
@@ -501,6 +635,7 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
         transformBldr.withPostDown();
         
 		transformInterface(configuration, transformBldr);
+		PrefixTrie<String> localAddresses = null;
 		for(var peer : configuration.peers()) {
             
 			var transformPeerBldr = new VpnPeer.Builder();
@@ -514,73 +649,19 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
     				/* Filter out any routes that would cover the addresses of any interfaces
     				 * we already have
     				 */
-    				Set<AbstractIp<?, ?>> localAddresses = new HashSet<>();
-    				try {
-    					for(Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces(); en.hasMoreElements(); ) {
-    						NetworkInterface ni = en.nextElement();
-    						if(!ni.isLoopback() && ni.isUp()) { 
-    							for(Enumeration<InetAddress> addrEn = ni.getInetAddresses(); addrEn.hasMoreElements(); ) {
-    								InetAddress addr = addrEn.nextElement();
-    								try {
-    									localAddresses.add(IpUtil.parse(addr.getHostAddress()));
-    								}
-    								catch(IllegalArgumentException iae) {
-    									// Ignore
-    								}
-    							}
-    						}
-    					}
-    				}
-    				catch(SocketException se) {
-    					//
-    				}
-    
-    				for(String route : new ArrayList<>(allowedIps)) {
+    				if(localAddresses == null)
+    					localAddresses = localAddresses();
+    				for(var route : peer.allowedIps()) {
+    					IpPrefix prefix;
     					try {
-    						try {
-    							Ipv4Range range = Ipv4Range.parseCidr(route);
-    							for(AbstractIp<?, ?> laddr : localAddresses) {
-    								if(laddr instanceof Ipv4 && range.contains((Ipv4)laddr)) {
-    									// Covered by route. 
-    									LOG.info("Filtering out route {} as it covers an existing local interface address.", route);
-    									allowedIps.remove(route);
-    									break;
-    								}
-    							}
-    						}
-    						catch(IllegalArgumentException iae) {
-    							/* Single ipv4 address? */
-    							Ipv4 routeIpv4 = Ipv4.of(route);
-    							if(localAddresses.contains(routeIpv4)) {
-    								// Covered by route. 
-    								LOG.info("Filtering out route {} as it covers an existing local interface address.", route);
-    								allowedIps.remove(route);
-    								break;
-    							}
-    						}
+    						prefix = IpPrefix.parse(route);
     					}
     					catch(IllegalArgumentException iae) {
-    						try {
-    							Ipv6Range range = Ipv6Range.parseCidr(route);
-    							for(AbstractIp<?, ?> laddr : localAddresses) {
-    								if(laddr instanceof Ipv6 && range.contains((Ipv6)laddr)) {
-    									// Covered by route. 
-    									LOG.info("Filtering out route {} as it covers an existing local interface address.", route);
-    									allowedIps.remove(route);
-    									break;
-    								}
-    							}
-    						}
-    						catch(IllegalArgumentException iae2) {
-    							/* Single ipv6 address? */
-    							Ipv6 routeIpv6 = Ipv6.of(route);
-    							if(localAddresses.contains(routeIpv6)) {
-    								// Covered by route. 
-    								LOG.info("Filtering out route {} as it covers an existing local interface address.", route);
-    								allowedIps.remove(route);
-    								break;
-    							}
-    						}
+    						continue;
+    					}
+    					if(localAddresses.anyCoveredBy(prefix)) {
+    						LOG.info("Filtering out route {} as it covers an existing local interface address.", route);
+    						allowedIps.remove(route);
     					}
     				}
     			}
@@ -591,6 +672,17 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
     					allowedIps.remove(ignoreAddress);
     				}
     			}
+    			
+    			if(context.configuration().aggregateRoutes()) {
+    				try {
+    					var aggregated = PrefixAggregator.minimal(RouteDiff.parse(allowedIps));
+    					allowedIps.clear();
+    					aggregated.forEach(p -> allowedIps.add(p.toString()));
+    				}
+    				catch(IllegalArgumentException iae) {
+    					LOG.warn("Not aggregating allowed IPs for peer {}, as some are invalid.", peer.publicKey());
+    				}
+    			}
     			transformPeerBldr.withAllowedIps(allowedIps);
     		}
     		transformPeer(configuration, peer, transformPeerBldr);
@@ -601,6 +693,35 @@ public abstract class AbstractDesktopPlatformService<I extends VpnAddress> exten
 		return transformBldr.build();
 	}
 	
+	/**
+	 * Addresses of all interfaces that are up (other than loopback), as host
+	 * prefixes mapped to the interface name.
+	 *
+	 * @return local addresses
+	 */
+	private static PrefixTrie<String> localAddresses() {
+		var trie = new PrefixTrie<String>();
+		try {
+			for(Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces(); en.hasMoreElements(); ) {
+				NetworkInterface ni = en.nextElement();
+				if(!ni.isLoopback() && ni.isUp()) { 
+					for(Enumeration<InetAddress> addrEn = ni.getInetAddresses(); addrEn.hasMoreElements(); ) {
+						try {
+							trie.put(IpPrefix.parse(addrEn.nextElement().getHostAddress()), ni.getName());
+						}
+						catch(IllegalArgumentException iae) {
+							// Ignore
+						}
+					}
+				}
+			}
+		}
+		catch(SocketException se) {
+			//
+		}
+		return trie;
+	}
+
 	protected void transformInterface(VpnConfiguration configuration, VpnConfiguration.Builder writer) {
 	}
 
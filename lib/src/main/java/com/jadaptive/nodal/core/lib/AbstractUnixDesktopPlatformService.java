@@ -23,25 +23,20 @@ package com.jadaptive.nodal.core.lib;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.net.InetSocketAddress;
 import java.text.ParseException;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.StringTokenizer;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.jadaptive.nodal.core.lib.NativeComponents.Tool;
+import com.jadaptive.nodal.core.lib.ipmath.PrefixAggregator;
 import com.jadaptive.nodal.core.lib.util.OsUtil;
-import com.jadaptive.nodal.core.lib.util.Util;
 
 public abstract class AbstractUnixDesktopPlatformService<I extends VpnAddress>
 		extends AbstractDesktopPlatformService<I> {
@@ -176,152 +171,19 @@ public abstract class AbstractUnixDesktopPlatformService<I extends VpnAddress>
 		}
 	}
 
-	@SuppressWarnings("serial")
 	@Override
 	public VpnInterfaceInformation information(VpnAdapter adapter) {
 		try {
 			var iface = adapter.address();
-			var peers = new ArrayList<VpnPeerInformation>();
-			var lastHandshake = new AtomicLong(0l);
-			var rx = new AtomicLong(0l);
-			var tx = new AtomicLong(0l);
-			var port = new AtomicInteger();
-			var fwmark = new AtomicInteger();
-			var publicKey = new StringBuffer();
-			var privateKey = new StringBuffer();
-
-			for (var line : context.commands().privileged().output(context.nativeComponents().tool(Tool.WG), "show",
-					iface.nativeName(), "dump")) {
-				var st = new StringTokenizer(line);
-				if (st.countTokens() == 4) {
-					privateKey.append(st.nextToken());
-					publicKey.append(st.nextToken());
-					port.set(Integer.parseInt(st.nextToken()));
-					fwmark.set(Util.parseFwMark(st.nextToken()));
-				} else {
-					var peerPublicKey = st.nextToken();
-					var presharedKeyVal = st.nextToken();
-					Optional<String> presharedKey;
-					if (presharedKeyVal.equals("(none)")) {
-						presharedKey = Optional.empty();
-					} else {
-						presharedKey = Optional.of(presharedKeyVal);
-					}
-					var remoteAddress = Optional.of(OsUtil.parseInetSocketAddress(st.nextToken()));
-					var allowedIps = Arrays.asList(st.nextToken().split(","));
-					var thisLastHandshake = Instant.ofEpochSecond(Long.parseLong(st.nextToken()));
-					var thisRx = Long.parseLong(st.nextToken());
-					var thisTx = Long.parseLong(st.nextToken());
-
-					lastHandshake.set(Math.max(lastHandshake.get(), thisLastHandshake.toEpochMilli()));
-					rx.addAndGet(thisRx);
-					tx.addAndGet(thisTx);
-
-					peers.add(new VpnPeerInformation() {
-
-						@Override
-						public long tx() {
-							return thisTx;
-						}
-
-						@Override
-						public long rx() {
-							return thisRx;
-						}
-
-						@Override
-						public Instant lastHandshake() {
-							return thisLastHandshake;
-						}
-
-						@Override
-						public Optional<String> error() {
-							return Optional.empty();
-						}
-
-						@Override
-						public Optional<InetSocketAddress> remoteAddress() {
-							return remoteAddress;
-						}
-
-						@Override
-						public List<String> allowedIps() {
-							return allowedIps;
-						}
-
-						@Override
-						public String publicKey() {
-							return peerPublicKey;
-						}
-
-						@Override
-						public Optional<String> presharedKey() {
-							return presharedKey;
-						}
-
-					});
-				}
-			}
-			return new VpnInterfaceInformation() {
-
-				@Override
-				public String interfaceName() {
-					return iface.name();
-				}
-
-				@Override
-				public long tx() {
-					return tx.get();
-				}
-
-				@Override
-				public long rx() {
-					return rx.get();
-				}
-
-				@Override
-				public List<VpnPeerInformation> peers() {
-					return peers;
-				}
-
-				@Override
-				public Instant lastHandshake() {
-					return Instant.ofEpochMilli(lastHandshake.get());
-				}
-
-				@Override
-				public Optional<String> error() {
-					return Optional.empty();
-				}
-
-				@Override
-				public Optional<Integer> listenPort() {
-					return port.get() == 0 ? Optional.empty() : Optional.of(port.get());
-				}
-
-				@Override
-				public Optional<Integer> fwmark() {
-					return fwmark.get() == 0 ? Optional.empty() : Optional.of(fwmark.get());
-				}
-
-				@Override
-				public String publicKey() {
-					return publicKey.toString();
-				}
-
-				@Override
-				public String privateKey() {
-					return privateKey.toString();
-				}
-
-			};
+			return WgDump.parse(iface.name(), context.commands().privileged().output(context.nativeComponents().tool(Tool.WG), "show",
+					iface.nativeName(), "dump"));
 		} catch (IOException ioe) {
 			throw new UncheckedIOException(ioe);
 		}
 	}
 
 	@Override
-	public final VpnAdapterConfiguration configuration(VpnAdapter adapter) {
+	public VpnAdapterConfiguration configuration(VpnAdapter adapter) {
 		try {
 			try {
 				return new VpnAdapterConfiguration.Builder()
@@ -336,35 +198,45 @@ public abstract class AbstractUnixDesktopPlatformService<I extends VpnAddress>
 		}
 	}
 
-	protected final void addRoutes(VpnAdapter session) throws IOException {
-
-		/* Set routes from the known allowed-ips supplies by Wireguard. */
-		session.allows().clear();
-
+	/**
+	 * Get the allowed IPs of all peers currently active on the adapter.
+	 *
+	 * @param session adapter
+	 * @return allowed IPs
+	 * @throws IOException on error
+	 */
+	protected List<String> allowedIps(VpnAdapter session) throws IOException {
+		var l = new ArrayList<String>();
 		for (var s : context().commands().privileged().output(context().nativeComponents().tool(Tool.WG), "show",
 				session.address().nativeName(), "allowed-ips")) {
 			var t = new StringTokenizer(s);
 			if (t.hasMoreTokens()) {
 				t.nextToken();
 				while (t.hasMoreTokens())
-					session.allows().add(t.nextToken());
+					l.add(t.nextToken());
 			}
 		}
+		return l;
+	}
+
+	protected final void addRoutes(VpnAdapter session) throws IOException {
 
 		/*
-		 * Sort by network subnet size (biggest first)
+		 * Set routes from the known allowed-ips supplies by Wireguard, de-duplicated
+		 * and sorted by network subnet size (biggest first)
 		 */
-		Collections.sort(session.allows(), (a, b) -> {
-			var sa = a.split("/");
-			var sb = b.split("/");
-			Integer ia = sa.length == 1 ? 0 : Integer.parseInt(sa[1]);
-			Integer ib = sb.length == 1 ? 0 : Integer.parseInt(sb[1]);
-			var r = ia.compareTo(ib);
-			if (r == 0) {
-				return a.compareTo(b);
-			} else
-				return r * -1;
-		});
+		var allows = session.allows();
+		allows.clear();
+		var prefixes = RouteDiff.parse(allowedIps(session));
+		var cfg = context().configuration();
+		var maxRoutes = cfg.maxRoutes();
+		if (maxRoutes.isPresent())
+			prefixes = PrefixAggregator.aggregate(prefixes, maxRoutes.get());
+		else if (cfg.aggregateRoutes())
+			prefixes = PrefixAggregator.minimal(prefixes);
+		for (var prefix : prefixes)
+			allows.add(prefix.toString());
+
 		/* Actually add routes */
 		((AbstractUnixAddress<?>) session.address()).setRoutes(session.allows());
 	}
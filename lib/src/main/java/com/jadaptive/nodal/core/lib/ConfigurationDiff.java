@@ -0,0 +1,315 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import com.jadaptive.nodal.core.lib.ipmath.IpToken;
+import com.jadaptive.nodal.core.lib.ipmath.PrefixAggregator;
+import com.jadaptive.nodal.core.lib.util.IpUtil;
+
+/**
+ * The minimal set of changes needed to turn a live {@link VpnAdapterConfiguration}
+ * into a desired one, with peers matched by public key. Applying only these
+ * changes (rather than the whole configuration with {@code wg setconf}) leaves
+ * the sessions of unchanged peers alone.
+ * <p>
+ * A few attributes are treated specially, as the live configuration cannot be
+ * expected to match the desired one exactly.
+ * <ul>
+ * <li>A listen port that is not specified in the desired configuration keeps
+ * whatever port the interface is currently bound to.</li>
+ * <li>A peer endpoint that is not specified in the desired configuration keeps
+ * whatever endpoint the peer has roamed to.</li>
+ * <li>Allowed IPs are compared by the addresses they cover, so order, host
+ * bits and how the addresses are split into prefixes do not matter.</li>
+ * </ul>
+ */
+public final class ConfigurationDiff {
+
+	/**
+	 * Zero key, which as a preshared key means none.
+	 */
+	public final static String NO_KEY = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+
+	/**
+	 * A peer that is either new, or has at least one changed attribute.
+	 */
+	public final static class PeerChange {
+		private final VpnPeer peer;
+		private final boolean added;
+		private final boolean allowedIps;
+		private final boolean endpoint;
+		private final boolean persistentKeepalive;
+		private final boolean presharedKey;
+
+		PeerChange(VpnPeer peer, boolean added, boolean allowedIps, boolean endpoint, boolean persistentKeepalive,
+				boolean presharedKey) {
+			this.peer = peer;
+			this.added = added;
+			this.allowedIps = allowedIps;
+			this.endpoint = endpoint;
+			this.persistentKeepalive = persistentKeepalive;
+			this.presharedKey = presharedKey;
+		}
+
+		/**
+		 * The desired peer.
+		 *
+		 * @return peer
+		 */
+		public VpnPeer peer() {
+			return peer;
+		}
+
+		public String publicKey() {
+			return peer.publicKey();
+		}
+
+		public boolean added() {
+			return added;
+		}
+
+		public boolean allowedIpsChanged() {
+			return allowedIps;
+		}
+
+		public boolean endpointChanged() {
+			return endpoint;
+		}
+
+		/**
+		 * Whether the keepalive changed. If it did and the desired peer has none,
+		 * it should be set to zero.
+		 *
+		 * @return keepalive changed
+		 */
+		public boolean persistentKeepaliveChanged() {
+			return persistentKeepalive;
+		}
+
+		/**
+		 * Whether the preshared key changed. If it did and the desired peer has
+		 * none, it should be set to {@link ConfigurationDiff#NO_KEY}.
+		 *
+		 * @return preshared key changed
+		 */
+		public boolean presharedKeyChanged() {
+			return presharedKey;
+		}
+
+		@Override
+		public String toString() {
+			return "PeerChange [publicKey=" + peer.publicKey() + ", added=" + added + ", allowedIps=" + allowedIps
+					+ ", endpoint=" + endpoint + ", persistentKeepalive=" + persistentKeepalive + ", presharedKey="
+					+ presharedKey + "]";
+		}
+	}
+
+	private final Optional<String> privateKey;
+	private final Optional<Integer> listenPort;
+	private final Optional<Integer> fwMark;
+	private final List<String> removed;
+	private final List<PeerChange> changed;
+
+	private ConfigurationDiff(Optional<String> privateKey, Optional<Integer> listenPort, Optional<Integer> fwMark,
+			List<String> removed, List<PeerChange> changed) {
+		this.privateKey = privateKey;
+		this.listenPort = listenPort;
+		this.fwMark = fwMark;
+		this.removed = Collections.unmodifiableList(removed);
+		this.changed = Collections.unmodifiableList(changed);
+	}
+
+	/**
+	 * Compute the changes needed to get from the live configuration to the
+	 * desired one. Peers in the live configuration that are not in the desired
+	 * one will be removed.
+	 *
+	 * @param live    live configuration
+	 * @param desired desired configuration
+	 * @return changes
+	 */
+	public static ConfigurationDiff between(VpnAdapterConfiguration live, VpnAdapterConfiguration desired) {
+		var privateKey = privateKey(desired).filter(k -> !k.equals(privateKey(live).orElse(null)));
+		var listenPort = desired.listenPort().filter(p -> !p.equals(live.listenPort().orElse(0)));
+		var fwMark = desired.fwMark().orElse(0).equals(live.fwMark().orElse(0))
+				? Optional.<Integer>empty()
+				: Optional.of(desired.fwMark().orElse(0));
+
+		var livePeers = new LinkedHashMap<String, VpnPeer>();
+		for (var peer : live.peers())
+			livePeers.put(peer.publicKey(), peer);
+
+		var changed = new ArrayList<PeerChange>();
+		var wanted = new LinkedHashSet<String>();
+		for (var peer : desired.peers()) {
+			if (!wanted.add(peer.publicKey()))
+				continue;
+			var was = livePeers.get(peer.publicKey());
+			if (was == null) {
+				changed.add(new PeerChange(peer, true, true, peer.endpointAddress().isPresent(),
+						peer.persistentKeepalive().isPresent(), peer.presharedKey().isPresent()));
+			} else {
+				var ips = !allowedIps(peer).equals(allowedIps(was));
+				var endpoint = peer.endpointAddress().isPresent() && (port(peer) != port(was)
+						|| !sameHost(host(peer), host(was)));
+				var keepalive = !peer.persistentKeepalive().equals(was.persistentKeepalive());
+				var psk = !peer.presharedKey().equals(was.presharedKey());
+				if (ips || endpoint || keepalive || psk)
+					changed.add(new PeerChange(peer, false, ips, endpoint, keepalive, psk));
+			}
+		}
+
+		var removed = new ArrayList<String>();
+		for (var key : livePeers.keySet()) {
+			if (!wanted.contains(key))
+				removed.add(key);
+		}
+
+		return new ConfigurationDiff(privateKey, listenPort, fwMark, removed, changed);
+	}
+
+	/**
+	 * New private key, if it changed.
+	 *
+	 * @return private key
+	 */
+	public Optional<String> privateKey() {
+		return privateKey;
+	}
+
+	/**
+	 * New listen port, if it changed.
+	 *
+	 * @return listen port
+	 */
+	public Optional<Integer> listenPort() {
+		return listenPort;
+	}
+
+	/**
+	 * New firewall mark, if it changed. Zero means remove the mark.
+	 *
+	 * @return firewall mark
+	 */
+	public Optional<Integer> fwMark() {
+		return fwMark;
+	}
+
+	/**
+	 * Public keys of peers to remove.
+	 *
+	 * @return public keys
+	 */
+	public List<String> removed() {
+		return removed;
+	}
+
+	/**
+	 * Peers to add or update, in the order they appear in the desired
+	 * configuration.
+	 *
+	 * @return peers
+	 */
+	public List<PeerChange> changed() {
+		return changed;
+	}
+
+	public boolean isEmpty() {
+		return privateKey.isEmpty() && listenPort.isEmpty() && fwMark.isEmpty() && removed.isEmpty() && changed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigurationDiff [privateKey=" + (privateKey.isPresent() ? "<changed>" : "<same>") + ", listenPort="
+				+ listenPort + ", fwMark=" + fwMark + ", removed=" + removed.size() + ", changed=" + changed.size()
+				+ "]";
+	}
+
+	private static Optional<String> privateKey(VpnAdapterConfiguration configuration) {
+		try {
+			return Optional.of(configuration.privateKey());
+		} catch (IllegalStateException ise) {
+			/* Public key only */
+			return Optional.empty();
+		}
+	}
+
+	private static String host(VpnPeer peer) {
+		var host = peer.endpointAddress().orElse("");
+		if (host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		try {
+			/* Literal addresses may be written several ways */
+			return IpUtil.parse(host).toString();
+		} catch (IllegalArgumentException iae) {
+			return host;
+		}
+	}
+
+	/*
+	 * The live endpoint is always an address, so a desired host name is resolved
+	 * before comparing. Otherwise it would always look changed, and setting it
+	 * again would lose the endpoint the peer has roamed to.
+	 */
+	private static boolean sameHost(String desired, String live) {
+		if (desired.equals(live))
+			return true;
+		if (!IpToken.parse(desired).isHostname())
+			return false;
+		try {
+			for (var addr : InetAddress.getAllByName(desired)) {
+				if (IpUtil.parse(addr.getHostAddress()).toString().equals(live))
+					return true;
+			}
+			return false;
+		} catch (UnknownHostException | IllegalArgumentException e) {
+			/* Could not be set anyway */
+			return true;
+		}
+	}
+
+	private static int port(VpnPeer peer) {
+		return peer.endpointPort().orElse(Vpn.DEFAULT_PORT);
+	}
+
+	private static Set<String> allowedIps(VpnPeer peer) {
+		var s = new LinkedHashSet<String>();
+		try {
+			for (var prefix : PrefixAggregator.minimal(RouteDiff.parse(peer.allowedIps())))
+				s.add(prefix.toString());
+		} catch (IllegalArgumentException iae) {
+			for (var ip : peer.allowedIps())
+				s.add(ip.trim());
+		}
+		return s;
+	}
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sshtools.liftlib.ElevatedClosure;
+import com.sshtools.liftlib.commands.SystemCommands;
+
+import uk.co.bithatch.nativeimage.annotations.Serialization;
+
+/**
+ * Collects several privileged commands and {@link ElevatedClosure} tasks so
+ * they can be executed in order with a single elevated round trip, rather
+ * than one per call to {@link SystemCommands#privileged()}.
+ * <p>
+ * Every step gets its own {@link Result}. By default a failing step does not
+ * prevent the following ones from running, use {@link #stopOnFailure()} to
+ * change that.
+ */
+public final class PrivilegedBatch {
+
+	private final static Logger LOG = LoggerFactory.getLogger(PrivilegedBatch.class);
+
+	/**
+	 * The outcome of a single step.
+	 */
+	@SuppressWarnings("serial")
+	@Serialization
+	public final static class Result implements Serializable {
+		private final int exitCode;
+		private final ArrayList<String> output;
+		private final Serializable value;
+		private final String error;
+		private final boolean executed;
+
+		Result(int exitCode, ArrayList<String> output, Serializable value, String error, boolean executed) {
+			this.exitCode = exitCode;
+			this.output = output;
+			this.value = value;
+			this.error = error;
+			this.executed = executed;
+		}
+
+		/**
+		 * Exit code of a command step, always zero for a successful task.
+		 *
+		 * @return exit code
+		 */
+		public int exitCode() {
+			return exitCode;
+		}
+
+		/**
+		 * Combined standard output and error of a command step.
+		 *
+		 * @return output
+		 */
+		public List<String> output() {
+			return Collections.unmodifiableList(output);
+		}
+
+		/**
+		 * Value returned by a task step.
+		 *
+		 * @param <R> type of value
+		 * @return value
+		 */
+		@SuppressWarnings("unchecked")
+		public <R extends Serializable> R value() {
+			return (R) value;
+		}
+
+		public boolean executed() {
+			return executed;
+		}
+
+		public boolean succeeded() {
+			return executed && exitCode == 0 && error == null;
+		}
+
+		/**
+		 * Throw an exception if this step did not succeed.
+		 *
+		 * @return this for chaining
+		 * @throws IOException if step failed
+		 */
+		public Result check() throws IOException {
+			if (!executed)
+				throw new IOException("Step not executed, an earlier step failed.");
+			if (error != null)
+				throw new IOException(error);
+			if (exitCode != 0)
+				throw new IOException("Command failed with exit code " + exitCode + ". " + String.join("\n", output));
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "Result [exitCode=" + exitCode + ", error=" + error + ", executed=" + executed + "]";
+		}
+	}
+
+	@SuppressWarnings("serial")
+	@Serialization
+	private final static class Step implements Serializable {
+		private final String[] args;
+		private final String content;
+		private final ElevatedClosure<?, ?> task;
+
+		Step(String[] args, String content, ElevatedClosure<?, ?> task) {
+			this.args = args;
+			this.content = content;
+			this.task = task;
+		}
+
+		@Override
+		public String toString() {
+			return task == null ? String.join(" ", args) : task.getClass().getSimpleName();
+		}
+	}
+
+	private final SystemCommands commands;
+	private final ArrayList<Step> steps = new ArrayList<>();
+	private boolean stopOnFailure;
+
+	public PrivilegedBatch(SystemCommands commands) {
+		this.commands = commands;
+	}
+
+	/**
+	 * Add a command.
+	 *
+	 * @param args command and arguments
+	 * @return this for chaining
+	 */
+	public PrivilegedBatch run(String... args) {
+		steps.add(new Step(args, null, null));
+		return this;
+	}
+
+	/**
+	 * Add a command that will have the given content written to its standard
+	 * input.
+	 *
+	 * @param content content
+	 * @param args    command and arguments
+	 * @return this for chaining
+	 */
+	public PrivilegedBatch pipeTo(String content, String... args) {
+		steps.add(new Step(args, content, null));
+		return this;
+	}
+
+	/**
+	 * Add a task. It is called in the elevated process in the same way as
+	 * {@link SystemCommands#task(ElevatedClosure)} would, except it is not given
+	 * a proxy, so cannot send events back.
+	 *
+	 * @param task task
+	 * @return this for chaining
+	 */
+	public PrivilegedBatch task(ElevatedClosure<? extends Serializable, ? extends Serializable> task) {
+		steps.add(new Step(null, null, task));
+		return this;
+	}
+
+	/**
+	 * Do not execute any more steps after the first that fails.
+	 *
+	 * @return this for chaining
+	 */
+	public PrivilegedBatch stopOnFailure() {
+		this.stopOnFailure = true;
+		return this;
+	}
+
+	public int size() {
+		return steps.size();
+	}
+
+	public boolean isEmpty() {
+		return steps.isEmpty();
+	}
+
+	/**
+	 * Execute all steps in one privileged round trip.
+	 *
+	 * @return results, one per step in the order they were added
+	 * @throws IOException if the batch itself could not be executed
+	 */
+	public List<Result> execute() throws IOException {
+		if (steps.isEmpty())
+			return Collections.emptyList();
+		if (LOG.isDebugEnabled())
+			LOG.debug("Executing privileged batch of {} steps. {}", steps.size(), steps);
+		try {
+			return commands.privileged().task(new Execute(new ArrayList<>(steps), stopOnFailure));
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to execute privileged batch.", e);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	@Serialization
+	public final static class Execute implements ElevatedClosure<ArrayList<Result>, Serializable> {
+
+		private ArrayList<Step> steps;
+		private boolean stopOnFailure;
+
+		public Execute() {
+		}
+
+		Execute(ArrayList<Step> steps, boolean stopOnFailure) {
+			this.steps = steps;
+			this.stopOnFailure = stopOnFailure;
+		}
+
+		@Override
+		public ArrayList<Result> call(ElevatedClosure<ArrayList<Result>, Serializable> proxy) throws Exception {
+			var results = new ArrayList<Result>(steps.size());
+			var failed = false;
+			for (var step : steps) {
+				Result result;
+				if (failed && stopOnFailure)
+					result = new Result(0, new ArrayList<>(), null, null, false);
+				else if (step.task == null)
+					result = command(step);
+				else
+					result = task(step);
+				failed |= result.executed() && !result.succeeded();
+				results.add(result);
+			}
+			return results;
+		}
+
+		private Result command(Step step) {
+			var output = new ArrayList<String>();
+			try {
+				var pb = new ProcessBuilder(Arrays.asList(step.args));
+				pb.redirectErrorStream(true);
+				var process = pb.start();
+				/* Write input on another thread, as a command may fill its output pipe before reading it all */
+				var writer = new Thread(() -> {
+					try (var out = process.getOutputStream()) {
+						if (step.content != null)
+							out.write(step.content.getBytes(Charset.defaultCharset()));
+					} catch (IOException ioe) {
+						/* Exited without reading everything, the exit code will say why */
+					}
+				}, "PrivilegedBatchInput");
+				writer.setDaemon(true);
+				writer.start();
+				try (var in = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+					String line;
+					while ((line = in.readLine()) != null)
+						output.add(line);
+				}
+				var exit = process.waitFor();
+				writer.join();
+				return new Result(exit, output, null, null, true);
+			} catch (IOException | UncheckedIOException e) {
+				return new Result(-1, output, null, e.getMessage(), true);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new Result(-1, output, null, "Interrupted.", true);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Result task(Step step) {
+			try {
+				var value = ((ElevatedClosure) step.task).call(null);
+				return new Result(0, new ArrayList<>(), value, null, true);
+			} catch (Exception e) {
+				return new Result(0, new ArrayList<>(), null,
+						e.getMessage() == null ? e.getClass().getName() : e.getMessage(), true);
+			}
+		}
+	}
+}
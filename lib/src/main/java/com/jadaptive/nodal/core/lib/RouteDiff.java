@@ -0,0 +1,138 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.jadaptive.nodal.core.lib.ipmath.IpPrefix;
+
+/**
+ * The minimal set of route changes needed to get from the routes an interface
+ * currently has to the ones it should have. Both sides are compared as typed
+ * {@link IpPrefix}es, so differences in notation (host bits, a missing prefix
+ * length) never cause a route to be removed and added again.
+ * <p>
+ * All routes are assumed to be via the same device, so a wanted prefix that is
+ * covered by another wanted prefix is redundant and is dropped. Default route
+ * prefixes do not cover anything, as they are not normally added as plain
+ * routes. Both lists are in {@link IpPrefix} order, i.e. widest first.
+ */
+public final class RouteDiff {
+
+	private final List<IpPrefix> add;
+	private final List<IpPrefix> remove;
+
+	private RouteDiff(List<IpPrefix> add, List<IpPrefix> remove) {
+		this.add = Collections.unmodifiableList(add);
+		this.remove = Collections.unmodifiableList(remove);
+	}
+
+	/**
+	 * Compute the changes needed to go from the current routes to the wanted
+	 * ones.
+	 *
+	 * @param wanted  wanted prefixes
+	 * @param current current routes
+	 * @return changes
+	 */
+	public static RouteDiff between(Collection<IpPrefix> wanted, Collection<IpPrefix> current) {
+		var target = minimal(wanted);
+		var have = new TreeSet<>(current);
+		var add = new ArrayList<IpPrefix>();
+		for (var prefix : target) {
+			if (!have.contains(prefix))
+				add.add(prefix);
+		}
+		var remove = new ArrayList<IpPrefix>();
+		for (var prefix : have) {
+			if (!target.contains(prefix))
+				remove.add(prefix);
+		}
+		return new RouteDiff(add, remove);
+	}
+
+	/**
+	 * Parse, de-duplicate and sort a list of addresses or prefixes, such as
+	 * allowed IPs.
+	 *
+	 * @param cidrs addresses or prefixes
+	 * @return prefixes
+	 * @throws IllegalArgumentException if any are invalid
+	 */
+	public static List<IpPrefix> parse(Collection<String> cidrs) {
+		var s = new TreeSet<IpPrefix>();
+		for (var cidr : cidrs)
+			s.add(IpPrefix.parse(cidr));
+		return new ArrayList<>(s);
+	}
+
+	/**
+	 * Sort and de-duplicate prefixes, dropping any that are covered by a wider
+	 * prefix in the same collection (other than a default route).
+	 *
+	 * @param prefixes prefixes
+	 * @return minimal prefixes
+	 */
+	public static TreeSet<IpPrefix> minimal(Collection<IpPrefix> prefixes) {
+		var sorted = new TreeSet<>(prefixes);
+		var kept = new HashSet<IpPrefix>();
+		var result = new TreeSet<IpPrefix>();
+		for (var prefix : sorted) {
+			/* Widest come first, so any covering prefix has already been seen */
+			if (!covered(kept, prefix)) {
+				kept.add(prefix);
+				result.add(prefix);
+			}
+		}
+		return result;
+	}
+
+	public List<IpPrefix> add() {
+		return add;
+	}
+
+	public List<IpPrefix> remove() {
+		return remove;
+	}
+
+	public boolean isEmpty() {
+		return add.isEmpty() && remove.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "RouteDiff [add=" + add + ", remove=" + remove + "]";
+	}
+
+	private static boolean covered(HashSet<IpPrefix> kept, IpPrefix prefix) {
+		for (var len = prefix.length() - 1; len > 0; len--) {
+			if (kept.contains(prefix.parent(len)))
+				return true;
+		}
+		return false;
+	}
+}
@@ -79,4 +79,26 @@ public interface SystemConfiguration {
     Duration handshakeTimeout();
 
     Optional<String> dnsIntegrationMethod();
+
+    /**
+     * Whether to collapse allowed IPs and routes to the fewest prefixes that
+     * cover exactly the same addresses, before they are given to WireGuard or
+     * the routing table.
+     *
+     * @return aggregate routes
+     */
+    default boolean aggregateRoutes() {
+        return Boolean.getBoolean("nodal.aggregateRoutes");
+    }
+
+    /**
+     * The most routes to add for an interface. If there would be more, routes
+     * are merged into wider ones that may cover addresses that are not in any
+     * peer's allowed IPs. Allowed IPs themselves are never widened.
+     *
+     * @return maximum number of routes
+     */
+    default Optional<Integer> maxRoutes() {
+        return Optional.ofNullable(Integer.getInteger("nodal.maxRoutes"));
+    }
 }
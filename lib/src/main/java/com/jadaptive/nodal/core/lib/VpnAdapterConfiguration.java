@@ -44,6 +44,8 @@ import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.jadaptive.nodal.core.lib.ipmath.IpToken;
+import com.jadaptive.nodal.core.lib.ipmath.OverlapIndex;
 import com.jadaptive.nodal.core.lib.util.Keys;
 import com.jadaptive.nodal.core.lib.util.Util;
 import com.sshtools.jini.INI;
@@ -68,6 +70,7 @@ public interface VpnAdapterConfiguration extends Serializable {
         protected Optional<String> publicKey = Optional.empty();
         protected List<VpnPeer> peers = new ArrayList<>();
         protected Optional<Integer> fwMark = Optional.empty();
+        protected boolean validateAllowedIps = Boolean.getBoolean("nodal.validateAllowedIps");
 
         @SuppressWarnings("unchecked")
         public B fromConfiguration(VpnAdapterConfiguration configuration) {
@@ -198,6 +201,40 @@ public interface VpnAdapterConfiguration extends Serializable {
             return (B) this;
         }
 
+        public B withAllowedIpsValidation() {
+            return withAllowedIpsValidation(true);
+        }
+
+        /**
+         * Reject the configuration when it is built if the allowed IPs of any two
+         * peers overlap. WireGuard would otherwise quietly give any shared
+         * addresses to whichever peer is configured last.
+         *
+         * @param validateAllowedIps validate allowed IPs
+         * @return this for chaining
+         */
+        @SuppressWarnings("unchecked")
+        public B withAllowedIpsValidation(boolean validateAllowedIps) {
+            this.validateAllowedIps = validateAllowedIps;
+            return (B) this;
+        }
+
+        protected void validateAllowedIps() {
+            var index = new OverlapIndex<String>();
+            for (var peer : peers) {
+                for (var ip : peer.allowedIps()) {
+                    var token = IpToken.parse(ip);
+                    if (token.isAddress() || token.isCidr())
+                        index.add(peer.publicKey(), token.prefix());
+                }
+            }
+            var overlaps = index.overlaps();
+            if (!overlaps.isEmpty()) {
+                throw new IllegalStateException(String.format("%d overlapping allowed IPs between peers, including %s",
+                        overlaps.size(), String.join(", ", overlaps.stream().limit(5).map(Object::toString).toList())));
+            }
+        }
+
         protected void readPeerSection(Section peer, com.jadaptive.nodal.core.lib.VpnPeer.Builder peerBldr) {
             peerBldr.withPublicKey(peer.get("PublicKey")).
                 withEndpoint(peer.getOr("Endpoint")).
@@ -234,8 +271,10 @@ public interface VpnAdapterConfiguration extends Serializable {
         private final int fwMark;
 
         DefaultVpnAdapterConfiguration(AbstractBuilder<?> builder) {
+            if (builder.validateAllowedIps)
+                builder.validateAllowedIps();
             listenPort = builder.listenPort.orElse(0);
-            privateKey = builder.privateKey == null ? null : builder.privateKey.orElse(Keys.genkey().getBase64PrivateKey());
+            privateKey = builder.privateKey == null ? null : builder.privateKey.orElseGet(() -> Keys.genkey().getBase64PrivateKey());
             publicKey = builder.publicKey.orElseGet(() -> {
             	if(privateKey == null)
             		throw new IllegalStateException("No public key, and no private key, so public key cannot be derived.");
@@ -278,6 +317,12 @@ public interface VpnAdapterConfiguration extends Serializable {
 
     String privateKey();
 
+    /**
+     * Get the public key. Unless overridden, this is derived from the private key,
+     * with recently derived keys cached by {@link Keys#pubkey(byte[])}.
+     *
+     * @return public key
+     */
     default String publicKey() {
         return Keys.pubkeyBase64(privateKey()).getBase64PublicKey();
     }
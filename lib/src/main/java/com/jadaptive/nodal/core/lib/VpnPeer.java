@@ -32,6 +32,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
+import com.jadaptive.nodal.core.lib.ipmath.IpPrefix;
+import com.jadaptive.nodal.core.lib.ipmath.PrefixComplement;
+
 import uk.co.bithatch.nativeimage.annotations.Serialization;
 
 @Serialization
@@ -75,6 +78,41 @@ public interface VpnPeer extends Serializable {
 			return addAllowedIps(allowedIps);
 		}
 
+		public Builder withAllowedIpsExcept(String... excluded) {
+			return withAllowedIpsExcept(Arrays.asList(excluded));
+		}
+
+		/**
+		 * Set the allowed IPs to all IPv4 and IPv6 addresses except those given,
+		 * as the fewest prefixes possible. Useful for split tunnels that send
+		 * everything but the LAN over the VPN.
+		 *
+		 * @param excluded addresses or prefixes to leave out, of either family
+		 * @return this for chaining
+		 * @throws IllegalArgumentException if any are invalid
+		 */
+		public Builder withAllowedIpsExcept(Collection<String> excluded) {
+			this.allowedIps.clear();
+			for (var prefix : PrefixComplement.allExcept(RouteDiff.parse(excluded)))
+				this.allowedIps.add(prefix.toString());
+			return this;
+		}
+
+		/**
+		 * Add the addresses in one prefix that are not in any of the others as
+		 * allowed IPs, e.g. <code>0.0.0.0/0</code> except the private ranges.
+		 *
+		 * @param within   address or prefix to take addresses out of
+		 * @param excluded addresses or prefixes to leave out
+		 * @return this for chaining
+		 * @throws IllegalArgumentException if any are invalid
+		 */
+		public Builder addAllowedIpsExcept(String within, Collection<String> excluded) {
+			for (var prefix : PrefixComplement.of(IpPrefix.parse(within), RouteDiff.parse(excluded)))
+				this.allowedIps.add(prefix.toString());
+			return this;
+		}
+
 		public Builder withPersistentKeepalive(int persistentKeepalive) {
 			return withPersistentKeepalive(Optional.of(persistentKeepalive));
 		}
@@ -0,0 +1,191 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jadaptive.nodal.core.lib.util.OsUtil;
+import com.jadaptive.nodal.core.lib.util.Util;
+
+/**
+ * Reads the output of the <code>wg</code> tool's <code>dump</code> command,
+ * for use by platforms that query interfaces with it, or by anything else that
+ * has the output to hand.
+ */
+public final class WgDump {
+
+	private WgDump() {
+	}
+
+	/**
+	 * Parse the output of <code>wg show &lt;interface&gt; dump</code>.
+	 *
+	 * @param interfaceName name to report the interface as
+	 * @param lines lines of output
+	 * @return information
+	 */
+	@SuppressWarnings("serial")
+	public static VpnInterfaceInformation parse(String interfaceName, Iterable<String> lines) {
+		var peers = new ArrayList<VpnPeerInformation>();
+		var lastHandshake = new AtomicLong(0l);
+		var rx = new AtomicLong(0l);
+		var tx = new AtomicLong(0l);
+		var port = new AtomicInteger();
+		var fwmark = new AtomicInteger();
+		var publicKey = new StringBuffer();
+		var privateKey = new StringBuffer();
+
+		for (var line : lines) {
+			var st = new StringTokenizer(line);
+			if (st.countTokens() == 4) {
+				privateKey.append(st.nextToken());
+				publicKey.append(st.nextToken());
+				port.set(Integer.parseInt(st.nextToken()));
+				fwmark.set(Util.parseFwMark(st.nextToken()));
+			} else {
+				var peerPublicKey = st.nextToken();
+				var presharedKeyVal = st.nextToken();
+				Optional<String> presharedKey;
+				if (presharedKeyVal.equals("(none)")) {
+					presharedKey = Optional.empty();
+				} else {
+					presharedKey = Optional.of(presharedKeyVal);
+				}
+				var endpoint = st.nextToken();
+				var remoteAddress = endpoint.equals("(none)") ? Optional.<InetSocketAddress>empty() : Optional.of(OsUtil.parseInetSocketAddress(endpoint));
+				var allowedIps = Arrays.asList(st.nextToken().split(","));
+				var thisLastHandshake = Instant.ofEpochSecond(Long.parseLong(st.nextToken()));
+				var thisRx = Long.parseLong(st.nextToken());
+				var thisTx = Long.parseLong(st.nextToken());
+
+				lastHandshake.set(Math.max(lastHandshake.get(), thisLastHandshake.toEpochMilli()));
+				rx.addAndGet(thisRx);
+				tx.addAndGet(thisTx);
+
+				peers.add(new VpnPeerInformation() {
+
+					@Override
+					public long tx() {
+						return thisTx;
+					}
+
+					@Override
+					public long rx() {
+						return thisRx;
+					}
+
+					@Override
+					public Instant lastHandshake() {
+						return thisLastHandshake;
+					}
+
+					@Override
+					public Optional<String> error() {
+						return Optional.empty();
+					}
+
+					@Override
+					public Optional<InetSocketAddress> remoteAddress() {
+						return remoteAddress;
+					}
+
+					@Override
+					public List<String> allowedIps() {
+						return allowedIps;
+					}
+
+					@Override
+					public String publicKey() {
+						return peerPublicKey;
+					}
+
+					@Override
+					public Optional<String> presharedKey() {
+						return presharedKey;
+					}
+
+				});
+			}
+		}
+		return new VpnInterfaceInformation() {
+
+			@Override
+			public String interfaceName() {
+				return interfaceName;
+			}
+
+			@Override
+			public long tx() {
+				return tx.get();
+			}
+
+			@Override
+			public long rx() {
+				return rx.get();
+			}
+
+			@Override
+			public List<VpnPeerInformation> peers() {
+				return peers;
+			}
+
+			@Override
+			public Instant lastHandshake() {
+				return Instant.ofEpochMilli(lastHandshake.get());
+			}
+
+			@Override
+			public Optional<String> error() {
+				return Optional.empty();
+			}
+
+			@Override
+			public Optional<Integer> listenPort() {
+				return port.get() == 0 ? Optional.empty() : Optional.of(port.get());
+			}
+
+			@Override
+			public Optional<Integer> fwmark() {
+				return fwmark.get() == 0 ? Optional.empty() : Optional.of(fwmark.get());
+			}
+
+			@Override
+			public String publicKey() {
+				return publicKey.toString();
+			}
+
+			@Override
+			public String privateKey() {
+				return privateKey.toString();
+			}
+
+		};
+	}
+}
@@ -23,13 +23,9 @@
  */
 package com.jadaptive.nodal.core.lib.ipmath;
 
-import java.math.BigInteger;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
-import static java.math.BigInteger.ONE;
-import static java.math.BigInteger.ZERO;
-
 @SuppressWarnings("serial")
 public abstract class AbstractIpRange<C extends AbstractIp<C, R>, R extends AbstractIpRange<C, R>>
         extends AbstractRange<C, R>
@@ -38,14 +34,11 @@ public abstract class AbstractIpRange<C extends AbstractIp<C, R>, R extends Abst
     protected static final String SLASH = "/";
     protected static final String DASH = "-";
     protected static final String DASH_WITH_SPACES = " - ";
-    private static final BigInteger TWO = BigInteger.valueOf(2);
 
     protected AbstractIpRange(C start, C end) {
         super(start, end);
     }
 
-    protected abstract R newInstance(BigInteger start, BigInteger end);
-
     @Override
     public String toString() {
         if (PrefixUtils.isLegalPrefix(this)) {
@@ -72,36 +65,35 @@ public abstract class AbstractIpRange<C extends AbstractIp<C, R>, R extends Abst
     }
 
     public List<R> splitToPrefixes() {
-        BigInteger rangeEnd = end().asBigInteger();
-        BigInteger currentRangeStart = start().asBigInteger();
-        int startingPrefixLength = start().bitSize();
-        List<R> prefixes = new LinkedList<R>();
-
-        while (currentRangeStart.compareTo(rangeEnd) <= 0) {
-            int maximumPrefixLength = getMaximumPrefixLengthStartingAtIpAddressValue(currentRangeStart, startingPrefixLength);
-            BigInteger maximumSizeOfPrefix = rangeEnd.subtract(currentRangeStart).add(ONE);
-            BigInteger currentSizeOfPrefix = TWO.pow(maximumPrefixLength);
-
-            while ((currentSizeOfPrefix.compareTo(maximumSizeOfPrefix) > 0) && (maximumPrefixLength > 0)) {
-                maximumPrefixLength--;
-                currentSizeOfPrefix = TWO.pow(maximumPrefixLength);
+        C rangeEnd = end();
+        C currentRangeStart = start();
+        int bitSize = currentRangeStart.bitSize();
+        List<R> prefixes = new ArrayList<R>();
+
+        while (true) {
+            /*
+             * Both "start is aligned to the prefix" and "prefix ends within the
+             * range" only become true as the prefix gets longer, so binary search
+             * for the shortest length satisfying both, never shorter than the
+             * prefix the start and end share.
+             */
+            int low = currentRangeStart.getCommonPrefixLength(rangeEnd);
+            int high = bitSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (currentRangeStart.lowerBoundForPrefix(mid).equals(currentRangeStart)
+                        && currentRangeStart.upperBoundForPrefix(mid).compareTo(rangeEnd) <= 0) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
             }
-            BigInteger currentRangeEnd = currentRangeStart.add(TWO.pow(maximumPrefixLength).subtract(ONE));
+            C currentRangeEnd = currentRangeStart.upperBoundForPrefix(low);
             prefixes.add(newInstance(currentRangeStart, currentRangeEnd));
-            currentRangeStart = currentRangeEnd.add(ONE);
-        }
-        return prefixes;
-    }
-
-    private int getMaximumPrefixLengthStartingAtIpAddressValue(BigInteger ipAddressValue, int startingPrefixLength) {
-        int prefixLength = startingPrefixLength;
-        while ((prefixLength >= 0) && !canBeDividedByThePowerOfTwo(ipAddressValue, prefixLength)) {
-            prefixLength--;
+            if (currentRangeEnd.equals(rangeEnd)) {
+                return prefixes;
+            }
+            currentRangeStart = currentRangeEnd.next();
         }
-        return prefixLength;
-    }
-
-    private boolean canBeDividedByThePowerOfTwo(BigInteger number, int power) {
-        return number.remainder(TWO.pow(power)).equals(ZERO);
     }
 }
@@ -0,0 +1,715 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out addresses from a range, such as tunnel addresses for new peers
+ * from the interface subnet, without having to look at the addresses already
+ * in use.
+ * <p>
+ * Ranges of up to {@link #BITMAP_LIMIT} addresses are tracked with a bitmap,
+ * one bit per address, where allocation continues from the lowest word that
+ * may have a free bit so takes amortised constant time. Larger ranges (in
+ * practice IPv6 ones) are tracked as runs of allocated addresses, so memory
+ * depends on how fragmented the pool is rather than how big it is.
+ * <p>
+ * The pool may be split into stripes, each with its own lock, so that many
+ * threads may allocate at once. With a single stripe, the lowest free address
+ * is always allocated first. Only the first {@link Long#MAX_VALUE} addresses of
+ * a range are ever used.
+ * <p>
+ * Allocations may be saved with {@link #snapshot(Path)} and loaded again with
+ * {@link #restore(Path)}, which write runs of allocated addresses as variable
+ * length integers.
+ *
+ * @param <C> address type
+ * @param <R> range type
+ */
+public final class AddressPool<C extends AbstractIp<C, R>, R extends AbstractIpRange<C, R>> {
+
+    /**
+     * The largest number of addresses that will be tracked using a bitmap,
+     * i.e. a 2 MiB bitmap.
+     */
+    public static final long BITMAP_LIMIT = 1L << 24;
+
+    private static final int MAGIC = 0x4E504F4C;
+    private static final int VERSION = 1;
+
+    private final R range;
+    private final boolean ipv6;
+    private final long baseHi;
+    private final long baseLo;
+    private final long size;
+    private final long stripeSize;
+    private final Stripe[] stripes;
+
+    private AddressPool(R range, int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("There must be at least one stripe.");
+        this.range = Validate.notNull(range, "range is required");
+
+        var start = range.start();
+        var end = range.end();
+        if (start instanceof Ipv6) {
+            var s = (Ipv6) start;
+            var e = (Ipv6) end;
+            ipv6 = true;
+            baseHi = s.hi();
+            baseLo = s.lo();
+            var diffLo = e.lo() - s.lo();
+            var diffHi = e.hi() - s.hi() - (Long.compareUnsigned(e.lo(), s.lo()) < 0 ? 1 : 0);
+            size = diffHi == 0 && diffLo >= 0 && diffLo < Long.MAX_VALUE ? diffLo + 1 : Long.MAX_VALUE;
+        } else {
+            ipv6 = false;
+            baseHi = 0;
+            baseLo = ((Ipv4) start).value();
+            size = ((Ipv4) end).value() - baseLo + 1;
+        }
+
+        /* Each stripe gets at least a whole word of the bitmap */
+        var count = (int) Math.max(1, Math.min(stripes, size / Long.SIZE));
+        stripeSize = size / count + (size % count == 0 ? 0 : 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            var length = Math.min(stripeSize, size - i * stripeSize);
+            this.stripes[i] = size <= BITMAP_LIMIT ? new BitmapStripe(length) : new RunStripe(length);
+        }
+    }
+
+    public static AddressPool<Ipv4, Ipv4Range> of(Ipv4Range range) {
+        return of(range, 1);
+    }
+
+    /**
+     * Create a pool of IPv4 addresses.
+     *
+     * @param range   addresses to hand out
+     * @param stripes number of independently locked stripes
+     * @return pool
+     */
+    public static AddressPool<Ipv4, Ipv4Range> of(Ipv4Range range, int stripes) {
+        return new AddressPool<>(range, stripes);
+    }
+
+    public static AddressPool<Ipv6, Ipv6Range> of(Ipv6Range range) {
+        return of(range, 1);
+    }
+
+    /**
+     * Create a pool of IPv6 addresses.
+     *
+     * @param range   addresses to hand out
+     * @param stripes number of independently locked stripes
+     * @return pool
+     */
+    public static AddressPool<Ipv6, Ipv6Range> of(Ipv6Range range, int stripes) {
+        return new AddressPool<>(range, stripes);
+    }
+
+    public R range() {
+        return range;
+    }
+
+    /**
+     * Get the number of addresses this pool may hand out, which is the size of
+     * the range unless that is more than {@link Long#MAX_VALUE}.
+     *
+     * @return capacity
+     */
+    public long capacity() {
+        return size;
+    }
+
+    public long allocated() {
+        var total = 0L;
+        for (var stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                total += stripe.allocated;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    public long available() {
+        return size - allocated();
+    }
+
+    /**
+     * Allocate a free address. When there is more than one stripe, a random
+     * one that is not locked by another thread is tried first.
+     *
+     * @return address, or empty if the pool is exhausted
+     */
+    public Optional<C> allocate() {
+        var first = stripes.length == 1 ? 0 : ThreadLocalRandom.current().nextInt(stripes.length);
+        for (var pass = 0; pass < 2; pass++) {
+            for (var i = 0; i < stripes.length; i++) {
+                var index = (first + i) % stripes.length;
+                var stripe = stripes[index];
+                if (pass == 0) {
+                    if (!stripe.lock.tryLock())
+                        continue;
+                } else {
+                    stripe.lock.lock();
+                }
+                try {
+                    var offset = stripe.allocate();
+                    if (offset != -1)
+                        return Optional.of(address(index * stripeSize + offset));
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Mark an address as in use, for example the server's own address or one
+     * given to a peer before this pool existed.
+     *
+     * @param address address
+     * @return <code>true</code> if the address was free, <code>false</code> if
+     *         it was already allocated or is outside of the pool
+     */
+    public boolean reserve(C address) {
+        var offset = offset(address);
+        if (offset == -1)
+            return false;
+        var stripe = stripes[(int) (offset / stripeSize)];
+        stripe.lock.lock();
+        try {
+            return stripe.reserve(offset % stripeSize, offset % stripeSize) == 1;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Mark all addresses in a range as in use, for example those in a peer's
+     * allowed IPs. Addresses outside of the pool are ignored.
+     *
+     * @param reserved range
+     * @return number of addresses that were free
+     */
+    public long reserve(R reserved) {
+        if (!range.overlaps(Validate.notNull(reserved, "range is required")))
+            return 0;
+        var intersection = range.intersection(reserved);
+        var from = offset(intersection.start());
+        if (from == -1)
+            return 0;
+        var to = offset(intersection.end());
+        if (to == -1)
+            to = size - 1;
+
+        var total = 0L;
+        for (var index = (int) (from / stripeSize); index <= (int) (to / stripeSize); index++) {
+            var stripeStart = index * stripeSize;
+            var stripe = stripes[index];
+            stripe.lock.lock();
+            try {
+                total += stripe.reserve(Math.max(from, stripeStart) - stripeStart,
+                        Math.min(to, stripeStart + stripe.length - 1) - stripeStart);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Return an address to the pool.
+     *
+     * @param address address
+     * @return <code>true</code> if the address was allocated
+     */
+    public boolean release(C address) {
+        var offset = offset(address);
+        if (offset == -1)
+            return false;
+        var stripe = stripes[(int) (offset / stripeSize)];
+        stripe.lock.lock();
+        try {
+            return stripe.release(offset % stripeSize);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public boolean isAllocated(C address) {
+        var offset = offset(address);
+        if (offset == -1)
+            return false;
+        var stripe = stripes[(int) (offset / stripeSize)];
+        stripe.lock.lock();
+        try {
+            return stripe.isAllocated(offset % stripeSize);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Write the allocated addresses to a file. The file is written alongside
+     * and then moved into place, so an existing snapshot is never left half
+     * written.
+     *
+     * @param path file
+     * @throws IOException on error
+     */
+    public void snapshot(Path path) throws IOException {
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var out = Files.newOutputStream(tmp)) {
+            snapshot(out);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write the allocated addresses to a stream. All stripes are locked while
+     * this happens, so the snapshot is consistent.
+     * <p>
+     * After a header identifying the range, each run of allocated addresses is
+     * written as its length followed by the gap since the end of the previous
+     * run, both as unsigned variable length integers. A zero length ends the
+     * list.
+     *
+     * @param out stream
+     * @throws IOException on error
+     */
+    public void snapshot(OutputStream out) throws IOException {
+        var dout = new DataOutputStream(new BufferedOutputStream(out));
+        dout.writeInt(MAGIC);
+        dout.writeByte(VERSION);
+        dout.writeByte(ipv6 ? 6 : 4);
+        dout.writeLong(baseHi);
+        dout.writeLong(baseLo);
+        dout.writeLong(size);
+
+        lockAll();
+        try {
+            var writer = new RunWriter(dout);
+            for (var i = 0; i < stripes.length; i++) {
+                stripes[i].runs(i * stripeSize, writer);
+            }
+            writer.finish();
+        } finally {
+            unlockAll();
+        }
+        dout.flush();
+    }
+
+    /**
+     * Replace the allocated addresses with those in a file written by
+     * {@link #snapshot(Path)}.
+     *
+     * @param path file
+     * @throws IOException on error, or if the snapshot is for another range
+     */
+    public void restore(Path path) throws IOException {
+        try (var in = Files.newInputStream(path)) {
+            restore(in);
+        }
+    }
+
+    /**
+     * Replace the allocated addresses with those in a stream written by
+     * {@link #snapshot(OutputStream)}. If the snapshot is not valid, the pool
+     * is left as it was.
+     *
+     * @param in stream
+     * @throws IOException on error, or if the snapshot is for another range
+     */
+    public void restore(InputStream in) throws IOException {
+        var din = new DataInputStream(new BufferedInputStream(in));
+        if (din.readInt() != MAGIC)
+            throw new IOException("Not an address pool snapshot.");
+        var version = din.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported address pool snapshot version %d.", version));
+        if (din.readUnsignedByte() != (ipv6 ? 6 : 4) || din.readLong() != baseHi || din.readLong() != baseLo
+                || din.readLong() != size)
+            throw new IOException(String.format("Address pool snapshot is not for %s.", range));
+
+        /* Read everything first, so a bad snapshot changes nothing */
+        var runs = new long[16];
+        var count = 0;
+        var next = 0L;
+        long length;
+        while ((length = readVarLong(din)) != 0) {
+            var start = next + readVarLong(din);
+            if (start < next || length < 0 || start > size - length)
+                throw new IOException("Address pool snapshot has addresses outside of the pool.");
+            if (count == runs.length)
+                runs = Arrays.copyOf(runs, count * 2);
+            runs[count++] = start;
+            runs[count++] = start + length - 1;
+            next = start + length;
+        }
+
+        lockAll();
+        try {
+            for (var stripe : stripes) {
+                stripe.clear();
+            }
+            for (var i = 0; i < count; i += 2) {
+                var from = runs[i];
+                var to = runs[i + 1];
+                for (var index = (int) (from / stripeSize); index <= (int) (to / stripeSize); index++) {
+                    var stripeStart = index * stripeSize;
+                    var stripe = stripes[index];
+                    stripe.reserve(Math.max(from, stripeStart) - stripeStart,
+                            Math.min(to, stripeStart + stripe.length - 1) - stripeStart);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AddressPool [range=" + range + ", allocated=" + allocated() + ", capacity=" + size + "]";
+    }
+
+    @SuppressWarnings("unchecked")
+    private C address(long offset) {
+        var lo = baseLo + offset;
+        if (ipv6)
+            return (C) Ipv6.of(baseHi + (Long.compareUnsigned(lo, baseLo) < 0 ? 1 : 0), lo);
+        else
+            return (C) Ipv4.of(lo);
+    }
+
+    private long offset(C address) {
+        if (!range.contains(Validate.notNull(address, "address is required")))
+            return -1;
+        long offset;
+        if (ipv6) {
+            var ip = (Ipv6) address;
+            var diffHi = ip.hi() - baseHi - (Long.compareUnsigned(ip.lo(), baseLo) < 0 ? 1 : 0);
+            offset = diffHi == 0 ? ip.lo() - baseLo : -1;
+        } else {
+            offset = ((Ipv4) address).value() - baseLo;
+        }
+        return offset >= 0 && offset < size ? offset : -1;
+    }
+
+    private void lockAll() {
+        for (var stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (var i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].lock.unlock();
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        var value = 0L;
+        for (var shift = 0; shift < Long.SIZE; shift += 7) {
+            var b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new EOFException("Malformed variable length integer.");
+    }
+
+    /**
+     * Joins runs that meet at stripe boundaries before writing them.
+     */
+    private final static class RunWriter {
+        private final DataOutputStream out;
+        private long next;
+        private long start = -1;
+        private long end;
+
+        private RunWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void run(long from, long to) throws IOException {
+            if (start != -1 && from == end + 1) {
+                end = to;
+                return;
+            }
+            flush();
+            start = from;
+            end = to;
+        }
+
+        void finish() throws IOException {
+            flush();
+            writeVarLong(out, 0);
+        }
+
+        private void flush() throws IOException {
+            if (start != -1) {
+                writeVarLong(out, end - start + 1);
+                writeVarLong(out, start - next);
+                next = end + 1;
+            }
+        }
+    }
+
+    /**
+     * Part of the pool with its own lock. Offsets are relative to the start of
+     * the stripe, and all methods are called with the lock held.
+     */
+    private abstract static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final long length;
+        long allocated;
+
+        Stripe(long length) {
+            this.length = length;
+        }
+
+        abstract long allocate();
+
+        abstract long reserve(long from, long to);
+
+        abstract boolean release(long offset);
+
+        abstract boolean isAllocated(long offset);
+
+        abstract void clear();
+
+        abstract void runs(long base, RunWriter writer) throws IOException;
+    }
+
+    private final static class BitmapStripe extends Stripe {
+        private final long[] words;
+        private int hint;
+
+        BitmapStripe(long length) {
+            super(length);
+            words = new long[(int) ((length + Long.SIZE - 1) / Long.SIZE)];
+        }
+
+        @Override
+        long allocate() {
+            for (; hint < words.length; hint++) {
+                var free = ~words[hint];
+                if (free != 0) {
+                    var offset = (long) hint * Long.SIZE + Long.numberOfTrailingZeros(free);
+                    if (offset >= length)
+                        break;
+                    words[hint] |= 1L << offset;
+                    allocated++;
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        long reserve(long from, long to) {
+            var added = 0L;
+            var first = (int) (from >>> 6);
+            var last = (int) (to >>> 6);
+            for (var i = first; i <= last; i++) {
+                var mask = -1L;
+                if (i == first)
+                    mask &= -1L << from;
+                if (i == last)
+                    mask &= -1L >>> (63 - (to & 63));
+                added += Long.bitCount(mask & ~words[i]);
+                words[i] |= mask;
+            }
+            allocated += added;
+            return added;
+        }
+
+        @Override
+        boolean release(long offset) {
+            var i = (int) (offset >>> 6);
+            var bit = 1L << offset;
+            if ((words[i] & bit) == 0)
+                return false;
+            words[i] &= ~bit;
+            allocated--;
+            if (i < hint)
+                hint = i;
+            return true;
+        }
+
+        @Override
+        boolean isAllocated(long offset) {
+            return (words[(int) (offset >>> 6)] & 1L << offset) != 0;
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(words, 0);
+            allocated = 0;
+            hint = 0;
+        }
+
+        @Override
+        void runs(long base, RunWriter writer) throws IOException {
+            var offset = nextSet(0);
+            while (offset != -1) {
+                var end = nextClear(offset);
+                writer.run(base + offset, base + end - 1);
+                offset = nextSet(end);
+            }
+        }
+
+        private long nextSet(long from) {
+            var i = (int) (from >>> 6);
+            if (i >= words.length)
+                return -1;
+            var word = words[i] & (-1L << from);
+            while (word == 0) {
+                if (++i == words.length)
+                    return -1;
+                word = words[i];
+            }
+            return (long) i * Long.SIZE + Long.numberOfTrailingZeros(word);
+        }
+
+        private long nextClear(long from) {
+            var i = (int) (from >>> 6);
+            var word = ~words[i] & (-1L << from);
+            while (word == 0) {
+                if (++i == words.length)
+                    return length;
+                word = ~words[i];
+            }
+            return Math.min(length, (long) i * Long.SIZE + Long.numberOfTrailingZeros(word));
+        }
+    }
+
+    /**
+     * Allocated addresses as a map of run start to (inclusive) run end, with
+     * runs that touch always merged.
+     */
+    private final static class RunStripe extends Stripe {
+        private final TreeMap<Long, Long> runs = new TreeMap<>();
+
+        RunStripe(long length) {
+            super(length);
+        }
+
+        @Override
+        long allocate() {
+            var first = runs.firstEntry();
+            var offset = first == null || first.getKey() > 0 ? 0 : first.getValue() + 1;
+            if (offset >= length)
+                return -1;
+            reserve(offset, offset);
+            return offset;
+        }
+
+        @Override
+        long reserve(long from, long to) {
+            var covered = 0L;
+            var lo = from;
+            var hi = to;
+            var entry = runs.floorEntry(from);
+            if (entry == null || entry.getValue() < from - 1)
+                entry = runs.higherEntry(from);
+            while (entry != null && entry.getKey() <= to + 1) {
+                var start = entry.getKey();
+                var end = entry.getValue();
+                covered += Math.max(0, Math.min(end, to) - Math.max(start, from) + 1);
+                lo = Math.min(lo, start);
+                hi = Math.max(hi, end);
+                runs.remove(start);
+                entry = runs.higherEntry(start);
+            }
+            runs.put(lo, hi);
+            var added = to - from + 1 - covered;
+            allocated += added;
+            return added;
+        }
+
+        @Override
+        boolean release(long offset) {
+            var entry = runs.floorEntry(offset);
+            if (entry == null || entry.getValue() < offset)
+                return false;
+            var start = entry.getKey();
+            var end = entry.getValue();
+            runs.remove(start);
+            if (start < offset)
+                runs.put(start, offset - 1);
+            if (end > offset)
+                runs.put(offset + 1, end);
+            allocated--;
+            return true;
+        }
+
+        @Override
+        boolean isAllocated(long offset) {
+            var entry = runs.floorEntry(offset);
+            return entry != null && entry.getValue() >= offset;
+        }
+
+        @Override
+        void clear() {
+            runs.clear();
+            allocated = 0;
+        }
+
+        @Override
+        void runs(long base, RunWriter writer) throws IOException {
+            for (var entry : runs.entrySet()) {
+                writer.run(base + entry.getKey(), base + entry.getValue());
+            }
+        }
+    }
+}
@@ -23,7 +23,6 @@
  */
 package com.jadaptive.nodal.core.lib.ipmath;
 
-import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Optional;
 
@@ -41,20 +40,18 @@ public class ConservativePrefixFinder extends PrefixFinder {
 
         @Override
         public Ipv6Range findPrefixOrNull(int prefixLength, Collection<Ipv6Range> ranges) {
-            final BigInteger desiredPrefixSize = BigInteger.valueOf(2).pow(128 - prefixLength);
             Ipv6Range foundPrefix = null;
-            BigInteger currentSize = null;
+            int currentLength = -1;
 
+            /* A prefix is smaller than another exactly when it is longer, no need to compare sizes */
             for (Ipv6Range freeBlock : ranges) {
-                if (freeBlock.size().compareTo(desiredPrefixSize) >= 0) {
-                    final Optional<Ipv6Range> smallestPrefix = PrefixUtils.findMinimumPrefixForPrefixLength(freeBlock, prefixLength);
-                    if (smallestPrefix.isPresent()) {
-                        final Ipv6Range candidatePrefix = smallestPrefix.get();
-                        final BigInteger candidateSize = candidatePrefix.size();
-                        if ((foundPrefix == null) || candidateSize.compareTo(currentSize) < 0) {
-                            foundPrefix = candidatePrefix;
-                            currentSize = candidateSize;
-                        }
+                final Optional<Ipv6Range> smallestPrefix = PrefixUtils.findMinimumPrefixForPrefixLength(freeBlock, prefixLength);
+                if (smallestPrefix.isPresent()) {
+                    final Ipv6Range candidatePrefix = smallestPrefix.get();
+                    final int candidateLength = PrefixUtils.getPrefixLength(candidatePrefix);
+                    if ((foundPrefix == null) || candidateLength > currentLength) {
+                        foundPrefix = candidatePrefix;
+                        currentLength = candidateLength;
                     }
                 }
             }
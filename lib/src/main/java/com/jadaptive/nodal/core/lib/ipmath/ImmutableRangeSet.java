@@ -0,0 +1,320 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of ranges, built in bulk. The input is sorted once and
+ * overlapping or consecutive ranges are merged, leaving a flat sorted array
+ * that is searched with a binary search. Union, intersection and difference
+ * walk two such arrays side by side, so take time linear in their sizes.
+ * <p>
+ * This is the better choice over {@link SortedRangeSet} for large inputs, such
+ * as block lists, that are built once and then queried or combined. Use
+ * {@link #of(SortedRangeSet)} and {@link #toSortedRangeSet()} to convert
+ * between the two.
+ */
+public final class ImmutableRangeSet<C extends Rangeable<C, R>, R extends Range<C, R>> implements Iterable<R> {
+
+    /**
+     * Below this many ranges, a parallel build is not worth the overhead.
+     */
+    public static final int PARALLEL_THRESHOLD = 8192;
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final ImmutableRangeSet<?, ?> EMPTY = new ImmutableRangeSet(new Range[0]);
+
+    private final R[] ranges;
+
+    private ImmutableRangeSet(R[] ranges) {
+        this.ranges = ranges;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <C extends Rangeable<C, R>, R extends Range<C, R>> ImmutableRangeSet<C, R> empty() {
+        return (ImmutableRangeSet<C, R>) EMPTY;
+    }
+
+    public static <C extends Rangeable<C, R>, R extends Range<C, R>> ImmutableRangeSet<C, R> of(Collection<? extends R> ranges) {
+        return of(ranges, false);
+    }
+
+    /**
+     * Build a set from any number of ranges, in any order, which may overlap.
+     * When <code>parallel</code> is set and there are enough ranges, sorting is
+     * done using the common fork/join pool.
+     *
+     * @param ranges   ranges
+     * @param parallel sort in parallel
+     * @return set
+     */
+    @SuppressWarnings("unchecked")
+    public static <C extends Rangeable<C, R>, R extends Range<C, R>> ImmutableRangeSet<C, R> of(Collection<? extends R> ranges, boolean parallel) {
+        if (ranges.isEmpty())
+            return empty();
+        var sorted = (R[]) ranges.toArray(new Range<?, ?>[0]);
+        Comparator<R> comparator = StartAndSizeComparator.<C, R>get();
+        if (parallel && sorted.length >= PARALLEL_THRESHOLD)
+            Arrays.parallelSort(sorted, comparator);
+        else
+            Arrays.sort(sorted, comparator);
+        var merged = new ArrayList<R>(sorted.length);
+        for (var range : sorted)
+            append(merged, range);
+        return create(merged);
+    }
+
+    /**
+     * Copy a {@link SortedRangeSet}, which is already sorted and merged.
+     *
+     * @param ranges ranges
+     * @return set
+     */
+    @SuppressWarnings("unchecked")
+    public static <C extends Rangeable<C, R>, R extends Range<C, R>> ImmutableRangeSet<C, R> of(SortedRangeSet<C, R> ranges) {
+        if (ranges.isEmpty())
+            return empty();
+        var arr = (R[]) new Range<?, ?>[ranges.size()];
+        var i = 0;
+        for (var range : ranges)
+            arr[i++] = range;
+        return new ImmutableRangeSet<>(arr);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C extends Rangeable<C, R>, R extends Range<C, R>> ImmutableRangeSet<C, R> create(List<R> merged) {
+        return merged.isEmpty() ? empty() : new ImmutableRangeSet<>((R[]) merged.toArray(new Range<?, ?>[0]));
+    }
+
+    /*
+     * Add a range that starts at or after the start of the last one, merging if
+     * they overlap or touch.
+     */
+    private static <C extends Rangeable<C, R>, R extends Range<C, R>> void append(List<R> merged, R range) {
+        if (!merged.isEmpty()) {
+            var last = merged.get(merged.size() - 1);
+            var lastEnd = last.end();
+            if (range.start().compareTo(lastEnd) <= 0 || (lastEnd.hasNext() && lastEnd.next().equals(range.start()))) {
+                if (range.end().compareTo(lastEnd) > 0)
+                    merged.set(merged.size() - 1, last.merge(range));
+                return;
+            }
+        }
+        merged.add(range);
+    }
+
+    public boolean contains(C value) {
+        var idx = floorIndex(value);
+        return idx != -1 && ranges[idx].end().compareTo(value) >= 0;
+    }
+
+    public boolean contains(R range) {
+        var idx = floorIndex(range.start());
+        return idx != -1 && ranges[idx].end().compareTo(range.end()) >= 0;
+    }
+
+    /**
+     * Get if any part of the range is in this set.
+     *
+     * @param range range
+     * @return overlaps
+     */
+    public boolean overlaps(R range) {
+        var idx = floorIndex(range.end());
+        return idx != -1 && ranges[idx].end().compareTo(range.start()) >= 0;
+    }
+
+    public ImmutableRangeSet<C, R> union(ImmutableRangeSet<C, R> other) {
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+        var merged = new ArrayList<R>(ranges.length + other.ranges.length);
+        int i = 0, j = 0;
+        while (i < ranges.length || j < other.ranges.length) {
+            if (j == other.ranges.length
+                    || (i < ranges.length && ranges[i].start().compareTo(other.ranges[j].start()) <= 0))
+                append(merged, ranges[i++]);
+            else
+                append(merged, other.ranges[j++]);
+        }
+        return create(merged);
+    }
+
+    public ImmutableRangeSet<C, R> intersection(ImmutableRangeSet<C, R> other) {
+        var result = new ArrayList<R>();
+        int i = 0, j = 0;
+        while (i < ranges.length && j < other.ranges.length) {
+            var a = ranges[i];
+            var b = other.ranges[j];
+            if (a.start().compareTo(b.end()) <= 0 && b.start().compareTo(a.end()) <= 0)
+                result.add(a.intersection(b));
+            if (a.end().compareTo(b.end()) <= 0)
+                i++;
+            else
+                j++;
+        }
+        return create(result);
+    }
+
+    /**
+     * Get the ranges in this set that are not in another.
+     *
+     * @param other ranges to remove
+     * @return difference
+     */
+    public ImmutableRangeSet<C, R> difference(ImmutableRangeSet<C, R> other) {
+        if (isEmpty() || other.isEmpty())
+            return this;
+        var result = new ArrayList<R>(ranges.length);
+        var j = 0;
+        for (var range : ranges) {
+            var current = range;
+            while (j < other.ranges.length && other.ranges[j].end().compareTo(current.start()) < 0)
+                j++;
+            while (current != null && j < other.ranges.length
+                    && other.ranges[j].start().compareTo(current.end()) <= 0) {
+                var excluded = other.ranges[j];
+                R remaining = null;
+                for (var part : current.exclude(excluded)) {
+                    if (part.end().compareTo(excluded.start()) < 0)
+                        result.add(part);
+                    else
+                        remaining = part;
+                }
+                current = remaining;
+                /* An excluded range that runs past this one may affect the next */
+                if (current != null)
+                    j++;
+            }
+            if (current != null)
+                result.add(current);
+        }
+        return create(result);
+    }
+
+    /*
+     * Index of the last range starting at or before the value, or -1.
+     */
+    private int floorIndex(C value) {
+        int low = 0, high = ranges.length - 1, found = -1;
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            if (ranges[mid].start().compareTo(value) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public R floor(R range) {
+        var idx = floorIndex(range.start());
+        return idx == -1 ? null : ranges[idx];
+    }
+
+    public R ceiling(R range) {
+        var idx = floorIndex(range.start());
+        if (idx != -1 && ranges[idx].start().equals(range.start()))
+            return ranges[idx];
+        return idx + 1 < ranges.length ? ranges[idx + 1] : null;
+    }
+
+    public R get(int index) {
+        return ranges[index];
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * @return number of (merged) ranges
+     */
+    public int size() {
+        return ranges.length;
+    }
+
+    public R getSingleRange() {
+        Validate.isTrue(ranges.length == 1, "Expected exactly one range");
+        return ranges[0];
+    }
+
+    /**
+     * @return the ranges, in order, as an unmodifiable {@link List}
+     */
+    public List<R> asList() {
+        return Collections.unmodifiableList(Arrays.asList(ranges));
+    }
+
+    /**
+     * @return a modifiable copy of the ranges as a {@link Set}, ordered as
+     *         {@link SortedRangeSet#modifiableSet()} is
+     */
+    public Set<R> modifiableSet() {
+        var copy = new TreeSet<R>(StartAndSizeComparator.<C, R>get());
+        copy.addAll(asList());
+        return copy;
+    }
+
+    /**
+     * @return a {@link SortedRangeSet} with the same ranges
+     */
+    public SortedRangeSet<C, R> toSortedRangeSet() {
+        return new SortedRangeSet<>(asList());
+    }
+
+    @Override
+    public Iterator<R> iterator() {
+        return asList().iterator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ImmutableRangeSet))
+            return false;
+        return Arrays.equals(ranges, ((ImmutableRangeSet<?, ?>) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ranges);
+    }
+}
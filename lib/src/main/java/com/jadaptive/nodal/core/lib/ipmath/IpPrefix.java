@@ -0,0 +1,148 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.io.Serializable;
+
+/**
+ * A network prefix in CIDR notation, i.e. an {@link Ipv4} or {@link Ipv6}
+ * network address and a prefix length. Host bits are always masked off, so
+ * <code>10.1.2.3/16</code> and <code>10.1.0.0/16</code> are equal.
+ * <p>
+ * Prefixes are ordered by family (IPv4 first), then by prefix length (widest
+ * first), then by address.
+ */
+public final class IpPrefix implements Comparable<IpPrefix>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AbstractIp<?, ?> network;
+    private final int length;
+
+    private IpPrefix(AbstractIp<?, ?> network, int length) {
+        this.network = network;
+        this.length = length;
+    }
+
+    public static IpPrefix of(AbstractIp<?, ?> address, int length) {
+        Validate.checkRange(length, 0, address.bitSize());
+        return new IpPrefix(address.lowerBoundForPrefix(length), length);
+    }
+
+    /**
+     * Parse a prefix in CIDR notation, or a single address (which gets a prefix
+     * length covering the whole address). Any interface suffix (e.g.
+     * <code>%eth0</code>) is ignored.
+     *
+     * @param cidr prefix
+     * @return prefix
+     * @throws IllegalArgumentException if not a valid prefix
+     */
+    public static IpPrefix parse(String cidr) {
+        var token = IpToken.parse(Validate.notNull(cidr, "cidr is required"));
+        if (!token.isAddress() && !token.isCidr())
+            throw new IllegalArgumentException(String.format("Invalid prefix '%s'", cidr));
+        return token.prefix();
+    }
+
+    public AbstractIp<?, ?> network() {
+        return network;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int bitSize() {
+        return network.bitSize();
+    }
+
+    public boolean isIpv4() {
+        return network instanceof Ipv4;
+    }
+
+    /**
+     * Get if this is a default route prefix, i.e. <code>0.0.0.0/0</code> or
+     * <code>::/0</code>.
+     *
+     * @return default
+     */
+    public boolean isDefault() {
+        return length == 0;
+    }
+
+    /**
+     * Get the prefix of the given (shorter) length that covers this one.
+     *
+     * @param length prefix length
+     * @return parent prefix
+     */
+    public IpPrefix parent(int length) {
+        Validate.checkRange(length, 0, this.length);
+        return length == this.length ? this : of(network, length);
+    }
+
+    /**
+     * Get if this prefix covers (or is equal to) another.
+     *
+     * @param other other
+     * @return contains
+     */
+    public boolean contains(IpPrefix other) {
+        return other.isIpv4() == isIpv4() && other.length >= length
+                && other.network.lowerBoundForPrefix(length).equals(network);
+    }
+
+    public boolean contains(AbstractIp<?, ?> address) {
+        return (address instanceof Ipv4) == isIpv4() && address.lowerBoundForPrefix(length).equals(network);
+    }
+
+    @Override
+    public int compareTo(IpPrefix o) {
+        if (isIpv4() != o.isIpv4())
+            return isIpv4() ? -1 : 1;
+        var r = Integer.compare(length, o.length);
+        if (r != 0)
+            return r;
+        return isIpv4() ? ((Ipv4) network).compareTo((Ipv4) o.network) : ((Ipv6) network).compareTo((Ipv6) o.network);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        var that = (IpPrefix) o;
+        return length == that.length && network.equals(that.network);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * network.hashCode() + length;
+    }
+
+    @Override
+    public String toString() {
+        return network + "/" + length;
+    }
+}
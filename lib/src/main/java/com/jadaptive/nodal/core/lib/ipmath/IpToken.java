@@ -0,0 +1,379 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.Optional;
+
+/**
+ * Classifies and parses a piece of text as an IPv4 or IPv6 address, a prefix in
+ * CIDR notation, or a host name, in a single pass and without throwing
+ * exceptions for anything that does not match. Text that is none of these is
+ * {@link Type#INVALID}.
+ * <p>
+ * As well as whole strings, a slice of a {@link CharSequence} may be parsed, so
+ * fields may be picked straight out of a line of command output. Surrounding
+ * whitespace is ignored. IPv6 addresses may carry a zone (e.g.
+ * <code>fe80::1%eth0</code>).
+ */
+public final class IpToken {
+
+    public enum Type {
+        IPV4, IPV6, IPV4_CIDR, IPV6_CIDR, HOSTNAME, INVALID
+    }
+
+    private static final int MAX_HOSTNAME_LENGTH = 253;
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private static final IpToken INVALID = new IpToken(Type.INVALID, 0, 0, -1, null);
+
+    private final Type type;
+    private final long hi;
+    private final long lo;
+    private final int prefixLength;
+    private final String text;
+
+    private IpToken(Type type, long hi, long lo, int prefixLength, String text) {
+        this.type = type;
+        this.hi = hi;
+        this.lo = lo;
+        this.prefixLength = prefixLength;
+        this.text = text;
+    }
+
+    public static IpToken parse(CharSequence str) {
+        return str == null ? INVALID : parse(str, 0, str.length());
+    }
+
+    /**
+     * Parse part of a sequence.
+     *
+     * @param str   sequence
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return token, never <code>null</code>
+     */
+    public static IpToken parse(CharSequence str, int start, int end) {
+        while (start < end && Character.isWhitespace(str.charAt(start)))
+            start++;
+        while (end > start && Character.isWhitespace(str.charAt(end - 1)))
+            end--;
+        if (start == end)
+            return INVALID;
+
+        var slash = -1;
+        var pct = -1;
+        var colon = false;
+        for (var i = start; i < end; i++) {
+            var ch = str.charAt(i);
+            if (ch == '/') {
+                if (slash != -1)
+                    return INVALID;
+                slash = i;
+            } else if (ch == '%' && slash == -1) {
+                if (pct != -1)
+                    return INVALID;
+                pct = i;
+            } else if (ch == ':' && pct == -1 && slash == -1)
+                colon = true;
+        }
+
+        var addrEnd = pct == -1 ? (slash == -1 ? end : slash) : pct;
+        String zone = null;
+        if (pct != -1) {
+            var zoneEnd = slash == -1 ? end : slash;
+            if (!colon || zoneEnd == pct + 1)
+                return INVALID;
+            zone = str.subSequence(pct + 1, zoneEnd).toString();
+        }
+
+        var prefixLength = -1;
+        if (slash != -1) {
+            prefixLength = parsePrefixLength(str, slash + 1, end, colon ? Ipv6.NUMBER_OF_BITS : Ipv4.NUMBER_OF_BITS);
+            if (prefixLength == -1)
+                return INVALID;
+        }
+
+        if (colon) {
+            var hi = 0L;
+            var lo = 0L;
+            var headCount = 0;
+            var tailCount = 0;
+            var tailHi = 0L;
+            var tailLo = 0L;
+            var compressed = false;
+            var i = start;
+            if (str.charAt(i) == ':') {
+                if (i + 1 == addrEnd || str.charAt(i + 1) != ':')
+                    return INVALID;
+                compressed = true;
+                i += 2;
+            }
+            while (i < addrEnd) {
+                var groupStart = i;
+                var group = 0;
+                while (i < addrEnd) {
+                    var digit = hexDigit(str.charAt(i));
+                    if (digit == -1)
+                        break;
+                    group = (group << 4) | digit;
+                    if (++i - groupStart > 4)
+                        return INVALID;
+                }
+                if (i < addrEnd && str.charAt(i) == '.') {
+                    /* Embedded IPv4, must be the last two groups */
+                    var v4 = Ipv4Utils.parse(str, groupStart, addrEnd);
+                    if (v4 == Ipv4Utils.INVALID || headCount + tailCount > 6)
+                        return INVALID;
+                    if (compressed) {
+                        tailHi = (tailHi << 32) | (tailLo >>> 32);
+                        tailLo = (tailLo << 32) | v4;
+                        tailCount += 2;
+                    } else {
+                        hi = (hi << 32) | (lo >>> 32);
+                        lo = (lo << 32) | v4;
+                        headCount += 2;
+                    }
+                    i = addrEnd;
+                    break;
+                }
+                if (i == groupStart || headCount + tailCount == 8)
+                    return INVALID;
+                if (compressed) {
+                    tailHi = (tailHi << 16) | (tailLo >>> 48);
+                    tailLo = (tailLo << 16) | group;
+                    tailCount++;
+                } else {
+                    hi = (hi << 16) | (lo >>> 48);
+                    lo = (lo << 16) | group;
+                    headCount++;
+                }
+                if (i == addrEnd)
+                    break;
+                if (str.charAt(i++) != ':' || i == addrEnd)
+                    return INVALID;
+                if (str.charAt(i) == ':') {
+                    if (compressed)
+                        return INVALID;
+                    compressed = true;
+                    i++;
+                }
+            }
+            if (compressed) {
+                if (headCount + tailCount > 7)
+                    return INVALID;
+                /* Move the groups before the "::" up to the top */
+                var shift = 16 * (8 - headCount);
+                if (shift >= 128) {
+                    hi = 0;
+                    lo = 0;
+                } else if (shift >= 64) {
+                    hi = lo << (shift - 64);
+                    lo = 0;
+                } else if (shift > 0) {
+                    hi = (hi << shift) | (lo >>> (64 - shift));
+                    lo = lo << shift;
+                }
+                hi |= tailHi;
+                lo |= tailLo;
+            } else if (headCount != 8)
+                return INVALID;
+            return new IpToken(slash == -1 ? Type.IPV6 : Type.IPV6_CIDR, hi, lo,
+                    slash == -1 ? Ipv6.NUMBER_OF_BITS : prefixLength, zone);
+        }
+
+        var v4 = Ipv4Utils.parse(str, start, addrEnd);
+        if (v4 != Ipv4Utils.INVALID)
+            return new IpToken(slash == -1 ? Type.IPV4 : Type.IPV4_CIDR, 0, v4,
+                    slash == -1 ? Ipv4.NUMBER_OF_BITS : prefixLength, null);
+
+        if (slash == -1 && isHostname(str, start, end))
+            return new IpToken(Type.HOSTNAME, 0, 0, -1, str.subSequence(start, end).toString());
+
+        return INVALID;
+    }
+
+    private static int hexDigit(char ch) {
+        if (ch >= '0' && ch <= '9')
+            return ch - '0';
+        if (ch >= 'a' && ch <= 'f')
+            return ch - 'a' + 10;
+        if (ch >= 'A' && ch <= 'F')
+            return ch - 'A' + 10;
+        return -1;
+    }
+
+    private static int parsePrefixLength(CharSequence str, int start, int end, int max) {
+        if (start == end || end - start > 3)
+            return -1;
+        var len = 0;
+        for (var i = start; i < end; i++) {
+            var ch = str.charAt(i);
+            if (ch < '0' || ch > '9')
+                return -1;
+            len = len * 10 + (ch - '0');
+        }
+        return len > max ? -1 : len;
+    }
+
+    /*
+     * RFC 1123 names, relaxed to allow underscores (seen in service names) and
+     * a trailing dot. The last label may not be all digits, so that anything
+     * that looks like a broken dotted quad is not mistaken for a name.
+     */
+    private static boolean isHostname(CharSequence str, int start, int end) {
+        if (str.charAt(end - 1) == '.')
+            end--;
+        if (end - start == 0 || end - start > MAX_HOSTNAME_LENGTH)
+            return false;
+        var labelStart = start;
+        var numeric = true;
+        for (var i = start; i <= end; i++) {
+            var ch = i == end ? '.' : str.charAt(i);
+            if (ch == '.') {
+                var labelLength = i - labelStart;
+                if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH || str.charAt(labelStart) == '-'
+                        || str.charAt(i - 1) == '-')
+                    return false;
+                if (i < end)
+                    numeric = true;
+                labelStart = i + 1;
+            } else if (ch >= '0' && ch <= '9') {
+                continue;
+            } else if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '-' || ch == '_') {
+                numeric = false;
+            } else
+                return false;
+        }
+        return !numeric;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public boolean isValid() {
+        return type != Type.INVALID;
+    }
+
+    /**
+     * Get if this is a single address (without a prefix length) of either family.
+     *
+     * @return address
+     */
+    public boolean isAddress() {
+        return type == Type.IPV4 || type == Type.IPV6;
+    }
+
+    public boolean isCidr() {
+        return type == Type.IPV4_CIDR || type == Type.IPV6_CIDR;
+    }
+
+    public boolean isIpv4() {
+        return type == Type.IPV4 || type == Type.IPV4_CIDR;
+    }
+
+    public boolean isIpv6() {
+        return type == Type.IPV6 || type == Type.IPV6_CIDR;
+    }
+
+    public boolean isHostname() {
+        return type == Type.HOSTNAME;
+    }
+
+    /**
+     * Upper 64 bits of an IPv6 address, zero for anything else.
+     *
+     * @return upper bits
+     */
+    public long hi() {
+        return hi;
+    }
+
+    /**
+     * Lower 64 bits of an IPv6 address, or the value of an IPv4 address as used
+     * by {@link Ipv4Utils}.
+     *
+     * @return lower bits
+     */
+    public long lo() {
+        return lo;
+    }
+
+    /**
+     * Prefix length for CIDR notation, the full address length for a single
+     * address, or <code>-1</code> otherwise.
+     *
+     * @return prefix length
+     */
+    public int prefixLength() {
+        return prefixLength;
+    }
+
+    public Optional<String> zone() {
+        return isIpv6() ? Optional.ofNullable(text) : Optional.empty();
+    }
+
+    public Optional<String> hostname() {
+        return isHostname() ? Optional.of(text) : Optional.empty();
+    }
+
+    /**
+     * Get the address, which for CIDR notation is the address as written, not
+     * the network.
+     *
+     * @return address
+     * @throws IllegalStateException if not an address or CIDR
+     */
+    public AbstractIp<?, ?> address() {
+        if (isIpv4())
+            return Ipv4.of(lo);
+        if (isIpv6())
+            return Ipv6.of(hi, lo);
+        throw new IllegalStateException("Not an IP address, " + type);
+    }
+
+    /**
+     * Get the prefix, with any host bits cleared.
+     *
+     * @return prefix
+     * @throws IllegalStateException if not an address or CIDR
+     */
+    public IpPrefix prefix() {
+        return IpPrefix.of(address(), prefixLength);
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+        case IPV4:
+        case IPV6:
+            return address().toString();
+        case IPV4_CIDR:
+        case IPV6_CIDR:
+            return address() + "/" + prefixLength;
+        case HOSTNAME:
+            return text;
+        default:
+            return type.name();
+        }
+    }
+}
@@ -24,7 +24,6 @@
 package com.jadaptive.nodal.core.lib.ipmath;
 
 import java.math.BigInteger;
-import java.util.regex.Pattern;
 
 public final class Ipv4 extends AbstractIp<Ipv4, Ipv4Range> {
 
@@ -38,21 +37,21 @@ public final class Ipv4 extends AbstractIp<Ipv4, Ipv4Range> {
     public static final Ipv4 FIRST_IPV4_ADDRESS = Ipv4.of(MINIMUM_VALUE);
     public static final Ipv4 LAST_IPV4_ADDRESS = Ipv4.of(MAXIMUM_VALUE);
 
-    private static final int TOTAL_OCTETS = 4;
-    private static final int MAX_OCTET_VALUE = 255;
-    private static final int MIN_OCTET_VALUE = 0;
-    private static final int THREE_OCTETS = 24;
-    private static final int TWO_OCTETS = 16;
-    private static final int ONE_OCTET = 8;
     private static final String DEFAULT_PARSING_ERROR_MESSAGE = "Invalid IPv4 address: '%s'";
-    private static final Pattern LEADING_ZERO_IN_IPV4 = Pattern.compile("(^|\\.)0[0-9]");
 
-    private final Long value;
+    private final long value;
 
     protected Ipv4(Long value) {
-        this.value = Validate.notNull(value, "value is required");
-        Validate.isTrue(value.compareTo(MINIMUM_VALUE) >= 0, "Value of IPv4 has to be greater than or equal to " + MINIMUM_VALUE);
-        Validate.isTrue(value.compareTo(MAXIMUM_VALUE) <= 0, "Value of IPv4 has to be less than or equal to " + MAXIMUM_VALUE + " was: " + value);
+        this(Validate.notNull(value, "value is required").longValue());
+    }
+
+    protected Ipv4(long value) {
+        /* Only build messages on failure, this is called for every address */
+        if (value < MINIMUM_VALUE)
+            throw new IllegalArgumentException("Value of IPv4 has to be greater than or equal to " + MINIMUM_VALUE);
+        if (value > MAXIMUM_VALUE)
+            throw new IllegalArgumentException("Value of IPv4 has to be less than or equal to " + MAXIMUM_VALUE + " was: " + value);
+        this.value = value;
     }
 
     long value() {
@@ -74,57 +73,25 @@ public final class Ipv4 extends AbstractIp<Ipv4, Ipv4Range> {
         return parse(value);
     }
 
-    public static Ipv4 parse(String ipv4Address) {
-        try {
-            String ipv4String = Validate.notNull(ipv4Address).trim();
-            Validate.isTrue(!ipv4String.isEmpty()
-                    && Character.isDigit(ipv4String.charAt(0))
-                    && Character.isDigit(ipv4String.charAt(ipv4String.length() - 1)));
-
-            Validate.isTrue(!LEADING_ZERO_IN_IPV4.matcher(ipv4String).find(),
-                    "IPv4 cannot have leading zeros, as this may be mistaken for octal numbers.");
-
-            long value = 0;
-            int octet = 0;
-            int octetCount = 1;
-            for (int i = 0; i < ipv4String.length(); ++i) {
-                char ch = ipv4String.charAt(i);
-                if (Character.isDigit(ch)) {
-                    octet = octet * 10 + (ch - '0');
-                } else if (ch == '.') {
-                    Validate.isTrue(octetCount < TOTAL_OCTETS);
-                    octetCount++;
-                    value = addOctet(value, octet);
-                    octet = 0;
-                } else {
-                    throw new IllegalArgumentException(String.format(DEFAULT_PARSING_ERROR_MESSAGE, ipv4Address));
-                }
-            }
-            Validate.isTrue(octetCount == TOTAL_OCTETS);
-            return new Ipv4(addOctet(value, octet));
-        } catch (Exception e) {
-            throw new IllegalArgumentException(String.format(DEFAULT_PARSING_ERROR_MESSAGE, ipv4Address), e);
-        }
+    public static Ipv4 of(long value) {
+        return new Ipv4(value);
     }
 
-    private static long addOctet(long value, int octet) {
-        Validate.checkRange(octet, MIN_OCTET_VALUE, MAX_OCTET_VALUE);
-        return ((value) << 8) | octet;
+    public static Ipv4 parse(String ipv4Address) {
+        var value = Ipv4Utils.parse(Validate.notNull(ipv4Address));
+        if (value == Ipv4Utils.INVALID)
+            throw new IllegalArgumentException(String.format(DEFAULT_PARSING_ERROR_MESSAGE, ipv4Address));
+        return new Ipv4(value);
     }
 
     @Override
     public int compareTo(Ipv4 other) {
-        return value.compareTo(other.value);
+        return Long.compare(value, other.value);
     }
 
     @Override
     public String toString() {
-        int a = (int) (value >> THREE_OCTETS);
-        int b = (int) (value >> TWO_OCTETS) & BYTE_MASK;
-        int c = (int) (value >> ONE_OCTET) & BYTE_MASK;
-        int d = (int) (value & BYTE_MASK);
-
-        return a + "." + b + "." + c + "." + d;
+        return Ipv4Utils.toString(value);
     }
 
     /*@Override
@@ -146,12 +113,12 @@ public final class Ipv4 extends AbstractIp<Ipv4, Ipv4Range> {
 
     @Override
     public boolean hasNext() {
-        return this.compareTo(LAST_IPV4_ADDRESS) < 0;
+        return value < MAXIMUM_VALUE;
     }
 
     @Override
     public boolean hasPrevious() {
-        return this.compareTo(FIRST_IPV4_ADDRESS) > 0;
+        return value > MINIMUM_VALUE;
     }
 
     @Override
@@ -171,22 +138,24 @@ public final class Ipv4 extends AbstractIp<Ipv4, Ipv4Range> {
 
     @Override
     public Ipv4 lowerBoundForPrefix(int prefixLength) {
-        Validate.checkRange(prefixLength, 0, NUMBER_OF_BITS);
-        long mask = ~((1L << (NUMBER_OF_BITS - prefixLength)) - 1);
-        return new Ipv4(value & mask);
+        checkPrefixLength(prefixLength);
+        return new Ipv4(Ipv4Utils.lowerBound(value, prefixLength));
     }
 
     @Override
     public Ipv4 upperBoundForPrefix(int prefixLength) {
-        Validate.checkRange(prefixLength, 0, NUMBER_OF_BITS);
-        long mask = (1L << (NUMBER_OF_BITS - prefixLength)) - 1;
-        return new Ipv4(value | mask);
+        checkPrefixLength(prefixLength);
+        return new Ipv4(Ipv4Utils.upperBound(value, prefixLength));
+    }
+
+    private static void checkPrefixLength(int prefixLength) {
+        if (prefixLength < 0 || prefixLength > NUMBER_OF_BITS)
+            throw new IllegalArgumentException("Value [" + prefixLength + "] out of range: [0.." + NUMBER_OF_BITS + "]");
     }
 
     @Override
     public int getCommonPrefixLength(Ipv4 other) {
-        long temp = value ^ other.value;
-        return Integer.numberOfLeadingZeros((int) temp);
+        return Ipv4Utils.commonPrefixLength(value, other.value);
     }
 
     @Override
@@ -198,11 +167,11 @@ public final class Ipv4 extends AbstractIp<Ipv4, Ipv4Range> {
             return false;
         }
         Ipv4 that = (Ipv4) o;
-        return value.equals(that.value);
+        return value == that.value;
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return Long.hashCode(value);
     }
 }
@@ -33,11 +33,6 @@ public final class Ipv4Range extends AbstractIpRange<Ipv4, Ipv4Range> {
         super(start, end);
     }
 
-    @Override
-    protected Ipv4Range newInstance(BigInteger start, BigInteger end) {
-        return Ipv4Range.from(start).to(end);
-    }
-
     @Override
     protected Ipv4Range newInstance(Ipv4 start, Ipv4 end) {
         return new Ipv4Range(start, end);
@@ -0,0 +1,324 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of IPv4 addresses, held as sorted, non-overlapping and non-adjacent
+ * ranges in two primitive <code>long[]</code> arrays. Adjacent or overlapping
+ * ranges are merged as they are added, so the set is always in its most
+ * compact form. Lookups are a binary search, and nothing is allocated per
+ * address.
+ */
+public final class Ipv4RangeSet {
+
+    /**
+     * Receives prefixes without allocating an object for each.
+     */
+    @FunctionalInterface
+    public interface PrefixConsumer {
+        void accept(long network, int length);
+    }
+
+    private long[] starts;
+    private long[] ends;
+    private int count;
+
+    public Ipv4RangeSet() {
+        this(8);
+    }
+
+    public Ipv4RangeSet(int capacity) {
+        starts = new long[Math.max(1, capacity)];
+        ends = new long[starts.length];
+    }
+
+    public Ipv4RangeSet(Ipv4RangeSet other) {
+        starts = Arrays.copyOf(other.starts, Math.max(1, other.count));
+        ends = Arrays.copyOf(other.ends, starts.length);
+        count = other.count;
+    }
+
+    /**
+     * Add a single address.
+     *
+     * @param address address
+     * @return this for chaining
+     */
+    public Ipv4RangeSet add(long address) {
+        return add(address, address);
+    }
+
+    /**
+     * Add all addresses in a prefix.
+     *
+     * @param network network address (host bits are ignored)
+     * @param length  prefix length
+     * @return this for chaining
+     */
+    public Ipv4RangeSet addPrefix(long network, int length) {
+        return add(Ipv4Utils.lowerBound(network, length), Ipv4Utils.upperBound(network, length));
+    }
+
+    /**
+     * Add a range of addresses.
+     *
+     * @param start first address
+     * @param end   last address
+     * @return this for chaining
+     */
+    public Ipv4RangeSet add(long start, long end) {
+        check(start, end);
+        /* First range that ends at or after the address before start (so adjacent ones merge) */
+        var from = firstEndingAtOrAfter(start == 0 ? 0 : start - 1);
+        var to = from;
+        while (to < count && starts[to] <= end + 1) {
+            start = Math.min(start, starts[to]);
+            end = Math.max(end, ends[to]);
+            to++;
+        }
+        replace(from, to, start, end);
+        return this;
+    }
+
+    /**
+     * Remove a range of addresses.
+     *
+     * @param start first address
+     * @param end   last address
+     * @return this for chaining
+     */
+    public Ipv4RangeSet remove(long start, long end) {
+        check(start, end);
+        var from = firstEndingAtOrAfter(start);
+        if (from == count || starts[from] > end)
+            return this;
+        var to = from;
+        while (to < count && starts[to] <= end)
+            to++;
+        /* Ranges from..to-1 overlap, keep whatever sticks out either side */
+        var headStart = starts[from];
+        var tailEnd = ends[to - 1];
+        var pieces = (headStart < start ? 1 : 0) + (tailEnd > end ? 1 : 0);
+        splice(from, to, pieces);
+        var idx = from;
+        if (headStart < start) {
+            starts[idx] = headStart;
+            ends[idx++] = start - 1;
+        }
+        if (tailEnd > end) {
+            starts[idx] = end + 1;
+            ends[idx] = tailEnd;
+        }
+        return this;
+    }
+
+    public Ipv4RangeSet removePrefix(long network, int length) {
+        return remove(Ipv4Utils.lowerBound(network, length), Ipv4Utils.upperBound(network, length));
+    }
+
+    public Ipv4RangeSet remove(long address) {
+        return remove(address, address);
+    }
+
+    public boolean contains(long address) {
+        var idx = firstEndingAtOrAfter(address);
+        return idx < count && starts[idx] <= address;
+    }
+
+    /**
+     * Get if every address in the range is in this set.
+     *
+     * @param start first address
+     * @param end   last address
+     * @return contains all
+     */
+    public boolean containsAll(long start, long end) {
+        var idx = firstEndingAtOrAfter(end);
+        return idx < count && starts[idx] <= start;
+    }
+
+    /**
+     * Get if any address in the range is in this set.
+     *
+     * @param start first address
+     * @param end   last address
+     * @return contains any
+     */
+    public boolean intersects(long start, long end) {
+        var idx = firstEndingAtOrAfter(start);
+        return idx < count && starts[idx] <= end;
+    }
+
+    /**
+     * Number of addresses in the set.
+     *
+     * @return size
+     */
+    public long size() {
+        long size = 0;
+        for (var i = 0; i < count; i++)
+            size += ends[i] - starts[i] + 1;
+        return size;
+    }
+
+    /**
+     * Number of ranges the set is made of.
+     *
+     * @return range count
+     */
+    public int rangeCount() {
+        return count;
+    }
+
+    public long start(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    public long end(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Split every range into the fewest prefixes that exactly cover it, in
+     * address order.
+     *
+     * @param consumer consumer
+     */
+    public void forEachPrefix(PrefixConsumer consumer) {
+        for (var i = 0; i < count; i++) {
+            var start = starts[i];
+            var end = ends[i];
+            while (true) {
+                var len = Ipv4Utils.largestPrefixLength(start, end);
+                consumer.accept(start, len);
+                var last = Ipv4Utils.upperBound(start, len);
+                if (last >= end)
+                    break;
+                start = last + 1;
+            }
+        }
+    }
+
+    public List<IpPrefix> toPrefixes() {
+        var l = new ArrayList<IpPrefix>();
+        forEachPrefix((network, length) -> l.add(IpPrefix.of(Ipv4.of(network), length)));
+        return l;
+    }
+
+    public List<Ipv4Range> toRanges() {
+        var l = new ArrayList<Ipv4Range>(count);
+        for (var i = 0; i < count; i++)
+            l.add(Ipv4Range.from(starts[i]).to(ends[i]));
+        return l;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        var other = (Ipv4RangeSet) o;
+        return count == other.count && Arrays.equals(starts, 0, count, other.starts, 0, count)
+                && Arrays.equals(ends, 0, count, other.ends, 0, count);
+    }
+
+    @Override
+    public int hashCode() {
+        var h = count;
+        for (var i = 0; i < count; i++)
+            h = 31 * (31 * h + Long.hashCode(starts[i])) + Long.hashCode(ends[i]);
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        var b = new StringBuilder("[");
+        for (var i = 0; i < count; i++) {
+            if (i > 0)
+                b.append(", ");
+            Ipv4Utils.appendTo(b, starts[i]);
+            if (ends[i] != starts[i])
+                Ipv4Utils.appendTo(b.append('-'), ends[i]);
+        }
+        return b.append(']').toString();
+    }
+
+    private int firstEndingAtOrAfter(long address) {
+        var lo = 0;
+        var hi = count;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (ends[mid] < address)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void replace(int from, int to, long start, long end) {
+        splice(from, to, 1);
+        starts[from] = start;
+        ends[from] = end;
+    }
+
+    /**
+     * Replace the ranges from..to-1 with the given number of (as yet unset)
+     * slots.
+     */
+    private void splice(int from, int to, int slots) {
+        var newCount = count - (to - from) + slots;
+        if (newCount > starts.length) {
+            var cap = Math.max(newCount, starts.length * 2);
+            starts = Arrays.copyOf(starts, cap);
+            ends = Arrays.copyOf(ends, cap);
+        }
+        System.arraycopy(starts, to, starts, from + slots, count - to);
+        System.arraycopy(ends, to, ends, from + slots, count - to);
+        count = newCount;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException(index);
+    }
+
+    private static void check(long start, long end) {
+        if (!Ipv4Utils.isValid(start) || !Ipv4Utils.isValid(end) || start > end)
+            throw new IllegalArgumentException("Invalid IPv4 range " + start + "-" + end);
+    }
+}
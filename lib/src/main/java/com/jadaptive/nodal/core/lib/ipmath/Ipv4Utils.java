@@ -0,0 +1,234 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+/**
+ * IPv4 address and prefix operations on primitive values, for code that works
+ * with large numbers of addresses and should not create an {@link Ipv4} (or
+ * throw an exception) for each of them.
+ * <p>
+ * Addresses are unsigned 32 bit values held in a <code>long</code>, the same as
+ * {@link Ipv4#asBigInteger()} would return. Parse methods return
+ * <code>-1</code> for invalid input rather than throwing.
+ */
+public final class Ipv4Utils {
+
+    public static final long INVALID = -1;
+
+    private Ipv4Utils() {
+    }
+
+    /**
+     * Parse a dotted quad IPv4 address. Leading zeros are not allowed, as they
+     * may be mistaken for octal. Surrounding whitespace is ignored.
+     *
+     * @param str address
+     * @return address or {@link #INVALID}
+     */
+    public static long parse(CharSequence str) {
+        return str == null ? INVALID : parse(str, 0, str.length());
+    }
+
+    /**
+     * Parse a dotted quad IPv4 address from part of a sequence.
+     *
+     * @param str   sequence
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return address or {@link #INVALID}
+     */
+    public static long parse(CharSequence str, int start, int end) {
+        while (start < end && Character.isWhitespace(str.charAt(start)))
+            start++;
+        while (end > start && Character.isWhitespace(str.charAt(end - 1)))
+            end--;
+        long value = 0;
+        var octet = -1;
+        var octets = 0;
+        var leadingZero = false;
+        for (var i = start; i < end; i++) {
+            var ch = str.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                if (leadingZero)
+                    return INVALID;
+                if (octet == -1) {
+                    octet = ch - '0';
+                    leadingZero = octet == 0;
+                } else {
+                    octet = octet * 10 + (ch - '0');
+                    if (octet > 255)
+                        return INVALID;
+                }
+            } else if (ch == '.') {
+                if (octet == -1 || ++octets > 3)
+                    return INVALID;
+                value = (value << 8) | octet;
+                octet = -1;
+                leadingZero = false;
+            } else
+                return INVALID;
+        }
+        if (octet == -1 || octets != 3)
+            return INVALID;
+        return (value << 8) | octet;
+    }
+
+    /**
+     * Parse an address in CIDR notation, or a single address (which gets a prefix
+     * length of 32). The result packs the address and prefix length into one
+     * value, use {@link #cidrAddress(long)}, {@link #cidrNetwork(long)} and
+     * {@link #cidrLength(long)} to get them back.
+     *
+     * @param str CIDR
+     * @return packed CIDR or {@link #INVALID}
+     */
+    public static long parseCidr(CharSequence str) {
+        if (str == null)
+            return INVALID;
+        var len = str.length();
+        var slash = -1;
+        for (var i = 0; i < len; i++) {
+            if (str.charAt(i) == '/') {
+                slash = i;
+                break;
+            }
+        }
+        if (slash == -1) {
+            var addr = parse(str, 0, len);
+            return addr == INVALID ? INVALID : cidr(addr, 32);
+        }
+        var addr = parse(str, 0, slash);
+        if (addr == INVALID)
+            return INVALID;
+        var prefix = -1;
+        for (var i = slash + 1; i < len; i++) {
+            var ch = str.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                prefix = (prefix == -1 ? 0 : prefix * 10) + (ch - '0');
+                if (prefix > 32)
+                    return INVALID;
+            } else if (!Character.isWhitespace(ch))
+                return INVALID;
+        }
+        return prefix == -1 ? INVALID : cidr(addr, prefix);
+    }
+
+    public static long cidr(long address, int length) {
+        return (address << 6) | length;
+    }
+
+    public static long cidrAddress(long cidr) {
+        return cidr >>> 6;
+    }
+
+    public static long cidrNetwork(long cidr) {
+        return lowerBound(cidrAddress(cidr), cidrLength(cidr));
+    }
+
+    public static int cidrLength(long cidr) {
+        return (int) (cidr & 0x3f);
+    }
+
+    public static boolean isValid(long address) {
+        return address >= Ipv4.MINIMUM_VALUE && address <= Ipv4.MAXIMUM_VALUE;
+    }
+
+    /**
+     * Netmask for a prefix length, e.g. <code>0xffffff00</code> for 24.
+     *
+     * @param length prefix length
+     * @return netmask
+     */
+    public static long netmask(int length) {
+        return length == 0 ? 0 : (Ipv4.MAXIMUM_VALUE << (32 - length)) & Ipv4.MAXIMUM_VALUE;
+    }
+
+    public static long lowerBound(long address, int length) {
+        return address & netmask(length);
+    }
+
+    public static long upperBound(long address, int length) {
+        return address | (~netmask(length) & Ipv4.MAXIMUM_VALUE);
+    }
+
+    public static boolean contains(long network, int length, long address) {
+        return ((network ^ address) & netmask(length)) == 0;
+    }
+
+    public static int commonPrefixLength(long a, long b) {
+        return Integer.numberOfLeadingZeros((int) (a ^ b));
+    }
+
+    /**
+     * Get if the range is exactly one prefix, and if so its length.
+     *
+     * @param start first address
+     * @param end   last address
+     * @return prefix length or -1 if not a prefix
+     */
+    public static int prefixLength(long start, long end) {
+        var len = commonPrefixLength(start, end);
+        return lowerBound(start, len) == start && upperBound(end, len) == end ? len : -1;
+    }
+
+    public static boolean isValidNetmask(long netmask) {
+        var ones = Integer.numberOfLeadingZeros(~(int) netmask);
+        return ones + Integer.numberOfTrailingZeros((int) netmask) == 32;
+    }
+
+    /**
+     * Length of the largest prefix that starts at the given address and ends at
+     * or before the given end.
+     *
+     * @param start start
+     * @param end   end
+     * @return prefix length
+     */
+    public static int largestPrefixLength(long start, long end) {
+        var len = start == 0 ? 0 : 32 - Long.numberOfTrailingZeros(start);
+        while (upperBound(start, len) > end)
+            len++;
+        return len;
+    }
+
+    public static long fromInt(int address) {
+        return Integer.toUnsignedLong(address);
+    }
+
+    public static long fromBytes(byte[] address) {
+        return ((address[0] & 0xffL) << 24) | ((address[1] & 0xffL) << 16) | ((address[2] & 0xffL) << 8)
+                | (address[3] & 0xffL);
+    }
+
+    public static String toString(long address) {
+        return appendTo(new StringBuilder(15), address).toString();
+    }
+
+    public static String toCidrString(long address, int length) {
+        return appendTo(new StringBuilder(18), address).append('/').append(length).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder bldr, long address) {
+        return bldr.append((address >> 24) & 0xff).append('.').append((address >> 16) & 0xff).append('.')
+                .append((address >> 8) & 0xff).append('.').append(address & 0xff);
+    }
+}
@@ -36,63 +36,95 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
     public static final BigInteger MINIMUM_VALUE = BigInteger.ZERO;
     public static final BigInteger MAXIMUM_VALUE = new BigInteger(String.valueOf((ONE.shiftLeft(NUMBER_OF_BITS)).subtract(ONE)));
 
-    public static final Ipv6 FIRST_IPV6_ADDRESS = Ipv6.of(MINIMUM_VALUE);
-    public static final Ipv6 LAST_IPV6_ADDRESS = Ipv6.of(MAXIMUM_VALUE);
+    public static final Ipv6 FIRST_IPV6_ADDRESS = Ipv6.of(0, 0);
+    public static final Ipv6 LAST_IPV6_ADDRESS = Ipv6.of(-1L, -1L);
 
-    private static final int MIN_PART_VALUE = 0x0;
     private static final int MAX_PART_VALUE = 0xFFFF;
-    private static final int MAX_PART_LENGTH = 4;
     private static final String DEFAULT_PARSING_ERROR_MESSAGE = "Invalid IPv6 address: '%s'";
     private static final String COLON = ":";
-    private static final String ZERO = "0";
     private static final int BITS_PER_PART = 16;
     private static final int TOTAL_OCTETS = 8;
-    private static final int COLON_COUNT_IPV6 = 7;
-    private static final BigInteger MINUS_ONE = BigInteger.valueOf(-1);
 
-    private final BigInteger value;
+    /*
+     * The address is held as two unsigned 64 bit halves. Every operation
+     * below works on these directly, BigInteger only appears when
+     * converting to and from the public API.
+     */
+    private final long hi;
+    private final long lo;
 
     protected Ipv6(BigInteger value) {
-        this.value = Validate.notNull(value, "value is required");
-        Validate.isTrue(value.compareTo(MINIMUM_VALUE) >= 0, "Value of IPv6 has to be greater than or equal to " + MINIMUM_VALUE);
-        Validate.isTrue(value.compareTo(MAXIMUM_VALUE) <= 0, "Value of IPv6 has to be less than or equal to " + MAXIMUM_VALUE);
+        Validate.notNull(value, "value is required");
+        Validate.isTrue(value.signum() >= 0, "Value of IPv6 has to be greater than or equal to " + MINIMUM_VALUE);
+        Validate.isTrue(value.bitLength() <= NUMBER_OF_BITS, "Value of IPv6 has to be less than or equal to " + MAXIMUM_VALUE);
+        this.hi = value.shiftRight(64).longValue();
+        this.lo = value.longValue();
+    }
+
+    protected Ipv6(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
     }
 
-    BigInteger value() {
-        return value;
+    long hi() {
+        return hi;
+    }
+
+    long lo() {
+        return lo;
     }
 
     public static Ipv6 of(BigInteger value) {
         return new Ipv6(value);
     }
 
+    /**
+     * Create an address from its upper and lower 64 bits, both treated as unsigned.
+     *
+     * @param hi upper 64 bits
+     * @param lo lower 64 bits
+     * @return a new {@link Ipv6}
+     */
+    public static Ipv6 of(long hi, long lo) {
+        return new Ipv6(hi, lo);
+    }
+
     public static Ipv6 of(String value) {
         return parse(value);
     }
 
     @Override
     public int compareTo(Ipv6 other) {
-        return value.compareTo(other.value);
+        int cmp = Long.compareUnsigned(hi, other.hi);
+        return cmp == 0 ? Long.compareUnsigned(lo, other.lo) : cmp;
     }
 
     @Override
     public Ipv6 next() {
-        return new Ipv6(value.add(ONE));
+        if (lo != -1L)
+            return new Ipv6(hi, lo + 1);
+        if (hi == -1L)
+            throw new IllegalArgumentException("Value of IPv6 has to be less than or equal to " + MAXIMUM_VALUE);
+        return new Ipv6(hi + 1, 0);
     }
 
     @Override
     public Ipv6 previous() {
-        return new Ipv6(value.subtract(ONE));
+        if (lo != 0)
+            return new Ipv6(hi, lo - 1);
+        if (hi == 0)
+            throw new IllegalArgumentException("Value of IPv6 has to be greater than or equal to " + MINIMUM_VALUE);
+        return new Ipv6(hi - 1, -1L);
     }
 
     @Override
     public boolean hasNext() {
-        return this.compareTo(LAST_IPV6_ADDRESS) < 0;
+        return (hi & lo) != -1L;
     }
 
     @Override
     public boolean hasPrevious() {
-        return this.compareTo(FIRST_IPV6_ADDRESS) > 0;
+        return (hi | lo) != 0;
     }
 
     @Override
@@ -102,17 +134,14 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
 
     @Override
     public String toString() {
-        long[] parts = new long[8];
-
         // Find longest sequence of zeroes. Use the first one if there are
         // multiple sequences of zeroes with the same length.
         int currentZeroPartsLength = 0;
         int currentZeroPartsStart = 0;
         int maxZeroPartsLength = 0;
         int maxZeroPartsStart = 0;
-        for (int i = 0; i < parts.length; ++i) {
-            parts[i] = value().shiftRight((7 - i) * BITS_PER_PART).and(FOUR_OCTECT_MASK).longValue();
-            if (parts[i] == 0) {
+        for (int i = 0; i < TOTAL_OCTETS; ++i) {
+            if (part(i) == 0) {
                 if (currentZeroPartsLength == 0) {
                     currentZeroPartsStart = i;
                 }
@@ -131,14 +160,14 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
             sb.append(COLON);
         }
         String delimiter = "";
-        for (int i = 0; i < parts.length; ++i) {
+        for (int i = 0; i < TOTAL_OCTETS; ++i) {
             if (i == maxZeroPartsStart && maxZeroPartsLength > 1) {
                 i += maxZeroPartsLength;
                 sb.append(COLON);
             }
             sb.append(delimiter);
             if (i <= 7) {
-                sb.append(Long.toHexString(parts[i]));
+                appendHex(sb, part(i));
             } else {
                 break;
             }
@@ -147,6 +176,22 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
         return sb.toString();
     }
 
+    private int part(int index) {
+        long half = index < 4 ? hi : lo;
+        return (int) (half >>> ((3 - (index & 3)) * BITS_PER_PART)) & MAX_PART_VALUE;
+    }
+
+    private static void appendHex(StringBuilder sb, int part) {
+        boolean leading = true;
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            int nibble = (part >>> shift) & 0xF;
+            if (nibble != 0 || !leading || shift == 0) {
+                sb.append(Character.forDigit(nibble, 16));
+                leading = false;
+            }
+        }
+    }
+
     /**
      * Parses a <tt>String</tt> into an {@link Ipv6} address.
      *
@@ -157,81 +202,10 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
      * @see <a href="http://tools.ietf.org/html/rfc4291">rfc4291 - IP Version 6 Addressing Architecture</a>
      */
     public static Ipv6 parse(final String ipv6Address) {
-        try {
-            String ipv6String = Validate.notNull(ipv6Address).trim();
-            Validate.isTrue(!ipv6String.isEmpty());
-
-            final boolean isIpv6AddressWithEmbeddedIpv4 = ipv6String.contains(".");
-            if (isIpv6AddressWithEmbeddedIpv4) {
-                ipv6String = getIpv6AddressWithIpv4SectionInIpv6Notation(ipv6String);
-            }
-
-            final int indexOfDoubleColons = ipv6String.indexOf("::");
-            final boolean isShortened = indexOfDoubleColons != -1;
-            if (isShortened) {
-                Validate.isTrue(indexOfDoubleColons == ipv6String.lastIndexOf("::"));
-                ipv6String = expandMissingColons(ipv6String, indexOfDoubleColons);
-            }
-
-            final String[] split = ipv6String.split(COLON, TOTAL_OCTETS);
-            Validate.isTrue(split.length == TOTAL_OCTETS);
-            BigInteger ipv6value = BigInteger.ZERO;
-            for (String part : split) {
-                Validate.isTrue(part.length() <= MAX_PART_LENGTH);
-                Validate.checkRange(Integer.parseInt(part, BITS_PER_PART), MIN_PART_VALUE, MAX_PART_VALUE);
-                ipv6value = ipv6value.shiftLeft(BITS_PER_PART).add(new BigInteger(part, BITS_PER_PART));
-            }
-            return new Ipv6(ipv6value);
-        } catch (Exception e) {
-            throw new IllegalArgumentException(String.format(DEFAULT_PARSING_ERROR_MESSAGE, ipv6Address), e);
-        }
-    }
-
-    private static String expandMissingColons(final String ipv6String, final int indexOfDoubleColons) {
-        final int colonCount = countColons(ipv6String);
-        Validate.isTrue(colonCount >= 2 && colonCount <= COLON_COUNT_IPV6 + 1);
-        final int missingZeros = COLON_COUNT_IPV6 - colonCount + 1;
-        String leftPart = ipv6String.substring(0, indexOfDoubleColons);
-        String rightPart = ipv6String.substring(indexOfDoubleColons + 2);
-
-        if (missingZeros == 0) {
-            Validate.isTrue(leftPart.isEmpty() || rightPart.isEmpty());
-        }
-
-        if (leftPart.isEmpty()) {
-            leftPart = ZERO;
-        }
-        if (rightPart.isEmpty()) {
-            rightPart = ZERO;
-        }
-        StringBuilder sb = new StringBuilder();
-        sb.append(leftPart);
-        for (int i = 0; i < missingZeros; i++) {
-            sb.append(COLON).append(ZERO);
-        }
-        sb.append(COLON).append(rightPart);
-
-        return sb.toString();
-    }
-
-    private static int countColons(String ipv6String) {
-        int count = 0;
-        for (char c : ipv6String.toCharArray()) {
-            if (c == ':') {
-                count++;
-            }
-        }
-        return count;
-    }
-
-    private static String getIpv6AddressWithIpv4SectionInIpv6Notation(String ipv6String) {
-        final int indexOfLastColon = ipv6String.lastIndexOf(COLON);
-        final String ipv6Section = ipv6String.substring(0, indexOfLastColon);
-        final String ipv4Section = ipv6String.substring(indexOfLastColon + 1);
-        final Ipv4 ipv4 = Ipv4.parse(ipv4Section);
-        final String ipv4FirstPart = Long.toHexString(ipv4.value() >>> BITS_PER_PART);
-        final String ipv4SecondPart = Long.toHexString(ipv4.value() & MAX_PART_VALUE);
-        return ipv6Section + COLON + ipv4FirstPart + COLON + ipv4SecondPart;
+        var token = IpToken.parse(Validate.notNull(ipv6Address));
+        if (token.type() != IpToken.Type.IPV6 || token.zone().isPresent())
+            throw new IllegalArgumentException(String.format(DEFAULT_PARSING_ERROR_MESSAGE, ipv6Address));
+        return new Ipv6(token.hi(), token.lo());
     }
 
     @Override
@@ -241,30 +215,47 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
 
     @Override
     public BigInteger asBigInteger() {
-        return value;
+        byte[] bytes = new byte[17];
+        for (int i = 0; i < 8; i++) {
+            bytes[1 + i] = (byte) (hi >>> (56 - i * 8));
+            bytes[9 + i] = (byte) (lo >>> (56 - i * 8));
+        }
+        return new BigInteger(bytes);
     }
 
     @Override
     public Ipv6 lowerBoundForPrefix(int prefixLength) {
         Validate.checkRange(prefixLength, 0, NUMBER_OF_BITS);
-        BigInteger mask = bitMask(0).xor(bitMask(prefixLength));
-        return new Ipv6(value.and(mask));
+        return new Ipv6(hi & maskHi(prefixLength), lo & maskLo(prefixLength));
     }
 
     @Override
     public Ipv6 upperBoundForPrefix(int prefixLength) {
         Validate.checkRange(prefixLength, 0, NUMBER_OF_BITS);
-        return new Ipv6(value.or(bitMask(prefixLength)));
+        return new Ipv6(hi | ~maskHi(prefixLength), lo | ~maskLo(prefixLength));
+    }
+
+    /**
+     * Number of low order zero bits, 128 for the unspecified address.
+     */
+    int trailingZeros() {
+        return lo != 0 ? Long.numberOfTrailingZeros(lo) : 64 + Long.numberOfTrailingZeros(hi);
+    }
+
+    static long maskHi(int prefixLength) {
+        return prefixLength >= 64 ? -1L : prefixLength == 0 ? 0 : -1L << (64 - prefixLength);
     }
 
-    private BigInteger bitMask(int prefixLength) {
-        return ONE.shiftLeft(NUMBER_OF_BITS - prefixLength).add(MINUS_ONE);
+    static long maskLo(int prefixLength) {
+        return prefixLength <= 64 ? 0 : prefixLength == NUMBER_OF_BITS ? -1L : -1L << (NUMBER_OF_BITS - prefixLength);
     }
 
     @Override
     public int getCommonPrefixLength(Ipv6 other) {
-        BigInteger temp = value.xor(other.value);
-        return NUMBER_OF_BITS - temp.bitLength();
+        long x = hi ^ other.hi;
+        if (x != 0)
+            return Long.numberOfLeadingZeros(x);
+        return 64 + Long.numberOfLeadingZeros(lo ^ other.lo);
     }
 
     @Override
@@ -276,11 +267,11 @@ public final class Ipv6 extends AbstractIp<Ipv6, Ipv6Range> {
             return false;
         }
         Ipv6 that = (Ipv6) o;
-        return value.equals(that.value);
+        return hi == that.hi && lo == that.lo;
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return 31 * Long.hashCode(hi) + Long.hashCode(lo);
     }
 }
@@ -34,11 +34,6 @@ public final class Ipv6Range extends AbstractIpRange<Ipv6, Ipv6Range> {
         super(start, end);
     }
 
-    @Override
-    protected Ipv6Range newInstance(BigInteger start, BigInteger end) {
-        return Ipv6Range.from(start).to(end);
-    }
-
     @Override
     protected Ipv6Range newInstance(Ipv6 start, Ipv6 end) {
         return new Ipv6Range(start, end);
@@ -104,7 +99,7 @@ public final class Ipv6Range extends AbstractIpRange<Ipv6, Ipv6Range> {
 
     @Override
     public BigInteger size() {
-        return (end().value().subtract(start().value())).add(ONE);
+        return (end().asBigInteger().subtract(start().asBigInteger())).add(ONE);
     }
 
     public static class Ipv6RangeBuilder extends AbstractRangeBuilder<Ipv6, Ipv6Range> {
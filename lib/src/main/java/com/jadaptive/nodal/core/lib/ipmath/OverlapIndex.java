@@ -0,0 +1,151 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Finds prefixes belonging to different owners that overlap, such as allowed
+ * IPs claimed by more than one WireGuard peer (where WireGuard would silently
+ * give the addresses to whichever peer was configured last).
+ * <p>
+ * As two prefixes either nest or do not overlap at all, sorting them by
+ * address with the widest first puts every prefix straight after all of those
+ * that contain it. A single pass with a stack of the prefixes that are still
+ * "open" then finds every overlap, taking <code>O(n log n)</code> time plus
+ * the number of overlaps found.
+ *
+ * @param <O> owner type
+ */
+public final class OverlapIndex<O> {
+
+    /**
+     * A prefix of one owner that is within (or the same as) a prefix of
+     * another.
+     *
+     * @param <O> owner type
+     */
+    public final static class Overlap<O> {
+        private final IpPrefix wider;
+        private final O widerOwner;
+        private final IpPrefix narrower;
+        private final O narrowerOwner;
+
+        Overlap(IpPrefix wider, O widerOwner, IpPrefix narrower, O narrowerOwner) {
+            this.wider = wider;
+            this.widerOwner = widerOwner;
+            this.narrower = narrower;
+            this.narrowerOwner = narrowerOwner;
+        }
+
+        public IpPrefix wider() {
+            return wider;
+        }
+
+        public O widerOwner() {
+            return widerOwner;
+        }
+
+        public IpPrefix narrower() {
+            return narrower;
+        }
+
+        public O narrowerOwner() {
+            return narrowerOwner;
+        }
+
+        @Override
+        public String toString() {
+            return wider + " (" + widerOwner + ") overlaps " + narrower + " (" + narrowerOwner + ")";
+        }
+    }
+
+    private final static class Item<O> implements Comparable<Item<O>> {
+        private final IpPrefix prefix;
+        private final O owner;
+
+        Item(IpPrefix prefix, O owner) {
+            this.prefix = prefix;
+            this.owner = owner;
+        }
+
+        @Override
+        public int compareTo(Item<O> o) {
+            if (prefix.isIpv4() != o.prefix.isIpv4())
+                return prefix.isIpv4() ? -1 : 1;
+            var r = prefix.isIpv4() ? ((Ipv4) prefix.network()).compareTo((Ipv4) o.prefix.network())
+                    : ((Ipv6) prefix.network()).compareTo((Ipv6) o.prefix.network());
+            return r == 0 ? Integer.compare(prefix.length(), o.prefix.length()) : r;
+        }
+    }
+
+    private final List<Item<O>> items = new ArrayList<>();
+
+    public OverlapIndex<O> add(O owner, IpPrefix prefix) {
+        items.add(new Item<>(prefix, owner));
+        return this;
+    }
+
+    public OverlapIndex<O> add(O owner, Collection<IpPrefix> prefixes) {
+        for (var prefix : prefixes)
+            add(owner, prefix);
+        return this;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Find all overlaps between prefixes of different owners. Overlaps between
+     * prefixes of the same owner are allowed.
+     *
+     * @return overlaps, in address order of the narrower prefix
+     */
+    public List<Overlap<O>> overlaps() {
+        var sorted = new ArrayList<>(items);
+        sorted.sort(null);
+        var overlaps = new ArrayList<Overlap<O>>();
+        var open = new ArrayList<Item<O>>();
+        for (var item : sorted) {
+            while (!open.isEmpty() && !open.get(open.size() - 1).prefix.contains(item.prefix))
+                open.remove(open.size() - 1);
+            for (var container : open) {
+                if (!container.owner.equals(item.owner))
+                    overlaps.add(new Overlap<>(container.prefix, container.owner, item.prefix, item.owner));
+            }
+            open.add(item);
+        }
+        return overlaps;
+    }
+
+    /**
+     * Get if there are any overlaps between prefixes of different owners.
+     *
+     * @return overlaps
+     */
+    public boolean hasOverlaps() {
+        return !overlaps().isEmpty();
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collapses lists of prefixes, such as allowed IPs, into fewer prefixes.
+ * <p>
+ * {@link #minimal(Collection)} gives the smallest list of prefixes that covers
+ * exactly the same addresses, merging overlapping, duplicate and adjacent
+ * prefixes. {@link #aggregate(Collection, int, double)} goes further when that
+ * is still too many, replacing neighbouring prefixes with the prefix that
+ * covers them both, choosing whichever merge adds the fewest extra addresses
+ * each time.
+ * <p>
+ * Default prefixes (<code>0.0.0.0/0</code> and <code>::/0</code>) are passed
+ * through untouched and are never created by aggregation, a whole address
+ * family is instead covered by its two halves. This keeps them distinct from a
+ * real default route, which is usually handled apart from other routes.
+ */
+public final class PrefixAggregator {
+
+    /*
+     * Neighbours in address order are the candidates for merging. The natural
+     * IpPrefix order puts the widest first, which would separate them.
+     */
+    private static final Comparator<IpPrefix> ADDRESS_ORDER = (a, b) -> {
+        if (a.isIpv4() != b.isIpv4())
+            return a.isIpv4() ? -1 : 1;
+        var r = a.isIpv4() ? ((Ipv4) a.network()).compareTo((Ipv4) b.network())
+                : ((Ipv6) a.network()).compareTo((Ipv6) b.network());
+        return r == 0 ? Integer.compare(a.length(), b.length()) : r;
+    };
+
+    private PrefixAggregator() {
+    }
+
+    /**
+     * Get the smallest list of prefixes that covers exactly the same addresses.
+     *
+     * @param prefixes prefixes
+     * @return prefixes, in {@link IpPrefix} order
+     */
+    public static List<IpPrefix> minimal(Collection<IpPrefix> prefixes) {
+        var result = new ArrayList<IpPrefix>();
+        var v4 = new ArrayList<Ipv4Range>();
+        var v6 = new ArrayList<Ipv6Range>();
+        for (var prefix : prefixes) {
+            if (prefix.isDefault()) {
+                if (!result.contains(prefix))
+                    result.add(prefix);
+            } else if (prefix.isIpv4()) {
+                var network = (Ipv4) prefix.network();
+                v4.add(Ipv4Range.from(network).to(network.upperBoundForPrefix(prefix.length())));
+            } else {
+                var network = (Ipv6) prefix.network();
+                v6.add(Ipv6Range.from(network).to(network.upperBoundForPrefix(prefix.length())));
+            }
+        }
+        cover(v4, result);
+        cover(v6, result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Get at most <code>maxPrefixes</code> prefixes that cover at least the same
+     * addresses, with no limit on how many extra addresses may be covered.
+     *
+     * @param prefixes    prefixes
+     * @param maxPrefixes maximum number of prefixes
+     * @return prefixes, in {@link IpPrefix} order
+     * @see #aggregate(Collection, int, double)
+     */
+    public static List<IpPrefix> aggregate(Collection<IpPrefix> prefixes, int maxPrefixes) {
+        return aggregate(prefixes, maxPrefixes, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Get at most <code>maxPrefixes</code> prefixes that cover at least the same
+     * addresses. Only merges that keep the new prefix's over-coverage (the
+     * addresses it covers that were not asked for, as a fraction of those that
+     * were) at or below <code>maxOverCoverage</code> are made, so the result
+     * may still have more prefixes than asked for. Each address family and any
+     * default prefix always needs at least one prefix.
+     *
+     * @param prefixes        prefixes
+     * @param maxPrefixes     maximum number of prefixes
+     * @param maxOverCoverage maximum over-coverage of any merged prefix, e.g.
+     *                        <code>0.5</code> to allow a prefix to be up to half
+     *                        as big again as what it replaces
+     * @return prefixes, in {@link IpPrefix} order
+     */
+    public static List<IpPrefix> aggregate(Collection<IpPrefix> prefixes, int maxPrefixes, double maxOverCoverage) {
+        Validate.isTrue(maxPrefixes > 0, "maxPrefixes must be at least 1");
+        Validate.isTrue(maxOverCoverage >= 0, "maxOverCoverage must not be negative");
+        var exact = minimal(prefixes);
+        if (exact.size() <= maxPrefixes)
+            return exact;
+        exact.sort(ADDRESS_ORDER);
+
+        /*
+         * Neighbours are held in a linked list, and the merge of each
+         * neighbouring pair is queued by how many extra addresses it would
+         * cover. Merges change the cost of others nearby, so the cost is
+         * worked out again when a merge comes off the queue, and if it has
+         * gone up the merge is queued again.
+         */
+        Entry head = null;
+        Entry tail = null;
+        for (var prefix : exact) {
+            var entry = new Entry(prefix);
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+                entry.prev = tail;
+            }
+            tail = entry;
+        }
+
+        var queue = new PriorityQueue<Merge>();
+        for (var entry = head; entry.next != null; entry = entry.next)
+            queue(queue, entry, maxOverCoverage);
+
+        var count = exact.size();
+        while (count > maxPrefixes && !queue.isEmpty()) {
+            var merge = queue.poll();
+            if (merge.first.removed || merge.first.next != merge.second)
+                continue;
+            var current = merge(merge.first, maxOverCoverage);
+            if (current == null)
+                continue;
+            if (current.waste > merge.waste) {
+                queue.add(current);
+                continue;
+            }
+
+            var supernet = new Entry(IpPrefix.of(current.first.prefix.network(), current.length));
+            var before = current.from.prev;
+            var after = current.to.next;
+            for (var entry = current.from; entry != after; entry = entry.next) {
+                entry.removed = true;
+                count--;
+            }
+            count++;
+            supernet.prev = before;
+            supernet.next = after;
+            if (before != null)
+                before.next = supernet;
+            if (after != null)
+                after.prev = supernet;
+            if (before == null)
+                head = supernet;
+            if (before != null)
+                queue(queue, before, maxOverCoverage);
+            if (after != null)
+                queue(queue, supernet, maxOverCoverage);
+        }
+
+        var result = new ArrayList<IpPrefix>(count);
+        for (var entry = head; entry != null; entry = entry.next)
+            result.add(entry.prefix);
+        Collections.sort(result);
+        return result;
+    }
+
+    private final static class Entry {
+        private final IpPrefix prefix;
+        private Entry prev;
+        private Entry next;
+        private boolean removed;
+
+        private Entry(IpPrefix prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private final static class Merge implements Comparable<Merge> {
+        private final Entry first;
+        private final Entry second;
+        private final Entry from;
+        private final Entry to;
+        private final int length;
+        private final double waste;
+
+        private Merge(Entry first, Entry from, Entry to, int length, double waste) {
+            this.first = first;
+            this.second = first.next;
+            this.from = from;
+            this.to = to;
+            this.length = length;
+            this.waste = waste;
+        }
+
+        @Override
+        public int compareTo(Merge o) {
+            return Double.compare(waste, o.waste);
+        }
+    }
+
+    private static void queue(PriorityQueue<Merge> queue, Entry first, double maxOverCoverage) {
+        var merge = merge(first, maxOverCoverage);
+        if (merge != null)
+            queue.add(merge);
+    }
+
+    /*
+     * Work out the merge of an entry and the one after it, or null if they
+     * cannot be merged. The waste is measured as a fraction of the address
+     * family, so IPv4 and IPv6 merges can be compared.
+     */
+    private static Merge merge(Entry first, double maxOverCoverage) {
+        var a = first.prefix;
+        var b = first.next.prefix;
+        if (a.isIpv4() != b.isIpv4() || a.isDefault() || b.isDefault())
+            return null;
+        var length = commonPrefixLength(a.network(), b.network());
+        if (length == 0)
+            return null;
+        var supernet = IpPrefix.of(a.network(), length);
+
+        /* Everything else the supernet covers sits either side of the pair */
+        var from = first;
+        while (from.prev != null && supernet.contains(from.prev.prefix))
+            from = from.prev;
+        var to = first.next;
+        while (to.next != null && supernet.contains(to.next.prefix))
+            to = to.next;
+
+        var covered = 0d;
+        for (var entry = from; entry != to.next; entry = entry.next)
+            covered += size(entry.prefix);
+        var size = size(supernet);
+        if (size > covered * (1 + maxOverCoverage))
+            return null;
+        return new Merge(first, from, to, length, Math.scalb(size - covered, -supernet.bitSize()));
+    }
+
+    private static <C extends AbstractIp<C, R>, R extends AbstractIpRange<C, R>> void cover(List<R> ranges, List<IpPrefix> result) {
+        for (var range : ImmutableRangeSet.<C, R>of(ranges)) {
+            for (var prefix : range.splitToPrefixes()) {
+                var length = prefix.start().getCommonPrefixLength(prefix.end());
+                if (length == 0) {
+                    result.add(IpPrefix.of(prefix.start(), 1));
+                    result.add(IpPrefix.of(prefix.end(), 1));
+                } else {
+                    result.add(IpPrefix.of(prefix.start(), length));
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int commonPrefixLength(AbstractIp<?, ?> a, AbstractIp<?, ?> b) {
+        return ((AbstractIp) a).getCommonPrefixLength(b);
+    }
+
+    private static double size(IpPrefix prefix) {
+        return Math.scalb(1d, prefix.bitSize() - prefix.length());
+    }
+}
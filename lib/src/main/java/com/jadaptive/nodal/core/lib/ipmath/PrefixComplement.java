@@ -0,0 +1,165 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Works out the prefixes that make up a universe prefix with some others
+ * taken out, e.g. for "everything except the LAN" allowed IPs. The result is
+ * the smallest list of prefixes that covers exactly what is left.
+ * <p>
+ * All arithmetic is done on pairs of longs, IPv4 addresses using just the low
+ * half, and the exclusions are sorted once, so this takes
+ * <code>O(N log N)</code> time for <code>N</code> exclusions whatever the
+ * address family.
+ */
+public final class PrefixComplement {
+
+    private static final IpPrefix ALL_IPV4 = IpPrefix.parse("0.0.0.0/0");
+    private static final IpPrefix ALL_IPV6 = IpPrefix.parse("::/0");
+
+    private PrefixComplement() {
+    }
+
+    /**
+     * Get all IPv4 and IPv6 addresses except those given.
+     *
+     * @param excluded prefixes to leave out, of either family
+     * @return prefixes, IPv4 first, each in address order
+     */
+    public static List<IpPrefix> allExcept(Collection<IpPrefix> excluded) {
+        var result = new ArrayList<IpPrefix>();
+        result.addAll(of(ALL_IPV4, excluded));
+        result.addAll(of(ALL_IPV6, excluded));
+        return result;
+    }
+
+    /**
+     * Get the addresses in one prefix that are not in any of the others.
+     * Excluded prefixes of the other address family, or outside of the
+     * universe, are ignored.
+     *
+     * @param universe prefix to take addresses out of
+     * @param excluded prefixes to leave out
+     * @return prefixes in address order
+     */
+    public static List<IpPrefix> of(IpPrefix universe, Collection<IpPrefix> excluded) {
+        var bits = universe.bitSize();
+        var uHi = hi(universe.network());
+        var uLo = lo(universe.network());
+
+        /* Each exclusion as start high, start low, end high, end low */
+        var ranges = new long[excluded.size()][];
+        var count = 0;
+        for (var prefix : excluded) {
+            if (prefix.isIpv4() != universe.isIpv4())
+                continue;
+            if (prefix.contains(universe))
+                return new ArrayList<>();
+            if (!universe.contains(prefix))
+                continue;
+            var hi = hi(prefix.network());
+            var lo = lo(prefix.network());
+            var hostBits = bits - prefix.length();
+            ranges[count++] = new long[] { hi, lo, hi | onesHi(hostBits), lo | onesLo(hostBits) };
+        }
+        if (count == 0)
+            return new ArrayList<>(List.of(universe));
+        Arrays.sort(ranges, 0, count, (a, b) -> compare(a[0], a[1], b[0], b[1]));
+
+        var result = new ArrayList<IpPrefix>();
+        var universeHostBits = bits - universe.length();
+        var endHi = uHi | onesHi(universeHostBits);
+        var endLo = uLo | onesLo(universeHostBits);
+        var nextHi = uHi;
+        var nextLo = uLo;
+        for (var i = 0; i < count; i++) {
+            var range = ranges[i];
+            if (compare(range[0], range[1], nextHi, nextLo) > 0) {
+                /* Gap up to the address before this exclusion */
+                var gapEndLo = range[1] - 1;
+                var gapEndHi = range[1] == 0 ? range[0] - 1 : range[0];
+                split(universe.isIpv4(), bits, nextHi, nextLo, gapEndHi, gapEndLo, result);
+            }
+            if (compare(range[2], range[3], nextHi, nextLo) >= 0) {
+                if (range[2] == endHi && range[3] == endLo)
+                    return result;
+                nextLo = range[3] + 1;
+                nextHi = nextLo == 0 ? range[2] + 1 : range[2];
+            }
+        }
+        split(universe.isIpv4(), bits, nextHi, nextLo, endHi, endLo, result);
+        return result;
+    }
+
+    /*
+     * Add the fewest prefixes covering an inclusive range, taking the largest
+     * prefix that starts at the start and does not go past the end each time.
+     */
+    private static void split(boolean ipv4, int bits, long startHi, long startLo, long endHi, long endLo,
+            List<IpPrefix> result) {
+        while (true) {
+            var length = bits - trailingZeros(startHi, startLo, bits);
+            while (compare(startHi | onesHi(bits - length), startLo | onesLo(bits - length), endHi, endLo) > 0)
+                length++;
+            result.add(IpPrefix.of(ipv4 ? Ipv4.of(startLo) : Ipv6.of(startHi, startLo), length));
+            var lastHi = startHi | onesHi(bits - length);
+            var lastLo = startLo | onesLo(bits - length);
+            if (lastHi == endHi && lastLo == endLo)
+                return;
+            startLo = lastLo + 1;
+            startHi = startLo == 0 ? lastHi + 1 : lastHi;
+        }
+    }
+
+    private static int trailingZeros(long hi, long lo, int bits) {
+        var zeros = lo != 0 ? Long.numberOfTrailingZeros(lo) : 64 + Long.numberOfTrailingZeros(hi);
+        return Math.min(zeros, bits);
+    }
+
+    private static int compare(long hi1, long lo1, long hi2, long lo2) {
+        var r = Long.compareUnsigned(hi1, hi2);
+        return r == 0 ? Long.compareUnsigned(lo1, lo2) : r;
+    }
+
+    /* The high and low halves of a value with the given number of low bits set */
+
+    private static long onesHi(int count) {
+        return count <= 64 ? 0 : count == 128 ? -1L : (1L << (count - 64)) - 1;
+    }
+
+    private static long onesLo(int count) {
+        return count == 0 ? 0 : count >= 64 ? -1L : (1L << count) - 1;
+    }
+
+    private static long hi(AbstractIp<?, ?> ip) {
+        return ip instanceof Ipv4 ? 0 : ((Ipv6) ip).hi();
+    }
+
+    private static long lo(AbstractIp<?, ?> ip) {
+        return ip instanceof Ipv4 ? ((Ipv4) ip).value() : ((Ipv6) ip).lo();
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.ipmath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A compressed binary (Patricia) trie mapping {@link IpPrefix}es to values,
+ * for answering longest prefix match queries such as "which peer owns this
+ * address?" in time proportional to the address length rather than the
+ * number of prefixes.
+ * <p>
+ * IPv4 and IPv6 prefixes are kept in separate trees. Addresses are held as a
+ * pair of longs, so lookups do not allocate. The trie is not thread safe for
+ * modification, but once built may be safely read by many threads.
+ *
+ * @param <V> value type
+ */
+public final class PrefixTrie<V> {
+
+    /**
+     * A prefix and its value.
+     *
+     * @param <V> value type
+     */
+    public final static class Entry<V> {
+        private final IpPrefix prefix;
+        private final V value;
+
+        Entry(IpPrefix prefix, V value) {
+            this.prefix = prefix;
+            this.value = value;
+        }
+
+        public IpPrefix prefix() {
+            return prefix;
+        }
+
+        public V value() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return prefix + "=" + value;
+        }
+    }
+
+    private final static class Node<V> {
+        private long hi;
+        private long lo;
+        private int length;
+        private IpPrefix prefix;
+        private V value;
+        private Node<V> zero;
+        private Node<V> one;
+
+        Node(long hi, long lo, int length) {
+            this.hi = hi & Ipv6.maskHi(length);
+            this.lo = lo & Ipv6.maskLo(length);
+            this.length = length;
+        }
+
+        boolean hasValue() {
+            return prefix != null;
+        }
+
+        boolean matches(long ahi, long alo) {
+            return ((ahi ^ hi) & Ipv6.maskHi(length)) == 0 && ((alo ^ lo) & Ipv6.maskLo(length)) == 0;
+        }
+
+        Node<V> child(long ahi, long alo) {
+            return bit(ahi, alo, length) ? one : zero;
+        }
+
+        void child(boolean bit, Node<V> node) {
+            if (bit)
+                one = node;
+            else
+                zero = node;
+        }
+    }
+
+    private Node<V> root4;
+    private Node<V> root6;
+    private int size;
+
+    /**
+     * Add or replace the value for a prefix.
+     *
+     * @param prefix prefix
+     * @param value  value
+     * @return previous value or <code>null</code>
+     */
+    public V put(IpPrefix prefix, V value) {
+        var hi = hi(prefix.network());
+        var lo = lo(prefix.network());
+        var len = prefix.length();
+        var v4 = prefix.isIpv4();
+
+        Node<V> parent = null;
+        var node = v4 ? root4 : root6;
+        while (true) {
+            if (node == null) {
+                replace(v4, parent, leaf(prefix, hi, lo, value), hi, lo);
+                size++;
+                return null;
+            }
+            var common = Math.min(Math.min(commonLength(node.hi, node.lo, hi, lo), node.length), len);
+            if (common == node.length) {
+                if (node.length == len) {
+                    var was = node.value;
+                    if (!node.hasValue())
+                        size++;
+                    node.prefix = prefix;
+                    node.value = value;
+                    return was;
+                }
+                parent = node;
+                node = node.child(hi, lo);
+                continue;
+            }
+
+            Node<V> split;
+            if (common == len) {
+                /* New prefix is a parent of this node */
+                split = leaf(prefix, hi, lo, value);
+                split.child(bit(node.hi, node.lo, len), node);
+            } else {
+                /* Diverge part way, need a glue node with both as children */
+                split = new Node<>(hi, lo, common);
+                var leaf = leaf(prefix, hi, lo, value);
+                split.child(bit(hi, lo, common), leaf);
+                split.child(bit(node.hi, node.lo, common), node);
+            }
+            replace(v4, parent, split, hi, lo);
+            size++;
+            return null;
+        }
+    }
+
+    /**
+     * Remove a prefix.
+     *
+     * @param prefix prefix
+     * @return removed value or <code>null</code>
+     */
+    public V remove(IpPrefix prefix) {
+        var hi = hi(prefix.network());
+        var lo = lo(prefix.network());
+        var v4 = prefix.isIpv4();
+        Node<V> grandParent = null;
+        Node<V> parent = null;
+        var node = v4 ? root4 : root6;
+        while (node != null && node.length <= prefix.length() && node.matches(hi, lo)) {
+            if (node.length == prefix.length()) {
+                if (!node.hasValue())
+                    return null;
+                var was = node.value;
+                node.prefix = null;
+                node.value = null;
+                size--;
+                prune(v4, grandParent, parent, node);
+                return was;
+            }
+            grandParent = parent;
+            parent = node;
+            node = node.child(hi, lo);
+        }
+        return null;
+    }
+
+    /**
+     * Get the value for exactly this prefix.
+     *
+     * @param prefix prefix
+     * @return value
+     */
+    public Optional<V> get(IpPrefix prefix) {
+        var hi = hi(prefix.network());
+        var lo = lo(prefix.network());
+        var node = prefix.isIpv4() ? root4 : root6;
+        while (node != null && node.length <= prefix.length() && node.matches(hi, lo)) {
+            if (node.length == prefix.length())
+                return node.hasValue() ? Optional.of(node.value) : Optional.empty();
+            node = node.child(hi, lo);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Find the most specific prefix that contains an address.
+     *
+     * @param address address
+     * @return entry
+     */
+    public Optional<Entry<V>> longestMatch(AbstractIp<?, ?> address) {
+        var node = longestMatch(address instanceof Ipv4 ? root4 : root6, hi(address), lo(address));
+        return node == null ? Optional.empty() : Optional.of(new Entry<>(node.prefix, node.value));
+    }
+
+    /**
+     * Find the value of the most specific prefix that contains an address, given
+     * as the 4 or 16 bytes of an IPv4 or IPv6 address in network order (e.g. from
+     * {@link java.net.InetAddress#getAddress()}).
+     *
+     * @param address address
+     * @return value or <code>null</code>
+     */
+    public V longestMatch(byte[] address) {
+        if (address.length == 4)
+            return longestMatchIpv4(((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16)
+                    | ((address[2] & 0xff) << 8) | (address[3] & 0xff));
+        if (address.length != 16)
+            throw new IllegalArgumentException("Address must be 4 or 16 bytes.");
+        long hi = 0;
+        long lo = 0;
+        for (var i = 0; i < 8; i++) {
+            hi = (hi << 8) | (address[i] & 0xff);
+            lo = (lo << 8) | (address[i + 8] & 0xff);
+        }
+        var node = longestMatch(root6, hi, lo);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Find the value of the most specific prefix that contains an IPv4 address,
+     * given as a 32 bit integer.
+     *
+     * @param address address
+     * @return value or <code>null</code>
+     */
+    public V longestMatchIpv4(int address) {
+        var node = longestMatch(root4, ((long) address) << 32, 0);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Look up many addresses at once. The result has the same size and order as
+     * the addresses, with <code>null</code> where there is no match.
+     *
+     * @param addresses addresses
+     * @return values
+     */
+    public List<V> longestMatch(Collection<? extends AbstractIp<?, ?>> addresses) {
+        var l = new ArrayList<V>(addresses.size());
+        for (var address : addresses) {
+            var node = longestMatch(address instanceof Ipv4 ? root4 : root6, hi(address), lo(address));
+            l.add(node == null ? null : node.value);
+        }
+        return l;
+    }
+
+    /**
+     * Get all prefixes that cover (or are equal to) the given prefix, widest
+     * first.
+     *
+     * @param prefix prefix
+     * @return covering entries
+     */
+    public List<Entry<V>> covering(IpPrefix prefix) {
+        var hi = hi(prefix.network());
+        var lo = lo(prefix.network());
+        var l = new ArrayList<Entry<V>>();
+        var node = prefix.isIpv4() ? root4 : root6;
+        while (node != null && node.length <= prefix.length() && node.matches(hi, lo)) {
+            if (node.hasValue())
+                l.add(new Entry<>(node.prefix, node.value));
+            if (node.length == prefix.length())
+                break;
+            node = node.child(hi, lo);
+        }
+        return l;
+    }
+
+    /**
+     * Get all prefixes that are covered by (or are equal to) the given prefix.
+     *
+     * @param prefix prefix
+     * @return covered entries
+     */
+    public List<Entry<V>> coveredBy(IpPrefix prefix) {
+        var l = new ArrayList<Entry<V>>();
+        var node = subtree(prefix);
+        if (node != null)
+            collect(node, l);
+        return l;
+    }
+
+    /**
+     * Get if any prefix is covered by (or is equal to) the given prefix. For
+     * example, with a trie of host addresses this tells if a route would capture
+     * traffic for any of them.
+     *
+     * @param prefix prefix
+     * @return any covered
+     */
+    public boolean anyCoveredBy(IpPrefix prefix) {
+        /* Every node without a value has two children, so any subtree has at least one value */
+        return subtree(prefix) != null;
+    }
+
+    /**
+     * All entries, IPv4 first, each in address order.
+     *
+     * @return entries
+     */
+    public List<Entry<V>> entries() {
+        var l = new ArrayList<Entry<V>>(size);
+        if (root4 != null)
+            collect(root4, l);
+        if (root6 != null)
+            collect(root6, l);
+        return l;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        root4 = root6 = null;
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefixTrie [size=" + size + "]";
+    }
+
+    private Node<V> subtree(IpPrefix prefix) {
+        var hi = hi(prefix.network());
+        var lo = lo(prefix.network());
+        var node = prefix.isIpv4() ? root4 : root6;
+        while (node != null) {
+            if (node.length >= prefix.length()) {
+                /* First node at least as long, it is the subtree if it is within the prefix */
+                var within = ((node.hi ^ hi) & Ipv6.maskHi(prefix.length())) == 0
+                        && ((node.lo ^ lo) & Ipv6.maskLo(prefix.length())) == 0;
+                return within ? node : null;
+            }
+            if (!node.matches(hi, lo))
+                return null;
+            node = node.child(hi, lo);
+        }
+        return null;
+    }
+
+    private static <V> Node<V> longestMatch(Node<V> node, long hi, long lo) {
+        Node<V> best = null;
+        while (node != null && node.matches(hi, lo)) {
+            if (node.hasValue())
+                best = node;
+            node = node.child(hi, lo);
+        }
+        return best;
+    }
+
+    private static <V> void collect(Node<V> node, List<Entry<V>> l) {
+        if (node.hasValue())
+            l.add(new Entry<>(node.prefix, node.value));
+        if (node.zero != null)
+            collect(node.zero, l);
+        if (node.one != null)
+            collect(node.one, l);
+    }
+
+    private static <V> Node<V> leaf(IpPrefix prefix, long hi, long lo, V value) {
+        var node = new Node<V>(hi, lo, prefix.length());
+        node.prefix = prefix;
+        node.value = value;
+        return node;
+    }
+
+    private void replace(boolean v4, Node<V> parent, Node<V> node, long hi, long lo) {
+        if (parent == null) {
+            if (v4)
+                root4 = node;
+            else
+                root6 = node;
+        } else
+            parent.child(bit(hi, lo, parent.length), node);
+    }
+
+    private void prune(boolean v4, Node<V> grandParent, Node<V> parent, Node<V> node) {
+        if (node.zero != null && node.one != null)
+            return;
+        /* Splice out the now empty node */
+        var only = node.zero != null ? node.zero : node.one;
+        relink(v4, parent, node, only);
+        if (only == null && parent != null && !parent.hasValue()) {
+            /* Parent was glue with two children, now it has one so is no longer needed */
+            var other = parent.zero != null ? parent.zero : parent.one;
+            relink(v4, grandParent, parent, other);
+        }
+    }
+
+    private void relink(boolean v4, Node<V> parent, Node<V> old, Node<V> node) {
+        if (parent == null) {
+            if (v4)
+                root4 = node;
+            else
+                root6 = node;
+        } else if (parent.zero == old)
+            parent.zero = node;
+        else
+            parent.one = node;
+    }
+
+    static long hi(AbstractIp<?, ?> ip) {
+        if (ip instanceof Ipv4)
+            return ((Ipv4) ip).value() << 32;
+        return ((Ipv6) ip).hi();
+    }
+
+    static long lo(AbstractIp<?, ?> ip) {
+        if (ip instanceof Ipv4)
+            return 0;
+        return ((Ipv6) ip).lo();
+    }
+
+    static boolean bit(long hi, long lo, int index) {
+        return index < 64 ? (hi & (1L << (63 - index))) != 0 : (lo & (1L << (127 - index))) != 0;
+    }
+
+    static int commonLength(long hi1, long lo1, long hi2, long lo2) {
+        var x = hi1 ^ hi2;
+        if (x != 0)
+            return Long.numberOfLeadingZeros(x);
+        return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+}
@@ -23,7 +23,6 @@
  */
 package com.jadaptive.nodal.core.lib.ipmath;
 
-import java.math.BigInteger;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -32,8 +31,6 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-import static java.math.BigInteger.ZERO;
-
 public final class PrefixUtils {
 
     private PrefixUtils() {
@@ -79,18 +76,7 @@ public final class PrefixUtils {
 
     // TODO(yg): generify and move to AbstractIp
     public static int findMaxPrefixLengthForAddress(Ipv6 address) {
-        return getMaxValidPrefix(address.value());
-    }
-
-    private static int getMaxValidPrefix(BigInteger number) {
-        int powerOfTwo = 0;
-        int maxPowerOfTwo = powerOfTwo;
-
-        while (powerOfTwo <= Ipv6.NUMBER_OF_BITS && number.divideAndRemainder(BigInteger.ONE.shiftLeft(powerOfTwo))[1].compareTo(ZERO) == 0) {
-            maxPowerOfTwo = powerOfTwo;
-            powerOfTwo++;
-        }
-        return Ipv6.NUMBER_OF_BITS - maxPowerOfTwo;
+        return Ipv6.NUMBER_OF_BITS - address.trailingZeros();
     }
 
     public static int sumIpv4Prefixes(List<Integer> ipv4Prefixes) {
@@ -113,9 +99,8 @@ public final class PrefixUtils {
     public static <C extends AbstractIp<C, R>, R extends AbstractIpRange<C, R>>
     SortedSet<R> excludeFromRangeAndSplitIntoPrefixes(R originalRange, Set<R> rangesToExclude) {
 
-        SortedRangeSet<C, R> remainingRanges = new SortedRangeSet<C, R>();
-        remainingRanges.add(originalRange);
-        remainingRanges.removeAll(rangesToExclude);
+        ImmutableRangeSet<C, R> remainingRanges = ImmutableRangeSet.<C, R>of(Collections.singleton(originalRange))
+                .difference(ImmutableRangeSet.<C, R>of(rangesToExclude));
 
         SortedSet<R> prefixes = new TreeSet<R>(StartAndSizeComparator.<C, R>get());
 
@@ -46,6 +46,14 @@ public class SortedRangeSet<C extends Rangeable<C, R>, R extends Range<C, R>> im
         set = new TreeSet<R>(StartAndSizeComparator.<C, R>get());
     }
 
+    /*
+     * For ranges that are already sorted and merged.
+     */
+    SortedRangeSet(Collection<R> ranges) {
+        this();
+        set.addAll(ranges);
+    }
+
     public void addAll(SortedRangeSet<C, R> ranges) {
         for (R range : ranges) {
             add(range);
@@ -185,6 +193,13 @@ public class SortedRangeSet<C extends Rangeable<C, R>, R extends Range<C, R>> im
         return copy;
     }
 
+    /**
+     * @return an {@link ImmutableRangeSet} with the same ranges
+     */
+    public ImmutableRangeSet<C, R> toImmutableRangeSet() {
+        return ImmutableRangeSet.of(this);
+    }
+
     public R getSingleRange() {
         Validate.isTrue(set.size() == 1, "Expected exactly one range");
         return set.first();
@@ -26,9 +26,9 @@ import java.util.List;
 
 import com.jadaptive.nodal.core.lib.ipmath.AbstractIp;
 import com.jadaptive.nodal.core.lib.ipmath.AbstractIpRange;
-import com.jadaptive.nodal.core.lib.ipmath.Ipv4;
+import com.jadaptive.nodal.core.lib.ipmath.IpToken;
+import com.jadaptive.nodal.core.lib.ipmath.IpToken.Type;
 import com.jadaptive.nodal.core.lib.ipmath.Ipv4Range;
-import com.jadaptive.nodal.core.lib.ipmath.Ipv6;
 import com.jadaptive.nodal.core.lib.ipmath.Ipv6Range;
 
 
@@ -36,23 +36,19 @@ public class IpUtil {
 	
 	public static AbstractIp<?, ?> parse(String ip) {
 		var idx = ip.lastIndexOf('%');
-		if(idx != -1) {
-			ip = ip.substring(0, idx);
-		}
-		try {
-			return Ipv4.of(ip);
-		}
-		catch(IllegalArgumentException iae) {
-			return Ipv6.of(ip);
-		}
+		var token = IpToken.parse(ip, 0, idx == -1 ? ip.length() : idx);
+		if(token.isAddress())
+			return token.address();
+		else
+			throw new IllegalArgumentException(String.format("Invalid IP address: '%s'", ip));
 	}
 
 	public static AbstractIpRange<?,?> rangeFrom(String range) {
-		try {
+		var idx = range.indexOf('-');
+		if(IpToken.parse(range, 0, idx == -1 ? range.length() : idx).isIpv4())
 			return Ipv4Range.parse(range);
-		} catch(IllegalArgumentException e) {
+		else
 			return Ipv6Range.parse(range);
-		}
 	}
 
 	public static String toIEEE802(byte[] mac) {
@@ -61,69 +57,40 @@ public class IpUtil {
 	}
 	
 	public static String[] filterIpV4Addresses(String[] address) {
-		List<String> l = new ArrayList<>();
-		if (address != null) {
-			for (String a : address) {
-				try {
-					Ipv4.of(a);
-					l.add(a);
-				} catch (IllegalArgumentException iae) {
-				}
-			}
-		}
-		return l.toArray(new String[0]);
+		return filter(address, Type.IPV4, null);
 	}
 	
 	public static String[] filterIpV6Addresses(String[] address) {
-		List<String> l = new ArrayList<>();
-		if (address != null) {
-			for (String a : address) {
-				try {
-					Ipv6.of(a);
-					l.add(a);
-				} catch (IllegalArgumentException iae) {
-				}
-			}
-		}
-		return l.toArray(new String[0]);
+		return filter(address, Type.IPV6, null);
 	}
 
 	public static String[] filterAddresses(String[] address) {
+		return filter(address, Type.IPV4, Type.IPV6);
+	}
+
+	/**
+	 * Anything that is not an address is treated as a name, so search domains
+	 * in a DNS specification come through however they are written.
+	 */
+	public static String[] filterNames(String[] address) {
 		List<String> l = new ArrayList<>();
 		if (address != null) {
 			for (String a : address) {
-				try {
-					Ipv4.of(a);
+				if(!IpToken.parse(a).isAddress())
 					l.add(a);
-				} catch (IllegalArgumentException iae) {
-					try {
-						Ipv6.of(a);
-						l.add(a);
-					} catch (IllegalArgumentException iae2) {
-
-					}
-				}
 			}
 		}
 		return l.toArray(new String[0]);
 	}
 
-	public static String[] filterNames(String[] address) {
+	private static String[] filter(String[] address, Type type, Type otherType) {
 		List<String> l = new ArrayList<>();
 		if (address != null) {
 			for (String a : address) {
-				try {
-					Ipv4.of(a);
-					continue;
-				} catch (IllegalArgumentException iae) {
-					try {
-						Ipv6.of(a);
-						continue;
-					} catch (IllegalArgumentException iae2) {
-
-					}
-				}
-				l.add(a);
+				var token = IpToken.parse(a);
+				/* Includes zoned addresses (fe80::1%eth0), which filterNames() leaves out */
+				if (token.type() == type || token.type() == otherType)
+					l.add(a);
 			}
 		}
 		return l.toArray(new String[0]);
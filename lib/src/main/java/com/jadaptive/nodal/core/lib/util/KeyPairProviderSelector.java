@@ -0,0 +1,227 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.lib.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jadaptive.nodal.core.lib.NativeComponents;
+import com.jadaptive.nodal.core.lib.util.Keys.KeyPairProvider;
+
+/**
+ * Orders {@link KeyPairProvider}s for public key derivation, fastest working
+ * one first. Each provider is checked against the RFC 7748 test vectors and
+ * against the others using some random keys, then public key derivation is
+ * timed. The choice is saved in the
+ * directory above {@link NativeComponents#binDir()}, and only made again if the
+ * providers, JVM or architecture change.
+ */
+final class KeyPairProviderSelector {
+
+	final static Logger LOG = LoggerFactory.getLogger(KeyPairProviderSelector.class);
+
+	private final static String CACHE_FILE = "key-provider.properties";
+	private final static long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+	private final static int MAX_ITERATIONS = 1 << 16;
+	private final static int RUNS = 3;
+	private final static int RANDOM_KEYS = 8;
+	/* Increase when the rules for which providers may be selected change, so old choices are not reused */
+	private final static int VERSION = 3;
+
+	/* RFC 7748 section 6.1, private key and public key */
+	private final static String[][] KNOWN_ANSWERS = {
+			{ "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a",
+					"8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a" },
+			{ "5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb",
+					"de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f" } };
+
+	private static volatile int sink;
+
+	private KeyPairProviderSelector() {
+	}
+
+	static List<KeyPairProvider> select(List<KeyPairProvider> providers) {
+		if (providers.size() < 2)
+			return providers;
+
+		var fingerprint = fingerprint(providers);
+		var cacheFile = cacheFile();
+		var selected = cacheFile.flatMap(f -> load(f, fingerprint));
+		if (selected.isEmpty()) {
+			var timings = calibrate(providers);
+			selected = timings.entrySet().stream().min(Map.Entry.comparingByValue()).map(Map.Entry::getKey);
+			if (selected.isPresent())
+				cacheFile.ifPresent(f -> store(f, fingerprint, timings));
+		}
+
+		var name = selected.orElse(null);
+		var ordered = new ArrayList<KeyPairProvider>();
+		providers.stream().filter(p -> p.getClass().getName().equals(name)).findFirst().ifPresent(ordered::add);
+		if (ordered.isEmpty()) {
+			LOG.warn("No key pair provider could be selected, using the default order.");
+			return providers;
+		}
+		LOG.info("Selected key pair provider {} for public keys", name);
+		providers.stream().filter(p -> p != ordered.get(0)).forEach(ordered::add);
+		return ordered;
+	}
+
+	/**
+	 * Check and time each provider.
+	 *
+	 * @param providers providers
+	 * @return nanoseconds per public key derivation for each provider that gave
+	 *         correct results
+	 */
+	static Map<String, Long> calibrate(List<KeyPairProvider> providers) {
+		var rnd = new SecureRandom();
+		var keys = new byte[RANDOM_KEYS][32];
+		for (var key : keys) {
+			rnd.nextBytes(key);
+			key[0] &= (byte) 248;
+			key[31] &= (byte) 127;
+			key[31] |= (byte) 64;
+		}
+
+		byte[][] expected = null;
+		var timings = new LinkedHashMap<String, Long>();
+		for (var prov : providers) {
+			var name = prov.getClass().getName();
+			try {
+				if (!knownAnswers(prov)) {
+					LOG.warn("Key pair provider {} does not match the RFC 7748 test vectors, it will not be used.", name);
+					continue;
+				}
+				var results = new byte[keys.length][];
+				for (var i = 0; i < keys.length; i++) {
+					results[i] = prov.pubkey(keys[i].clone()).getPublicKey();
+				}
+				if (expected == null) {
+					expected = results;
+				} else if (!Arrays.deepEquals(expected, results)) {
+					LOG.warn("Key pair provider {} does not agree with the others, it will not be used.", name);
+					continue;
+				}
+				var nanos = time(prov, keys[0]);
+				LOG.debug("Key pair provider {} takes {}ns per public key.", name, nanos);
+				timings.put(name, nanos);
+			} catch (RuntimeException re) {
+				LOG.warn("Key pair provider {} failed, it will not be used.", name, re);
+			}
+		}
+		return timings;
+	}
+
+	static boolean knownAnswers(KeyPairProvider prov) {
+		var hex = HexFormat.of();
+		for (var answer : KNOWN_ANSWERS) {
+			if (!Arrays.equals(hex.parseHex(answer[1]), prov.pubkey(hex.parseHex(answer[0])).getPublicKey()))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Double the number of iterations until a run takes long enough to measure,
+	 * which also warms up the JIT, then take the best of a few more runs.
+	 */
+	private static long time(KeyPairProvider prov, byte[] key) {
+		var iterations = 1;
+		var elapsed = run(prov, key, iterations);
+		while (elapsed < TARGET_NANOS && iterations < MAX_ITERATIONS) {
+			iterations *= 2;
+			elapsed = run(prov, key, iterations);
+		}
+		for (var i = 0; i < RUNS; i++) {
+			elapsed = Math.min(elapsed, run(prov, key, iterations));
+		}
+		return elapsed / iterations;
+	}
+
+	private static long run(KeyPairProvider prov, byte[] key, int iterations) {
+		var started = System.nanoTime();
+		var acc = 0;
+		for (var i = 0; i < iterations; i++) {
+			acc += prov.pubkey(key).getPublicKey()[0];
+		}
+		var elapsed = System.nanoTime() - started;
+		sink = acc;
+		return elapsed;
+	}
+
+	private static String fingerprint(List<KeyPairProvider> providers) {
+		return VERSION + ";" + providers.stream().map(p -> p.getClass().getName()).collect(Collectors.joining(",")) + ";"
+				+ System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version") + ";"
+				+ System.getProperty("os.arch");
+	}
+
+	private static Optional<Path> cacheFile() {
+		try {
+			return Optional.of(new NativeComponents().binDir().getParent().resolve(CACHE_FILE));
+		} catch (IOException | RuntimeException e) {
+			LOG.debug("No directory to cache key pair provider selection in.", e);
+			return Optional.empty();
+		}
+	}
+
+	private static Optional<String> load(Path file, String fingerprint) {
+		if (!Files.exists(file))
+			return Optional.empty();
+		var props = new Properties();
+		try (var in = Files.newBufferedReader(file)) {
+			props.load(in);
+		} catch (IOException | IllegalArgumentException e) {
+			LOG.debug("Could not read {}, providers will be calibrated again.", file, e);
+			return Optional.empty();
+		}
+		if (!fingerprint.equals(props.getProperty("fingerprint")))
+			return Optional.empty();
+		return Optional.ofNullable(props.getProperty("provider"));
+	}
+
+	private static void store(Path file, String fingerprint, Map<String, Long> timings) {
+		var props = new Properties();
+		props.setProperty("fingerprint", fingerprint);
+		props.setProperty("provider", timings.entrySet().stream().min(Map.Entry.comparingByValue()).get().getKey());
+		timings.forEach((k, v) -> props.setProperty("nanos." + k, String.valueOf(v)));
+		try (var out = Files.newBufferedWriter(file)) {
+			props.store(out, "Fastest key pair provider, delete to calibrate again");
+		} catch (IOException ioe) {
+			LOG.debug("Could not write {}.", file, ioe);
+		}
+	}
+}
@@ -21,8 +21,17 @@
  */
 package com.jadaptive.nodal.core.lib.util;
 
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Keys {
 
@@ -64,11 +73,74 @@ public class Keys {
 		KeyPair pubkey(byte[] privateKey);
 	}
 
+	/**
+	 * Number of private to public key derivations to remember, set using the
+	 * <code>nodal.keyCacheSize</code> system property. Zero turns off the cache.
+	 */
+	public final static int KEY_CACHE_SIZE = Integer.getInteger("nodal.keyCacheSize", 64);
+
+	/**
+	 * When set using the <code>nodal.fastestKeyProvider</code> system property,
+	 * the first public key derivation times all providers and uses the fastest one
+	 * that gives correct results for derivation. Other operations still use the
+	 * providers in order. The choice is remembered between runs.
+	 */
+	public final static boolean FASTEST_PROVIDER = Boolean.getBoolean("nodal.fastestKeyProvider");
+
+	private final static class Providers {
+		private final static List<KeyPairProvider> PROVIDERS;
+
+		static {
+			var l = new ArrayList<KeyPairProvider>();
+			for (var prov : ServiceLoader.load(KeyPairProvider.class, Keys.class.getClassLoader())) {
+				l.add(prov);
+			}
+			PROVIDERS = Collections.unmodifiableList(l);
+		}
+	}
+
+	private final static class Derivers {
+		private final static List<KeyPairProvider> DERIVERS = FASTEST_PROVIDER
+				? Collections.unmodifiableList(KeyPairProviderSelector.select(Providers.PROVIDERS))
+				: Providers.PROVIDERS;
+	}
+
+	@SuppressWarnings("serial")
+	private final static Map<ByteBuffer, KeyPair> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, KeyPair> eldest) {
+			return size() > KEY_CACHE_SIZE;
+		}
+	});
+
+	private final static ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
 	private Keys() {
 	}
 
+	/**
+	 * Get the key pair providers, in order of preference. These are only looked up
+	 * once.
+	 * 
+	 * @return providers
+	 */
+	public static List<KeyPairProvider> providers() {
+		return Providers.PROVIDERS;
+	}
+
+	/**
+	 * Check a provider derives the public keys given in RFC 7748 section 6.1
+	 * from their private keys.
+	 * 
+	 * @param provider provider
+	 * @return provider gives the expected public keys
+	 */
+	public static boolean knownAnswers(KeyPairProvider provider) {
+		return KeyPairProviderSelector.knownAnswers(provider);
+	}
+
 	public static boolean verify(byte[] publicKey, byte[] data, byte[] sig) {
-		for (var prov : ServiceLoader.load(KeyPairProvider.class, Keys.class.getClassLoader())) {
+		for (var prov : providers()) {
 			try {
 				return prov.verify(publicKey, data, sig);
 			} catch (UnsupportedOperationException uoe) {
@@ -83,7 +155,7 @@ public class Keys {
 	}
 
 	public static KeyPair genkey() {
-		for (var prov : ServiceLoader.load(KeyPairProvider.class, Keys.class.getClassLoader())) {
+		for (var prov : providers()) {
 			try {
 				return prov.genkey();
 			} catch (UnsupportedOperationException uoe) {
@@ -93,18 +165,128 @@ public class Keys {
 
 	}
 
+	/**
+	 * Generate many key pairs at once, for example when provisioning lots of
+	 * peers. Keys are generated in parallel using the common fork/join pool, with
+	 * each thread using its own {@link SecureRandom}. The stream is lazy, so keys
+	 * may be consumed as they are generated rather than all held in memory.
+	 * <p>
+	 * Private keys are random and clamped as <code>wg genkey</code> does, then the
+	 * public key is derived in the same way as {@link #pubkey(byte[])}. Generated keys
+	 * are not cached.
+	 * 
+	 * @param count number of key pairs
+	 * @return key pairs, in no particular order
+	 */
+	public static Stream<KeyPair> genkeys(int count) {
+		checkCount(count);
+		return IntStream.range(0, count).parallel().mapToObj(i -> derive(randomKey(true)));
+	}
+
+	/**
+	 * Generate many preshared keys at once, in parallel in the same way as
+	 * {@link #genkeys(int)}.
+	 * 
+	 * @param count number of keys
+	 * @return keys, in no particular order
+	 */
+	public static Stream<byte[]> genpsks(int count) {
+		checkCount(count);
+		return IntStream.range(0, count).parallel().mapToObj(i -> randomKey(false));
+	}
+
+	public static byte[] genpsk() {
+		return randomKey(false);
+	}
+
 	public static KeyPair pubkeyBase64(String base64PrivateKey) {
-		for (var prov : ServiceLoader.load(KeyPairProvider.class, Keys.class.getClassLoader())) {
+		return pubkey(Base64.getDecoder().decode(base64PrivateKey));
+	}
+
+	/**
+	 * Get the key pair for a private key. Recently used private keys are cached,
+	 * so deriving the same public key repeatedly is cheap. Cached pairs are
+	 * shared, so return copies of their keys.
+	 * 
+	 * @param privateKey private key
+	 * @return key pair
+	 */
+	public static KeyPair pubkey(byte[] privateKey) {
+		if (KEY_CACHE_SIZE < 1)
+			return derive(privateKey);
+
+		var key = ByteBuffer.wrap(privateKey.clone());
+		var pair = CACHE.get(key);
+		if (pair == null) {
+			/*
+			 * Derive outside of the lock, at worst this is done twice. Providers may keep
+			 * the array they are given, so it must be neither the caller's nor the cache
+			 * key
+			 */
+			pair = new CachedKeyPair(derive(privateKey.clone()));
+			CACHE.put(key, pair);
+		}
+		return pair;
+	}
+
+	private final static class CachedKeyPair implements KeyPair {
+		private final KeyPair delegate;
+
+		private CachedKeyPair(KeyPair delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public byte[] getPublicKey() {
+			return delegate.getPublicKey().clone();
+		}
+
+		@Override
+		public byte[] getPrivateKey() {
+			return delegate.getPrivateKey().clone();
+		}
+
+		@Override
+		public byte[] agreement() {
+			return delegate.agreement();
+		}
+
+		@Override
+		public byte[] sign(byte[] data) {
+			return delegate.sign(data);
+		}
+	}
+
+	private static byte[] randomKey(boolean clamp) {
+		var key = new byte[32];
+		RANDOM.get().nextBytes(key);
+		if (clamp) {
+			key[0] &= 248;
+			key[31] &= 127;
+			key[31] |= 64;
+		}
+		return key;
+	}
+
+	private static void checkCount(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("Count must not be negative.");
+	}
+
+	private static KeyPair derive(byte[] privateKey) {
+		var derivers = Derivers.DERIVERS;
+		for (var prov : derivers) {
 			try {
-				return prov.pubkey(Base64.getDecoder().decode(base64PrivateKey));
+				var pair = prov.pubkey(privateKey);
+				return derivers == providers() || prov == providers().get(0) ? pair : new DerivedKeyPair(pair);
 			} catch (UnsupportedOperationException uoe) {
 			}
 		}
 		throw new UnsupportedOperationException();
 	}
 
-	public static KeyPair pubkey(byte[] privateKey) {
-		for (var prov : ServiceLoader.load(KeyPairProvider.class, Keys.class.getClassLoader())) {
+	private static KeyPair derive(List<KeyPairProvider> providers, byte[] privateKey) {
+		for (var prov : providers) {
 			try {
 				return prov.pubkey(privateKey);
 			} catch (UnsupportedOperationException uoe) {
@@ -112,6 +294,53 @@ public class Keys {
 		}
 		throw new UnsupportedOperationException();
 	}
+
+	/**
+	 * A pair derived by a provider chosen for speed, which may not be able to
+	 * sign or agree. If so, the pair from the usual providers is used instead.
+	 */
+	private final static class DerivedKeyPair implements KeyPair {
+		private final KeyPair derived;
+		private KeyPair full;
+
+		private DerivedKeyPair(KeyPair derived) {
+			this.derived = derived;
+		}
+
+		@Override
+		public byte[] getPublicKey() {
+			return derived.getPublicKey();
+		}
+
+		@Override
+		public byte[] getPrivateKey() {
+			return derived.getPrivateKey();
+		}
+
+		@Override
+		public byte[] agreement() {
+			try {
+				return derived.agreement();
+			} catch (UnsupportedOperationException uoe) {
+				return full().agreement();
+			}
+		}
+
+		@Override
+		public byte[] sign(byte[] data) {
+			try {
+				return derived.sign(data);
+			} catch (UnsupportedOperationException uoe) {
+				return full().sign(data);
+			}
+		}
+
+		private synchronized KeyPair full() {
+			if (full == null)
+				full = derive(providers(), derived.getPrivateKey().clone());
+			return full;
+		}
+	}
 	
 	public static  void main(String[] args) {
 		//var prikey = Base64.getDecoder().decode("O+F8ZCJK45oWdatKccPXruuvojilgBaS97KLfCvx754=");
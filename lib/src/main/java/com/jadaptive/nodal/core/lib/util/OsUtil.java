@@ -23,7 +23,9 @@ package com.jadaptive.nodal.core.lib.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -34,6 +36,7 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.jadaptive.nodal.core.lib.ipmath.IpToken;
 import com.sshtools.liftlib.OS;
 
 public class OsUtil {
@@ -117,11 +120,55 @@ public class OsUtil {
         return parseInetSocketAddress(addr, 0);
     }
 
+    /**
+     * Parse <code>host</code>, <code>host:port</code> or <code>[ipv6]:port</code>.
+     * IP literals are turned into an address directly rather than going through
+     * a name lookup.
+     */
     public static InetSocketAddress parseInetSocketAddress(String addr, int defaultPort) {
-        var idx = addr.indexOf(':');
-        if(idx == -1)
-            return new InetSocketAddress(addr, defaultPort);
-        else
-            return new InetSocketAddress(addr.substring(0, idx), Integer.parseInt(addr.substring(idx + 1)));
+        String host;
+        var port = defaultPort;
+        if(addr.startsWith("[")) {
+            var idx = addr.indexOf(']');
+            if(idx == -1)
+                throw new IllegalArgumentException("Invalid address " + addr);
+            host = addr.substring(1, idx);
+            if(idx + 1 < addr.length()) {
+                if(addr.charAt(idx + 1) != ':')
+                    throw new IllegalArgumentException("Invalid address " + addr);
+                port = Integer.parseInt(addr.substring(idx + 2));
+            }
+        }
+        else {
+            var idx = addr.indexOf(':');
+            if(idx == -1 || idx != addr.lastIndexOf(':')) {
+                host = addr;
+            }
+            else {
+                host = addr.substring(0, idx);
+                port = Integer.parseInt(addr.substring(idx + 1));
+            }
+        }
+
+        var token = IpToken.parse(host);
+        if(token.isAddress() && token.zone().isEmpty()) {
+            byte[] bytes;
+            if(token.isIpv4()) {
+                bytes = new byte[] { (byte)(token.lo() >> 24), (byte)(token.lo() >> 16), (byte)(token.lo() >> 8), (byte)token.lo() };
+            }
+            else {
+                bytes = new byte[16];
+                for(int i = 0; i < 8; i++) {
+                    bytes[i] = (byte)(token.hi() >>> (56 - i * 8));
+                    bytes[8 + i] = (byte)(token.lo() >>> (56 - i * 8));
+                }
+            }
+            try {
+                return new InetSocketAddress(InetAddress.getByAddress(bytes), port);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return new InetSocketAddress(host, port);
     }
 }
@@ -39,7 +39,7 @@ import com.jadaptive.nodal.core.lib.util.Keys.KeyPair;
 import uk.co.bithatch.nativeimage.annotations.Reflectable;
 
 /**
- * TODO: Not yet used
+ * Uses the JDK's own X25519 implementation. Signing is not supported.
  */
 @Reflectable
 public class JCEKeys implements Keys.KeyPairProvider {
@@ -60,9 +60,10 @@ public class JCEKeys implements Keys.KeyPairProvider {
              * https://stackoverflow.com/questions/67332030/java-11-curve25519-implementation-doesnt-behave-as-signals-libary
              */
             var bs = publicKey.getU().toByteArray();
-            var b = new byte[bs.length];
-            for (int i = 0; i < bs.length; i++) {
-                b[bs.length - (i + 1)] = bs[i];
+            var b = new byte[32];
+            /* Big endian to little endian, dropping any sign byte and padding to 32 bytes */
+            for (int i = 0; i < b.length && i < bs.length; i++) {
+                b[i] = bs[bs.length - (i + 1)];
             }
             return b;
         }
@@ -22,6 +22,8 @@
 import com.jadaptive.nodal.core.lib.DNSProvider;
 import com.jadaptive.nodal.core.lib.PlatformServiceFactory;
 import com.jadaptive.nodal.core.lib.util.Keys;
+import com.jadaptive.nodal.core.lib.util.impl.BasicKeys;
+import com.jadaptive.nodal.core.lib.util.impl.JCEKeys;
 import com.jadaptive.nodal.core.lib.util.impl.WhisperKeys;
 
 open module com.jadaptive.nodal.core.lib {
@@ -40,5 +42,5 @@ open module com.jadaptive.nodal.core.lib {
     
     uses Keys.KeyPairProvider;
 
-	provides Keys.KeyPairProvider with WhisperKeys/* , BasicKeys, JCEKeys */;
+	provides Keys.KeyPairProvider with WhisperKeys, BasicKeys, JCEKeys;
 }
\ No newline at end of file
@@ -22,12 +22,14 @@
 package com.jadaptive.nodal.core.linux;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
@@ -38,15 +40,20 @@ import org.slf4j.LoggerFactory;
 import com.jadaptive.nodal.core.lib.AbstractUnixAddress;
 import com.jadaptive.nodal.core.lib.NativeComponents.Tool;
 import com.jadaptive.nodal.core.lib.NetworkInterfaceInfo;
-import com.jadaptive.nodal.core.lib.util.IpUtil;
+import com.jadaptive.nodal.core.lib.RouteDiff;
+import com.jadaptive.nodal.core.lib.ipmath.IpPrefix;
 import com.jadaptive.nodal.core.lib.util.OsUtil;
 import com.jadaptive.nodal.core.lib.util.Util;
+import com.jadaptive.nodal.core.linux.netlink.LinkAddress;
+import com.jadaptive.nodal.core.linux.netlink.Netlink;
+import com.jadaptive.nodal.core.linux.netlink.Route;
+import com.jadaptive.nodal.core.linux.netlink.RtNetlink;
+import com.jadaptive.nodal.core.linux.netlink.RtNetlink.RouteChange;
 
 public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractLinuxPlatformService> {
 
     private static final String NFT_COMMAND = "nft";
 
-    private static final String TABLE_PREFIX = "nodal-";
 
     public final static String TABLE_AUTO = "auto";
     public final static String TABLE_OFF = "off";
@@ -67,10 +74,14 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
                     "Interface %s is configured to have a single peer %s, so cannot add a second address %s", shortName(),
                     peer(), address));
 
-        if (Util.isNotBlank(peer())) {
-            commands.privileged().logged().result("ip", "address", "add", "dev", nativeName(), address, "peer", peer());
+        var rt = platform.rtnetlink();
+        if (rt.isPresent()) {
+            rt.get().addAddress(LinkAddress.of(RtNetlink.ifindex(nativeName()), address,
+                    Util.isNotBlank(peer()) ? peer() : null));
+        } else if (Util.isNotBlank(peer())) {
+            platform.ip("address", "add", "dev", nativeName(), address, "peer", peer());
         } else
-            commands.privileged().logged().result("ip", "address", "add", "dev", nativeName(), address);
+            platform.ip("address", "add", "dev", nativeName(), address);
         addresses.add(address);
     }
 
@@ -87,20 +98,21 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
                 var fwmark = getFWMark("table");
                 if ((Util.isBlank(table) || table.equals(TABLE_AUTO))
                         && fwmark > 0 /* && [[ $(wg show "$INTERFACE" allowed-ips) =~ /0(\ |$'\n'|$) ]] */) {
+                    /* A failed delete leaves the rule in place, so must not be retried forever */
                     while (commandOutputMatches(".*lookup " + fwmark + ".*", "ip", "-4", "rule", "show")) {
-                        commands.privileged().logged().result("ip", "-4", "rule", "delete", "table", String.valueOf(fwmark));
+                        platform.ipOrFail("-4", "rule", "delete", "table", String.valueOf(fwmark));
                     }
                     while (commandOutputMatches(".*from all lookup main suppress_prefixlength 0.*", "ip", "-4", "rule",
                             "show")) {
-                        commands.privileged().logged().result("ip", "-4", "rule", "delete", "table", "main",
+                        platform.ipOrFail("-4", "rule", "delete", "table", "main",
                                 "suppress_prefixlength", "0");
                     }
                     while (commandOutputMatches(".*lookup " + fwmark + ".*", "ip", "-6", "rule", "show")) {
-                        commands.privileged().logged().result("ip", "-6", "rule", "delete", "table", String.valueOf(fwmark));
+                        platform.ipOrFail("-6", "rule", "delete", "table", String.valueOf(fwmark));
                     }
                     while (commandOutputMatches(".*from all lookup main suppress_prefixlength 0.*", "ip", "-6", "rule",
                             "show")) {
-                        commands.privileged().logged().result("ip", "-6", "rule", "delete", "table", "main",
+                        platform.ipOrFail("-6", "rule", "delete", "table", "main",
                                 "suppress_prefixlength", "0");
                     }
                 }
@@ -160,7 +172,12 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
                     "Interface %s is configured to have a single peer %s, so cannot add a second address %s", shortName(),
                     peer(), address));
 
-        commands.privileged().logged().result("ip", "address", "del", address, "dev", nativeName());
+        var rt = platform.rtnetlink();
+        if (rt.isPresent())
+            rt.get().deleteAddress(LinkAddress.of(RtNetlink.ifindex(nativeName()), address,
+                    Util.isNotBlank(peer()) ? peer() : null));
+        else
+            platform.ip("address", "del", address, "dev", nativeName());
         addresses.remove(address);
     }
 
@@ -198,27 +215,138 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
 
     @Override
     public void setRoutes(Collection<String> allows) throws IOException {
-    	allows = allows.stream().map(IpUtil::normalizeMasked).toList();
+    	var wanted = RouteDiff.parse(allows);
     	
+    	var rt = platform.rtnetlink();
+    	if(rt.isPresent() && tableNumber().isPresent()) {
+    		setRoutes(rt.get(), wanted);
+    		return;
+    	}
+
+        /* Read the current routes for this interface (from the table they are added to) and
+         * work out the minimal changes. IPv6 kernel routes (link local etc) are left alone */
+        var current = new ArrayList<IpPrefix>();
+        for (var proto : new String[] { "-4", "-6" }) {
+            var args = new ArrayList<>(Arrays.asList("ip", proto, "route", "show", "dev", nativeName()));
+            if (!isMainTable()) {
+                args.add("table");
+                args.add(table());
+            }
+            for (var row : commands.privileged().output(args.toArray(new String[0]))) {
+                var l = row.trim().split("\\s+");
+                if (l.length == 0 || (proto.equals("-6") && row.contains("proto kernel")))
+                    continue;
+                try {
+                    current.add(IpPrefix.parse(l[0]));
+                } catch (IllegalArgumentException iae) {
+                    LOG.debug("Ignoring route {} for {}", row, shortName());
+                }
+            }
+        }
+        var diff = RouteDiff.between(wanted, current);
+
+        var changes = new ArrayList<String[]>();
+        for (var route : diff.remove()) {
+            LOG.info("Removing route {} for {}", route, shortName());
+            /* The prefix implies the family */
+            var args = new ArrayList<>(Arrays.asList("route", "del", route.toString(), "dev", nativeName()));
+            if (!isMainTable()) {
+                args.add("table");
+                args.add(table());
+            }
+            changes.add(args.toArray(new String[0]));
+        }
+        platform.ip(changes);
+
+        /* Additions are also sent together, default routes need more than just a route so come last */
+        changes.clear();
+        var defaults = new ArrayList<String>();
+        for (var route : diff.add()) {
+            addRoute(route, changes, defaults);
+        }
+        platform.ip(changes);
+        for (var route : defaults) {
+            addDefault(route);
+        }
+    }
 
-        /* Remove all the current routes for this interface. Normalize all the addresses (both
-         * those we want and those we have) to be full masked */
-        var have = new HashSet<>();
-        for (var row : commands.privileged().output("ip", "route", "show", "dev", nativeName())) {
-            String[] l = row.split("\\s+");
-            if (l.length > 0) {
-                var routeAddr = IpUtil.normalizeMasked(l[0]);
-				have.add(routeAddr);
-                if (!allows.contains(routeAddr)) {
-                    LOG.info("Removing route {} for {}", routeAddr, shortName());
-                    commands.privileged().logged().result("ip", "route", "del", routeAddr, "dev", nativeName());
+    /**
+     * Same as the <code>ip</code> based implementation, but reads the current routes with
+     * a single dump, and sends all deletions and additions in one batch.
+     */
+    private void setRoutes(RtNetlink rt, List<IpPrefix> wanted) throws IOException {
+        var ifindex = RtNetlink.ifindex(nativeName());
+        var table = tableNumber().get();
+        var routeTable = table == 0 ? RtNetlink.RT_TABLE_MAIN : table;
+
+        var current = new LinkedHashMap<IpPrefix, Route>();
+        var kept = new ArrayList<IpPrefix>();
+        for (var route : rt.routes(ifindex, routeTable)) {
+            var prefix = IpPrefix.parse(route.toString());
+            if (route.family() == Netlink.AF_INET6 && route.protocol() == RtNetlink.RTPROT_KERNEL) {
+                /* IPv6 kernel routes (link local etc) were never touched when using 'ip route show' */
+                kept.add(prefix);
+            } else {
+                current.put(prefix, route);
+            }
+        }
+        var diff = RouteDiff.between(wanted, current.keySet());
+
+        var changes = new ArrayList<RouteChange>();
+        for (var prefix : diff.remove()) {
+            LOG.info("Removing route {} for {}", prefix, shortName());
+            changes.add(new RouteChange(false, current.get(prefix)));
+        }
+
+        var defaults = new ArrayList<String>();
+        if (table != 0) {
+            for (var prefix : diff.add()) {
+                if (table != RtNetlink.RT_TABLE_MAIN) {
+                    changes.add(new RouteChange(true, Route.of(prefix.toString(), table, ifindex)));
+                } else if (prefix.isDefault()) {
+                    defaults.add(prefix.toString());
+                } else if (kept.stream().noneMatch(k -> k.contains(prefix))) {
+                    LOG.info("Adding route {} to {}", prefix, shortName());
+                    changes.add(new RouteChange(true, Route.of(prefix.toString(), table, ifindex)));
                 }
             }
         }
 
-        for (String route : allows) {
-            if (!have.contains(route))
-                addRoute(route);
+        var failed = new ArrayList<String>();
+        for (var change : rt.apply(changes)) {
+            if (!change.succeeded()) {
+                failed.add(String.format("%s %s (errno %d)", change.add() ? "add" : "remove", change.route(), change.errno()));
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IOException(String.format("Failed to change routes for %s. %s", shortName(), String.join(", ", failed)));
+        }
+
+        for (var route : defaults) {
+            addDefault(route);
+        }
+    }
+
+    private boolean isMainTable() {
+        var table = table();
+        return Util.isBlank(table) || TABLE_AUTO.equals(table) || TABLE_OFF.equals(table);
+    }
+
+    /**
+     * Get the table to use for routes as a number, zero if routes should not be
+     * added at all, or empty if the table is named and can only be handled by
+     * the <code>ip</code> command.
+     */
+    private Optional<Integer> tableNumber() {
+        var table = table();
+        if (Util.isBlank(table) || TABLE_AUTO.equals(table))
+            return Optional.of(RtNetlink.RT_TABLE_MAIN);
+        else if (TABLE_OFF.equals(table))
+            return Optional.of(0);
+        try {
+            return Optional.of(Integer.parseInt(table));
+        } catch (NumberFormatException nfe) {
+            return Optional.empty();
         }
     }
 
@@ -229,8 +357,14 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
 
     @Override
     public void up() throws IOException {
-        if (getMtu() > 0) {
-            commands.privileged().logged().result("ip", "link", "set", "mtu", String.valueOf(getMtu()), "up", "dev",
+        var rt = platform.rtnetlink();
+        if (rt.isPresent()) {
+            /* Same default as below, but MTU detection and bring up are a single request each */
+            var mtu = getMtu() > 0 ? getMtu() : rt.get().defaultRouteMtu().orElse(1500) - 80;
+            rt.get().setLink(nativeName(), mtu, true);
+        }
+        else if (getMtu() > 0) {
+            platform.ip("link", "set", "mtu", String.valueOf(getMtu()), "up", "dev",
                     nativeName());
         } else {
             /*
@@ -279,23 +413,25 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
             tmtu -= 80;
 
             /* Bring it up! */
-            commands.privileged().logged().result("ip", "link", "set", "mtu", String.valueOf(tmtu), "up", "dev",
+            platform.ip("link", "set", "mtu", String.valueOf(tmtu), "up", "dev",
                     nativeName());
         }
     }
     
     private boolean haveSetFirewall() {
-        var nftable = TABLE_PREFIX + nativeName();
         if (OsUtil.doesCommandExist(NFT_COMMAND)) {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Checking if firewall already setup for {} using nft", shortName());
             }
-            for(var line : commands.privileged().silentOutput("nft", "list", "ruleset")) {
-                if(line.startsWith("table ip " + nftable +" {")) {
+            try {
+                if(new NftFirewall(commands, nativeName()).isSet()) {
                     LOG.info("Firewall is configured using nft");
-                   return true;
+                    return true;
                 }
             }
+            catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
         } else {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Checking if firewall already setup for {} using iptables", shortName());
@@ -326,33 +462,29 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
         }
         var proto = "-4";
         var iptables = "iptables";
-        var pf = "ip";
 
         if (route.matches(".*:.*")) {
             proto = "-6";
             iptables = "ip6tables";
-            pf = "ip6";
         }
 
-        priv.logged().result("ip", proto, "route", "add", route, "dev", nativeName(), "table",
-                String.valueOf(table));
-        priv.logged().result("ip", proto, "rule", "add", "not", "fwmark", String.valueOf(table),
-                "table", String.valueOf(table));
-        priv.logged().result("ip", proto, "rule", "add", "table", "main", "suppress_prefixlength",
-                "0");
+        platform.ip(List.of(
+                new String[] { "route", "add", route, "dev", nativeName(), "table", String.valueOf(table) },
+                new String[] { proto, "rule", "add", "not", "fwmark", String.valueOf(table), "table", String.valueOf(table) },
+                new String[] { proto, "rule", "add", "table", "main", "suppress_prefixlength", "0" }));
+
+        if (proto.equals("-4")) {
+            priv.logged().result("sysctl", "-q", "net.ipv4.conf.all.src_valid_mark=1");
+        }
+
+        if (OsUtil.doesCommandExist(NFT_COMMAND)) {
+            /* Covers both address families, so a second default route just refreshes the addresses */
+            new NftFirewall(commands, nativeName()).set(table, interfaceAddresses());
+            return;
+        }
 
         var marker = String.format("-m comment --comment \"Nodal rule for %s\"", nativeName());
         var restore = "*raw\n";
-        var nftable = TABLE_PREFIX + nativeName();
-
-        var nftcmd = new StringBuilder();
-        nftcmd.append(String.format("add table %s %s\n", pf, nftable));
-        nftcmd.append(
-                String.format("add chain %s %s preraw { type filter hook prerouting priority -300; }\n", pf, nftable));
-        nftcmd.append(String.format("add chain %s %s premangle { type filter hook prerouting priority -150; }\n", pf,
-                nftable));
-        nftcmd.append(String.format("add chain %s %s postmangle { type filter hook postrouting priority -150; }\n", pf,
-                nftable));
 
         var pattern = Pattern.compile(".*inet6?\\ ([0-9a-f:.]+)/[0-9]+.*");
         for (var line : priv.output("ip", "-o", proto, "addr", "show", "dev", nativeName())) {
@@ -363,60 +495,50 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
 
             restore += String.format("-I PREROUTING ! -i %s -d %s -m addrtype ! --src-type LOCAL -j DROP %s\n", nativeName(),
                     m.group(1), marker);
-            nftcmd.append(String.format("add rule %s %s preraw iifname != \"%s\" %s daddr %s fib saddr type != local drop\n", pf,
-                    nftable, nativeName(), pf, m.group(1)));
         }
 
         restore += String.format(
                 "COMMIT\n*mangle\n-I POSTROUTING -m mark --mark %d -p udp -j CONNMARK --save-mark %s\n-I PREROUTING -p udp -j CONNMARK --restore-mark %s\nCOMMIT\n",
                 table, marker, marker);
-        nftcmd.append(String.format("add rule %s %s postmangle meta l4proto udp mark %d ct mark set mark \n", pf, nftable, table));
-        nftcmd.append(String.format("add rule %s %s premangle meta l4proto udp meta mark set ct mark \n", pf, nftable));
 
-        if (proto.equals("-4")) {
-            priv.logged().result("sysctl", "-q", "net.ipv4.conf.all.src_valid_mark=1");
-        }
+        LOG.info("Updating firewall (IpTables): {}", restore);
+        priv.logged().pipeTo(restore, iptables + "-restore", "-n");
+    }
 
-        if (OsUtil.doesCommandExist(NFT_COMMAND)) {
-            LOG.info("Updating firewall (NFT): {}", nftcmd.toString());
-            var temp = Files.createTempFile("nftvpn", ".fwl");
-            try {
-                try(var out = Files.newBufferedWriter(temp)) {
-                    out.write(nftcmd.toString());
-                }
-                priv.logged().pipeTo(nftcmd.toString(), "nft", "-f", temp.toAbsolutePath().toString());
+    private List<String> interfaceAddresses() throws IOException {
+        var mon = platform.linkMonitor();
+        if(mon.isPresent()) {
+            var snapshot = mon.get().snapshot();
+            var link = snapshot.link(nativeName());
+            if(link.isPresent()) {
+                return snapshot.addresses(link.get().index()).stream().
+                        map(a -> Netlink.formatAddress(a.local())).
+                        toList();
             }
-            finally {
-                Files.delete(temp);
+        }
+        var l = new ArrayList<String>();
+        var pattern = Pattern.compile(".*inet6?\\ ([0-9a-f:.]+)/[0-9]+.*");
+        for (var line : commands.privileged().output("ip", "-o", "addr", "show", "dev", nativeName())) {
+            var m = pattern.matcher(line);
+            if (m.matches()) {
+                l.add(m.group(1));
             }
-        } else {
-            LOG.info("Updating firewall (IpTables): {}", restore);
-            priv.logged().pipeTo(restore, iptables + "-restore", "-n");
         }
+        return l;
     }
 
-    private void addRoute(String route) throws IOException {
-        var proto = "-4";
-        if (route.matches(".*:.*"))
-            proto = "-6";
+    private void addRoute(IpPrefix route, List<String[]> changes, List<String> defaults) throws IOException {
+        var proto = route.isIpv4() ? "-4" : "-6";
         if (TABLE_OFF.equals(table()))
             return;
-        if (!TABLE_AUTO.equals(table())) {
-            commands.privileged().logged().result("ip", proto, "route", "add", route, "dev", nativeName(), "table", table());
-        } else if (route.endsWith("/0")) {
-            addDefault(route);
+        if (!isMainTable()) {
+            changes.add(new String[] { "route", "add", route.toString(), "dev", nativeName(), "table", table() });
+        } else if (route.isDefault()) {
+            defaults.add(route.toString());
         } else {
-            try {
-                var res = commands.privileged().output("ip", proto, "route", "show", "dev", nativeName(), "match", route)
-                        .iterator().next();
-                if (Util.isNotBlank(res)) {
-                    // Already have
-                    return;
-                }
-            } catch (Exception e) {
-            }
+            /* Anything already covered by a route on this device was dropped by RouteDiff */
             LOG.info("Adding route {} to {} for {}", route, shortName(), proto);
-            commands.privileged().logged().result("ip", proto, "route", "add", route, "dev", nativeName());
+            changes.add(new String[] { "route", "add", route.toString(), "dev", nativeName() });
         }
     }
 
@@ -445,16 +567,7 @@ public abstract class AbstractLinuxAddress extends AbstractUnixAddress<AbstractL
 
     private void removeFirewall() throws IOException {
         if (OsUtil.doesCommandExist(NFT_COMMAND)) {
-            var nftcmd = new StringBuilder();
-            for (var table : commands.privileged().output("nft", "list", "tables")) {
-                if (table.contains(TABLE_PREFIX)) {
-                    nftcmd.append(String.format("delete %s\n", table));
-                }
-            }
-            if (nftcmd.length() > 0) {
-                LOG.info("Removing firewall (NFT): {}", nftcmd.toString());
-                commands.privileged().logged().pipeTo(nftcmd.toString(), "nft", "-f", "-");
-            }
+            new NftFirewall(commands, nativeName()).remove();
         }
         else if (OsUtil.doesCommandExist("iptables")) {
             for (var iptables : new String[] { "iptables", "ip6tables" }) {
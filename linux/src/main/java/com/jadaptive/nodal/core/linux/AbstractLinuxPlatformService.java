@@ -23,43 +23,38 @@ package com.jadaptive.nodal.core.linux;
 
 import com.jadaptive.nodal.core.lib.AbstractUnixDesktopPlatformService;
 import com.jadaptive.nodal.core.lib.NATMode;
-import com.jadaptive.nodal.core.lib.NATMode.MASQUERADE;
-import com.jadaptive.nodal.core.lib.NATMode.SNAT;
 import com.jadaptive.nodal.core.lib.NativeComponents.Tool;
 import com.jadaptive.nodal.core.lib.StartRequest;
 import com.jadaptive.nodal.core.lib.SystemContext;
 import com.jadaptive.nodal.core.lib.VpnAdapter;
-import com.jadaptive.nodal.core.lib.util.OsUtil;
+import com.jadaptive.nodal.core.linux.netlink.LinkMonitor;
+import com.jadaptive.nodal.core.linux.netlink.LinkMonitor.Snapshot;
+import com.jadaptive.nodal.core.linux.netlink.Netlink;
+import com.jadaptive.nodal.core.linux.netlink.NetlinkSocket;
+import com.jadaptive.nodal.core.linux.netlink.RtNetlink;
 import com.sshtools.liftlib.ElevatedClosure;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.UncheckedIOException;
-import java.io.Writer;
 import java.net.NetworkInterface;
-import java.net.SocketException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import uk.co.bithatch.nativeimage.annotations.Serialization;
 
 public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPlatformService<AbstractLinuxAddress> {
 
-    private static final String POSTROUTING_VPN = "POSTROUTING_VPN";
-    private static final String POSTROUTING = "POSTROUTING";
-	private static final String SNAT = "SNAT";
-	private static final String MASQUERADE = "MASQUERADE";
 
 	enum IpAddressState {
         HEADER, IP, MAC
@@ -70,12 +65,48 @@ public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPl
 
     static Object lock = new Object();
 
+    private Optional<RtNetlink> rtnetlink;
+    private Optional<LinkMonitor> linkMonitor;
+    private volatile Addresses addresses;
+    private Optional<IpBatch> ipBatch;
+    private IptablesNat iptablesNat;
+
+    private record Addresses(Snapshot snapshot, List<AbstractLinuxAddress> addresses) {
+    }
+
     public AbstractLinuxPlatformService(SystemContext context) {
         super(INTERFACE_PREFIX, context);
     }
 
 	@Override
     public final List<AbstractLinuxAddress> addresses() {
+        var mon = linkMonitor();
+        if(mon.isEmpty())
+            return ipAddresses();
+
+        /* Only rebuilt when the monitor has seen something change */
+        var snapshot = mon.get().snapshot();
+        var current = addresses;
+        if(current == null || current.snapshot() != snapshot) {
+            var l = new ArrayList<AbstractLinuxAddress>();
+            for(var link : snapshot.links()) {
+                var name = link.name();
+                var ip = createAddress(nativeNameToInterfaceName(name).orElse(name), name);
+                for(var addr : snapshot.addresses(link.index())) {
+                    if(addr.family() == Netlink.AF_INET) {
+                        /* As 'ip address' shows them, a point to point address has no prefix */
+                        ip.getAddresses().add(addr.peer().isPresent() ? Netlink.formatAddress(addr.local()) : addr.toString());
+                    }
+                }
+                l.add(ip);
+            }
+            current = new Addresses(snapshot, Collections.unmodifiableList(l));
+            addresses = current;
+        }
+        return current.addresses();
+    }
+
+    private List<AbstractLinuxAddress> ipAddresses() {
         List<AbstractLinuxAddress> l = new ArrayList<>();
         AbstractLinuxAddress lastLink = null;
         try {
@@ -141,126 +172,13 @@ public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPl
 		 * Note, kernels prior to 5.5.x don't. But all our VMs have this.
 		 * 
 		 * TODO this is all IPv4 only anyway! add IPv6 support
-		 * TODO maybe switch to nftables, or support both
 		 */
 		
 		var is = getNat(iface);
 		if(!Objects.equals(is.orElse(null), nat.orElse(null))) {
-
-			var priv = context.commands().privileged();
-			var ipTablesPath = Optional.ofNullable(OsUtil.getPathOfCommandInPath("iptables")).map(Path::toString).orElse("/usr/sbin/iptables");
-
-			LOG.info("Removing existing MASQUERADE/SNAT rules for {} using {}", iface, ipTablesPath);
-			
-			try {
-				var local = getBestLocalNic().orElseThrow(() -> new IOException("Local NIC could not be determined."));
-				if(is.isPresent()) {
-					var i = is.get();
-					if(i instanceof SNAT snat) {
-						
-						for(var to : snat.to()) {
-							for(var addr : NATMode.SNAT.toIpv4Addresses(to)) {
-								LOG.info("Removing SNAT rules for {} to {} using {}", iface, to.getName(), addr);
-								priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING_VPN,  
-										"-o", iface,
-										"-i", to.getName(),
-										"-j", SNAT, "--to-source", addr);
-							}
-						}
-
-						for(var addr : NATMode.SNAT.toIpv4Addresses(local)) {
-							LOG.info("Removing SNAT rules for {} to {} using {}", iface, local.getName(), addr);
-							priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING_VPN,  
-									"-i", iface,
-									"-j", SNAT, "--to-source", addr);
-						}
-						
-					}
-					else if(i instanceof MASQUERADE masq) {
-						if(masq.out().isEmpty()) {
-							LOG.info("Removing MASQ rules for {} to {}", iface, local.getName());
-							priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING_VPN, "-i", local.getName(), "-j", MASQUERADE, "-o", iface);
-							priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING_VPN, "-i", iface, "-j", MASQUERADE);
-						}
-						else {
-							for(var in : masq.out()) {
-								LOG.info("Removing MASQ rules for {} to {}", in.getName(), iface);
-								priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING_VPN, "-i", in.getName(), "-j", MASQUERADE, "-o", iface);
-							}
-							LOG.info("Removing MASQ rules for {}", iface);
-							priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING_VPN, "-i", iface, "-j", MASQUERADE, "*");
-						}
-					}
-					else
-						throw new UnsupportedOperationException(i.getClass().getName());
-				}
-				
-				if(nat.isEmpty()) {
-					LOG.info("Reverting to full routed mode.");
-				}
-				else {
-					var n = nat.get();
-					if(n instanceof SNAT snat) {
-						
-						for(var to : snat.to()) {
-							for(var addr : NATMode.SNAT.toIpv4Addresses(to)) {
-								LOG.info("Adding SNAT rules for {} to {} using {}", iface, to.getName(), addr);
-								priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING_VPN,  
-										"-o", iface,
-										"-i", to.getName(),
-										"-j", SNAT, "--to-source", addr);
-							}
-						}
-
-						for(var addr : NATMode.SNAT.toIpv4Addresses(local)) {
-							LOG.info("Adding SNAT rules for {} to {} using {}", iface, local.getName(), addr);
-							priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING_VPN,  
-									"-i", iface,
-									"-j", SNAT, "--to-source", addr);
-						}
-						
-					}
-					else if(n instanceof MASQUERADE masq) {
-						if(masq.out().isEmpty()) {
-							LOG.info("Adding MASQUERADE rules for {} to {}", iface, local.getName());
-							priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING_VPN, "-j", MASQUERADE, "-i", iface);
-							priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING_VPN, "-j", MASQUERADE, "-i", local.getName(), "-o", iface);
-						}
-						else {
-							for(var in : masq.out()) {
-								LOG.info("Adding MASQUERADE rules for {} to {}", in.getName(), iface);
-								priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING_VPN, "-i", in.getName(), "-j", MASQUERADE, "-o", iface);
-							}
-							LOG.info("Adding MASQUERADE rules for {}", iface);
-							priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING_VPN, "-i", iface, "-j", MASQUERADE);
-						}
-					}
-					else
-						throw new UnsupportedOperationException(n.getClass().getName());
-				}
-			}
-			finally {
-				var haveSpecialTable = false;
-				var needSpecialTable = false;
-				for (@SuppressWarnings("unused") var l : priv.output(ipTablesPath, "-t", "nat", "-L", POSTROUTING, "-v", "-n").stream().skip(2).toList()) {
-					haveSpecialTable = true;
-					break;
-				}
-				for (@SuppressWarnings("unused") var l : priv.output(ipTablesPath, "-t", "nat", "-L", POSTROUTING_VPN, "-v", "-n").stream().skip(2).toList()) {
-					needSpecialTable = true;
-					break;
-				}
-				if(haveSpecialTable != needSpecialTable) {
-					if(needSpecialTable) {
-						LOG.info("Adding POSTROUTING -> POSTROUTING_VPN rule");
-						priv.run(ipTablesPath, "-t", "nat", "-A", POSTROUTING,  "-j", POSTROUTING_VPN);
-					}
-					else {
-						LOG.info("Removing POSTROUTING -> POSTROUTING_VPN rule");
-						priv.run(ipTablesPath, "-t", "nat", "-D", POSTROUTING,  "-j", POSTROUTING_VPN);
-					}
-				}
-			}
+			LOG.info("Replacing MASQUERADE/SNAT rules for {} ({} -> {})", iface, is.map(Object::toString).orElse("routed"), nat.map(Object::toString).orElse("routed"));
+			var local = getBestLocalNic().orElseThrow(() -> new IOException("Local NIC could not be determined."));
+			iptablesNat().setNat(iface, nat, local);
 		}
 	}
 
@@ -276,53 +194,7 @@ public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPl
 
 	@Override
 	public Optional<NATMode> getNat(String ifaceName) throws IOException {
-		
-		
-		String foundMASQIface = null;
-		List<String> foundMASQOuts = new ArrayList<>();
-		String foundSNATIface = null;
-		List<String> foundSNATOuts = new ArrayList<>();
-		List<String> foundSNATTos = new ArrayList<>();
-		
-		for (var l : context.commands().privileged().output("iptables", "-t", "nat", "-L", POSTROUTING_VPN, "-v", "-n")) {
-			var els = l.trim().split("\\s+");
-			if(els.length > 6 && els[2].equals(MASQUERADE) && els[5].equals(ifaceName) && els[6].equals("*")) {
-				foundMASQIface = els[5];
-			}
-			else if(els.length > 6 && els[2].equals(MASQUERADE) && els[6].equals(ifaceName)) {
-				foundMASQOuts.add(els[5]);				
-			}
-			else if(els.length > 9 && els[2].equals(SNAT) && els[5].equals(ifaceName) && els[6].equals("*")) {
-				foundSNATIface = els[5];
-			}
-			else if(els.length > 9 && els[2].equals(SNAT) && els[6].equals(ifaceName)) {
-				foundSNATOuts.add(els[5]);
-				if(els[9].startsWith(els[9].substring(3))) {
-					foundSNATTos.add(els[5]);
-				}
-			}
-		}
-		
-		if(foundMASQIface != null) {
-			return Optional.of(new NATMode.MASQUERADE(foundMASQOuts.stream().map(out -> {
-				try {
-					return NetworkInterface.getByName(out);
-				} catch (SocketException e) {
-					throw new UncheckedIOException(e);
-				}
-			}).collect(Collectors.toSet())));
-		}
-		
-		if(foundSNATIface != null) {
-			return Optional.of(new NATMode.SNAT(foundMASQOuts.stream().map(out -> {
-				try {
-					return NetworkInterface.getByName(out);
-				} catch (SocketException e) {
-					throw new UncheckedIOException(e);
-				}
-			}).collect(Collectors.toSet())));
-		}
-		return Optional.empty();
+		return iptablesNat().getNat(ifaceName);
 	}
 
 	@Override
@@ -351,6 +223,78 @@ public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPl
 
 	protected abstract AbstractLinuxAddress createAddress(String name, String nativeName);
 
+    /**
+     * Get the in-process rtnetlink client, unless disabled with the
+     * <code>nodal.disableNetlink</code> system property, or a netlink socket
+     * could not be opened. If empty, the <code>ip</code> tool will be used
+     * instead.
+     *
+     * @return rtnetlink client
+     */
+    protected final synchronized Optional<RtNetlink> rtnetlink() {
+        if(rtnetlink == null) {
+            if(Boolean.getBoolean("nodal.disableNetlink")) {
+                rtnetlink = Optional.empty();
+            }
+            else {
+                try {
+                    new NetlinkSocket(Netlink.NETLINK_ROUTE, 0).close();
+                    rtnetlink = Optional.of(new RtNetlink(context.commands()));
+                }
+                catch(Exception | LinkageError e) {
+                    if(LOG.isDebugEnabled())
+                        LOG.warn("Netlink for routing not available, falling back to ip tool.", e);
+                    else
+                        LOG.warn("Netlink for routing not available, falling back to ip tool. {}", e.getMessage());
+                    rtnetlink = Optional.empty();
+                }
+            }
+        }
+        return rtnetlink;
+    }
+
+    /**
+     * Get the link monitor that backs {@link #addresses()}. This is only
+     * available if {@link #rtnetlink()} is.
+     *
+     * @return link monitor
+     */
+    protected final synchronized Optional<LinkMonitor> linkMonitor() {
+        if(linkMonitor == null) {
+            if(rtnetlink().isEmpty()) {
+                linkMonitor = Optional.empty();
+            }
+            else {
+                try {
+                    linkMonitor = Optional.of(new LinkMonitor());
+                }
+                catch(Exception | LinkageError e) {
+                    if(LOG.isDebugEnabled())
+                        LOG.warn("Netlink link monitor not available, falling back to ip tool.", e);
+                    else
+                        LOG.warn("Netlink link monitor not available, falling back to ip tool. {}", e.getMessage());
+                    linkMonitor = Optional.empty();
+                }
+            }
+        }
+        return linkMonitor;
+    }
+
+    /**
+     * Called after this service has itself created or deleted a link, so that
+     * {@link #addresses()} reflects it straight away instead of when the
+     * notification arrives.
+     */
+    protected final void linksChanged() {
+        linkMonitor().ifPresent(mon -> {
+            try {
+                mon.sync();
+            } catch (IOException e) {
+                LOG.warn("Failed to refresh links. {}", e.getMessage());
+            }
+        });
+    }
+
     @Override
     protected final AbstractLinuxAddress createVirtualInetAddress(NetworkInterface nif) throws IOException {
         var ip = createAddress(nativeNameToInterfaceName(nif.getName()).orElse(nif.getName()), nif.getName());
@@ -378,18 +322,122 @@ public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPl
         return Optional.empty();
     }
 
+    @Override
+    protected void onSetDefaultGateway(Gateway gateway) {
+        LOG.info("Routing traffic all through {} on {}", gateway.address(), gateway.nativeIface());
+        try {
+            ipOrFail("route", "add", "default", "via", gateway.address(), "dev", gateway.nativeIface());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void onResetDefaultGateway(Gateway gateway) {
+        LOG.info("Stopping routing traffic all through {} on {}", gateway.address(), gateway.nativeIface());
+        try {
+            ipOrFail("route", "del", "default", "via", gateway.address(), "dev", gateway.nativeIface());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    final synchronized IptablesNat iptablesNat() {
+        if(iptablesNat == null) {
+            iptablesNat = new IptablesNat(context.commands());
+        }
+        return iptablesNat;
+    }
+
+    /**
+     * Get the <code>ip -batch</code> co-process client. This is only used when
+     * {@link #rtnetlink()} is not available, and may also be disabled with the
+     * <code>nodal.disableIpBatch</code> system property. If empty, a new
+     * <code>ip</code> process is started for every command.
+     *
+     * @return ip batch
+     */
+    protected final synchronized Optional<IpBatch> ipBatch() {
+        if(ipBatch == null) {
+            ipBatch = Boolean.getBoolean("nodal.disableIpBatch") || rtnetlink().isPresent() ? Optional.empty() : Optional.of(new IpBatch(context.commands()));
+        }
+        return ipBatch;
+    }
+
+    /**
+     * Run a privileged <code>ip</code> command, using the co-process if
+     * available.
+     *
+     * @param args arguments, without <code>ip</code> itself
+     * @return exit code, zero for success
+     * @throws IOException on error
+     */
+    final int ip(String... args) throws IOException {
+        var batch = ipBatch();
+        if(batch.isPresent()) {
+            return batch.get().run(args).succeeded() ? 0 : 1;
+        }
+        else {
+            return context.commands().privileged().logged().result(ipArgs(args));
+        }
+    }
+
+    /**
+     * Run many privileged <code>ip</code> commands, in a single round trip if
+     * the co-process is available. A failed command does not stop the rest.
+     *
+     * @param lines lines of arguments, without <code>ip</code> itself
+     * @throws IOException on error
+     */
+    final void ip(List<String[]> lines) throws IOException {
+        var batch = ipBatch();
+        if(batch.isPresent()) {
+            batch.get().execute(lines);
+        }
+        else {
+            for(var args : lines) {
+                context.commands().privileged().logged().result(ipArgs(args));
+            }
+        }
+    }
+
+    /**
+     * Run a privileged <code>ip</code> command, using the co-process if
+     * available, failing if the command fails.
+     *
+     * @param args arguments, without <code>ip</code> itself
+     * @throws IOException on error or if the command fails
+     */
+    final void ipOrFail(String... args) throws IOException {
+        var batch = ipBatch();
+        if(batch.isPresent()) {
+            var res = batch.get().run(args);
+            if(!res.succeeded())
+                throw new IOException(res.error());
+        }
+        else {
+            context.commands().privileged().logged().run(ipArgs(args));
+        }
+    }
+
+    private static String[] ipArgs(String... args) {
+        var l = new String[args.length + 1];
+        l[0] = "ip";
+        System.arraycopy(args, 0, l, 1, args.length);
+        return l;
+    }
+
     @Override
     protected final void onStart(StartRequest startRequest, VpnAdapter session) throws IOException {
 
-    	LOG.info("Creating new table for VPN NAT rules");
     	try {
-    		context.commands().privileged().run("iptables", "-t", "nat", "-N", POSTROUTING_VPN);
+    		iptablesNat().createChain();
     	}
     	catch(Exception e) {
     		if(LOG.isDebugEnabled())
-        		LOG.info("Didn't create create new {} table for VPN NAT rules, probably already exists.", POSTROUTING_VPN, e);
+        		LOG.info("Didn't create create new {} table for VPN NAT rules.", IptablesNat.POSTROUTING_VPN, e);
     		else
-    			LOG.info("Didn't create create new {} table for VPN NAT rules, probably already exists. {}", POSTROUTING_VPN, e.getMessage());
+    			LOG.info("Didn't create create new {} table for VPN NAT rules. {}", IptablesNat.POSTROUTING_VPN, e.getMessage());
     	}
 		
 		var configuration  = startRequest.configuration();
@@ -399,27 +447,10 @@ public abstract class AbstractLinuxPlatformService extends AbstractUnixDesktopPl
         if (configuration.addresses().size() > 0)
             ip.setAddresses(configuration.addresses().get(0));
 
-        Path tempFile = Files.createTempFile("wg", ".cfg");
-        try {
-            try (Writer writer = Files.newBufferedWriter(tempFile)) {
-                transform(configuration).write(writer);
-            }
-            
-            // TEMP
-            try(BufferedReader reader =  Files.newBufferedReader(tempFile)) {
-            	String line;
-            	while( ( line = reader.readLine()) != null) {
-            		LOG.info("{}", line);
-            	}
-            }
-            
-            LOG.info("Activating Wireguard configuration for {} (in {})", ip.shortName(), tempFile);
-            context().commands().privileged().logged().result(context().nativeComponents().tool(Tool.WG), "setconf", ip.name(),
-                    tempFile.toString());
-            LOG.info("Activated Wireguard configuration for {}", ip.shortName());
-        } finally {
-            Files.delete(tempFile);
-        }
+        LOG.info("Activating Wireguard configuration for {}", ip.shortName());
+        context().commands().privileged().logged().pipeTo(transform(configuration).write(),
+                context().nativeComponents().tool(Tool.WG), "setconf", ip.name(), "/dev/stdin");
+        LOG.info("Activated Wireguard configuration for {}", ip.shortName());
 
         /*
          * About to start connection. The "last handshake" should be this value or later
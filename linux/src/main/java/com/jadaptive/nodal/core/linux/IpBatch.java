@@ -0,0 +1,318 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sshtools.liftlib.ElevatedClosure;
+import com.sshtools.liftlib.commands.SystemCommands;
+
+import uk.co.bithatch.nativeimage.annotations.Serialization;
+
+/**
+ * Runs <code>ip</code> commands through a single long-lived
+ * <code>ip -force -batch -</code> process instead of starting a new process for
+ * each one. The co-process lives wherever privileged tasks are executed, and is
+ * restarted if it exits (e.g. on a command it cannot parse).
+ * <p>
+ * Failures are detected from the <code>Command failed -:N</code> lines that
+ * <code>ip</code> writes to standard error. Each command is followed by a
+ * sentinel command that is known to fail, so its failure marks the command as
+ * complete. This also tells exactly which command caused <code>ip</code> to
+ * exit, if it does.
+ * <p>
+ * In batch mode the first word of a line must be the object, so commands that
+ * start with a family option (<code>-4</code> or <code>-6</code>) are instead
+ * sent to a co-process started with that option.
+ */
+public final class IpBatch {
+
+	private final static Logger LOG = LoggerFactory.getLogger(IpBatch.class);
+
+	/**
+	 * The outcome of a single command line.
+	 */
+	@SuppressWarnings("serial")
+	@Serialization
+	public final static class Result implements Serializable {
+		private final String line;
+		private final String error;
+
+		Result(String line, String error) {
+			this.line = line;
+			this.error = error;
+		}
+
+		public String line() {
+			return line;
+		}
+
+		public boolean succeeded() {
+			return error == null;
+		}
+
+		/**
+		 * Error output of a failed command.
+		 *
+		 * @return error or <code>null</code> if succeeded
+		 */
+		public String error() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return line + (error == null ? "" : " (" + error + ")");
+		}
+	}
+
+	private final SystemCommands commands;
+
+	public IpBatch(SystemCommands commands) {
+		this.commands = commands;
+	}
+
+	/**
+	 * Run a single command, e.g. <code>"route", "add", "10.0.0.0/24", "dev", "wg0"</code>.
+	 *
+	 * @param args arguments (without the <code>ip</code> command itself)
+	 * @return result
+	 * @throws IOException if the co-process could not be used at all
+	 */
+	public Result run(String... args) throws IOException {
+		return execute(List.<String[]>of(args)).get(0);
+	}
+
+	/**
+	 * Run many commands with a single privileged round trip, one result per
+	 * command in the same order. A failed command does not stop the others.
+	 *
+	 * @param lines command arguments
+	 * @return results
+	 * @throws IOException if the co-process could not be used at all
+	 */
+	public List<Result> execute(List<String[]> lines) throws IOException {
+		if (lines.isEmpty())
+			return List.of();
+		var families = new ArrayList<String>(lines.size());
+		var cmds = new ArrayList<String>(lines.size());
+		for (var args : lines) {
+			var family = family(args);
+			families.add(family);
+			cmds.add(line(family.isEmpty() ? args : Arrays.copyOfRange(args, 1, args.length)));
+		}
+		if (LOG.isDebugEnabled())
+			LOG.debug("ip batch: {}", String.join("; ", cmds));
+		try {
+			List<Result> results = commands.privileged().task(new Execute(families, cmds));
+			for (var result : results) {
+				if (!result.succeeded())
+					LOG.warn("ip {} failed. {}", result.line(), result.error());
+			}
+			return results;
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to run ip batch.", e);
+		}
+	}
+
+	static String family(String... args) {
+		return args.length > 0 && (args[0].equals("-4") || args[0].equals("-6")) ? args[0] : "";
+	}
+
+	static String line(String... args) {
+		return Arrays.stream(args).map(a -> a.isEmpty() || a.matches(".*[\\s\"#].*") ? '"' + a.replace("\"", "\\\"") + '"' : a)
+				.collect(Collectors.joining(" "));
+	}
+
+	@SuppressWarnings("serial")
+	@Serialization
+	public final static class Execute implements ElevatedClosure<ArrayList<Result>, Serializable> {
+
+		private ArrayList<String> families;
+		private ArrayList<String> lines;
+
+		public Execute() {
+		}
+
+		Execute(ArrayList<String> families, ArrayList<String> lines) {
+			this.families = families;
+			this.lines = lines;
+		}
+
+		@Override
+		public ArrayList<Result> call(ElevatedClosure<ArrayList<Result>, Serializable> proxy) throws Exception {
+			var results = new ArrayList<Result>(lines.size());
+			var start = 0;
+			while (start < lines.size()) {
+				/* Each run of lines for the same family goes to that family's co-process, keeping the order */
+				var family = families.get(start);
+				var end = start + 1;
+				while (end < lines.size() && families.get(end).equals(family))
+					end++;
+				var run = lines.subList(start, end);
+				var errors = Coprocess.get(family).execute(run);
+				for (var i = 0; i < run.size(); i++)
+					results.add(new Result((family.isEmpty() ? "" : family + " ") + run.get(i), errors[i]));
+				start = end;
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * The <code>ip</code> process itself. Only ever used in the process that
+	 * executes privileged tasks.
+	 */
+	final static class Coprocess {
+
+		/** Never exists, and is short enough to not be rejected as an argument */
+		private final static String SENTINEL = "link show dev nodal-sentinel";
+		/** Commands written at once, keeps error output well within the pipe buffer */
+		private final static int CHUNK = 256;
+		private final static Pattern FAILED = Pattern.compile("Command failed -:(\\d+)");
+
+		private final static Map<String, Coprocess> instances = new HashMap<>();
+
+		private final String family;
+
+		private Process process;
+		private BufferedWriter in;
+		private BufferedReader err;
+		private int lineNo;
+
+		private Coprocess(String family) {
+			this.family = family;
+		}
+
+		/**
+		 * Get the co-process for an address family.
+		 *
+		 * @param family <code>-4</code>, <code>-6</code> or an empty string for any
+		 */
+		static synchronized Coprocess get(String family) {
+			return instances.computeIfAbsent(family, Coprocess::new);
+		}
+
+		/**
+		 * Execute lines, returning the error for each (<code>null</code> if
+		 * succeeded).
+		 */
+		synchronized String[] execute(List<String> lines) throws IOException {
+			var errors = new String[lines.size()];
+			var idx = 0;
+			while (idx < lines.size()) {
+				var end = Math.min(lines.size(), idx + CHUNK);
+				idx = chunk(lines, idx, end, errors);
+			}
+			return errors;
+		}
+
+		/* Returns the index of the next line to execute */
+		private int chunk(List<String> lines, int start, int end, String[] errors) throws IOException {
+			if (process == null || !process.isAlive())
+				start();
+			var firstLine = lineNo + 1;
+			try {
+				for (var i = start; i < end; i++) {
+					in.write(lines.get(i));
+					in.newLine();
+					in.write(SENTINEL);
+					in.newLine();
+				}
+				in.flush();
+			} catch (IOException ioe) {
+				/* Died part way through writing, the sentinels will tell us how far it got */
+			}
+			lineNo += (end - start) * 2;
+
+			var msg = new StringBuilder();
+			var next = start;
+			String line;
+			while ((line = err.readLine()) != null) {
+				var m = FAILED.matcher(line);
+				if (m.find()) {
+					var offset = Integer.parseInt(m.group(1)) - firstLine;
+					var idx = start + offset / 2;
+					if (offset >= 0 && idx < end) {
+						if (offset % 2 == 1) {
+							next = idx + 1;
+							if (next == end)
+								return end;
+						} else {
+							errors[idx] = msg.length() == 0 ? "Failed." : msg.toString().trim();
+						}
+					}
+					msg.setLength(0);
+				} else {
+					msg.append(line).append('\n');
+				}
+			}
+
+			/* ip exited, which it does on some fatal errors. The command that did so is the one without a sentinel */
+			LOG.warn("ip co-process exited, restarting.");
+			stop();
+			if (next < end)
+				errors[next] = msg.length() == 0 ? "ip exited." : msg.toString().trim();
+			return next < end ? next + 1 : end;
+		}
+
+		private void start() throws IOException {
+			stop();
+			var args = new ArrayList<String>();
+			args.add("ip");
+			if (!family.isEmpty())
+				args.add(family);
+			args.addAll(List.of("-force", "-batch", "-"));
+			var pb = new ProcessBuilder(args);
+			pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			process = pb.start();
+			in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+			err = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8));
+			lineNo = 0;
+		}
+
+		private void stop() {
+			if (process != null) {
+				process.destroy();
+				process = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux;
+
+import java.io.IOException;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jadaptive.nodal.core.lib.NATMode;
+import com.jadaptive.nodal.core.lib.NetworkInterfaceInfo;
+import com.sshtools.liftlib.commands.SystemCommands;
+
+/**
+ * NAT rules for VPN interfaces, kept in their own <code>POSTROUTING_VPN</code>
+ * chain of the <code>nat</code> table. The current rules are read with a single
+ * <code>iptables-save -t nat</code>, which is cached until this class changes
+ * them, and all changes for an interface are applied as one
+ * <code>iptables-restore --noflush</code> transaction, so either all of them
+ * take effect or none do.
+ */
+final class IptablesNat {
+
+    static final String POSTROUTING_VPN = "POSTROUTING_VPN";
+    static final String POSTROUTING = "POSTROUTING";
+    static final String SNAT = "SNAT";
+    static final String MASQUERADE = "MASQUERADE";
+
+    private final static Logger LOG = LoggerFactory.getLogger(IptablesNat.class);
+
+    /**
+     * The parsed output of <code>iptables-save -t nat</code>, just the parts
+     * that concern Nodal.
+     */
+    final static class State {
+        private final boolean chainExists;
+        private final boolean jumpExists;
+        private final List<List<String>> rules;
+
+        State(boolean chainExists, boolean jumpExists, List<List<String>> rules) {
+            this.chainExists = chainExists;
+            this.jumpExists = jumpExists;
+            this.rules = rules;
+        }
+
+        static State parse(Collection<String> lines) {
+            var chainExists = false;
+            var jumpExists = false;
+            var rules = new ArrayList<List<String>>();
+            for(var line : lines) {
+                line = line.trim();
+                if(line.startsWith(":" + POSTROUTING_VPN + " ")) {
+                    chainExists = true;
+                }
+                else if(line.equals("-A " + POSTROUTING + " -j " + POSTROUTING_VPN)) {
+                    jumpExists = true;
+                }
+                else if(line.startsWith("-A " + POSTROUTING_VPN + " ")) {
+                    var tokens = Arrays.asList(line.split("\\s+"));
+                    rules.add(tokens.subList(2, tokens.size()));
+                }
+            }
+            return new State(chainExists, jumpExists, rules);
+        }
+
+        boolean chainExists() {
+            return chainExists;
+        }
+
+        boolean jumpExists() {
+            return jumpExists;
+        }
+
+        /**
+         * Rule specifications in the chain, without the leading
+         * <code>-A POSTROUTING_VPN</code>.
+         *
+         * @return rules
+         */
+        List<List<String>> rules() {
+            return rules;
+        }
+    }
+
+    private final SystemCommands commands;
+    private State state;
+
+    IptablesNat(SystemCommands commands) {
+        this.commands = commands;
+    }
+
+    synchronized State state() throws IOException {
+        if(state == null) {
+            state = State.parse(commands.privileged().output("iptables-save", "-t", "nat"));
+        }
+        return state;
+    }
+
+    synchronized void invalidate() {
+        state = null;
+    }
+
+    Optional<NATMode> getNat(String iface) throws IOException {
+        var masqIface = false;
+        var masqOuts = new LinkedHashSet<String>();
+        var snatIface = false;
+        var snatOuts = new LinkedHashSet<String>();
+        for(var rule : state().rules()) {
+            var in = option(rule, "-i");
+            var out = option(rule, "-o");
+            var target = option(rule, "-j");
+            if(MASQUERADE.equals(target)) {
+                if(iface.equals(in) && out == null)
+                    masqIface = true;
+                else if(iface.equals(out) && in != null)
+                    masqOuts.add(in);
+            }
+            else if(SNAT.equals(target)) {
+                if(iface.equals(in) && out == null)
+                    snatIface = true;
+                else if(iface.equals(out) && in != null)
+                    snatOuts.add(in);
+            }
+        }
+        if(masqIface)
+            return Optional.of(NATMode.MASQUERADE.forNames(masqOuts));
+        if(snatIface)
+            return Optional.of(NATMode.SNAT.forNames(snatOuts));
+        return Optional.empty();
+    }
+
+    /**
+     * Replace all rules concerning an interface with those required for the
+     * given mode in a single transaction.
+     *
+     * @param iface interface
+     * @param nat   mode, or empty to remove all NAT for the interface
+     * @param local local network interface
+     * @throws IOException on error
+     */
+    synchronized void setNat(String iface, Optional<NATMode> nat, NetworkInterfaceInfo<?> local) throws IOException {
+        var script = restore(state(), iface, rules(iface, nat, local));
+        if(script.isEmpty())
+            return;
+        LOG.info("Updating NAT (IpTables): {}", script);
+        try {
+            commands.privileged().logged().pipeTo(script, "iptables-restore", "--noflush");
+        }
+        finally {
+            invalidate();
+        }
+    }
+
+    /**
+     * Create the chain if it does not already exist.
+     *
+     * @throws IOException on error
+     */
+    synchronized void createChain() throws IOException {
+        if(!state().chainExists()) {
+            LOG.info("Creating new {} chain for VPN NAT rules", POSTROUTING_VPN);
+            try {
+                commands.privileged().run("iptables", "-t", "nat", "-N", POSTROUTING_VPN);
+            }
+            finally {
+                invalidate();
+            }
+        }
+    }
+
+    static List<List<String>> rules(String iface, Optional<NATMode> nat, NetworkInterfaceInfo<?> local) throws IOException {
+        var rules = new ArrayList<List<String>>();
+        if(nat.isPresent()) {
+            var n = nat.get();
+            if(n instanceof NATMode.SNAT snat) {
+                for(var to : snat.names()) {
+                    var nif = NetworkInterface.getByName(to);
+                    if(nif == null)
+                        throw new IOException("No such network interface " + to);
+                    for(var addr : NATMode.SNAT.toIpv4Addresses(nif)) {
+                        rules.add(List.of("-i", to, "-o", iface, "-j", SNAT, "--to-source", addr));
+                    }
+                }
+                for(var addr : NATMode.SNAT.toIpv4Addresses(local)) {
+                    rules.add(List.of("-i", iface, "-j", SNAT, "--to-source", addr));
+                }
+            }
+            else if(n instanceof NATMode.MASQUERADE masq) {
+                if(masq.names().isEmpty()) {
+                    rules.add(List.of("-i", iface, "-j", MASQUERADE));
+                    rules.add(List.of("-i", local.getName(), "-o", iface, "-j", MASQUERADE));
+                }
+                else {
+                    for(var in : masq.names()) {
+                        rules.add(List.of("-i", in, "-o", iface, "-j", MASQUERADE));
+                    }
+                    rules.add(List.of("-i", iface, "-j", MASQUERADE));
+                }
+            }
+            else
+                throw new UnsupportedOperationException(n.getClass().getName());
+        }
+        return rules;
+    }
+
+    /**
+     * Build the <code>iptables-restore</code> input that removes every existing
+     * rule the interface owns, adds the wanted ones, and adds or removes the jump
+     * from <code>POSTROUTING</code> depending on whether the chain will have any
+     * rules left.
+     *
+     * @param state  current state
+     * @param iface  interface
+     * @param wanted wanted rules
+     * @return script, or an empty string if there is nothing to do
+     */
+    static String restore(State state, String iface, List<List<String>> wanted) {
+        var remove = state.rules().stream().
+                filter(r -> owns(iface, r)).
+                toList();
+        if(remove.isEmpty() && wanted.isEmpty())
+            return "";
+
+        var remaining = state.rules().size() - remove.size() + wanted.size();
+        var script = new StringBuilder("*nat\n");
+        if(!state.chainExists()) {
+            /* With --noflush, declaring an existing chain would flush it, so only do so if it is new */
+            script.append(":").append(POSTROUTING_VPN).append(" - [0:0]\n");
+        }
+        for(var rule : remove) {
+            script.append("-D ").append(POSTROUTING_VPN).append(' ').append(String.join(" ", rule)).append('\n');
+        }
+        for(var rule : wanted) {
+            script.append("-A ").append(POSTROUTING_VPN).append(' ').append(String.join(" ", rule)).append('\n');
+        }
+        if(remaining > 0 && !state.jumpExists()) {
+            script.append("-A ").append(POSTROUTING).append(" -j ").append(POSTROUTING_VPN).append('\n');
+        }
+        else if(remaining == 0 && state.jumpExists()) {
+            script.append("-D ").append(POSTROUTING).append(" -j ").append(POSTROUTING_VPN).append('\n');
+        }
+        script.append("COMMIT\n");
+        return script.toString();
+    }
+
+    /* The same test as getNat(), e.g. "-i wg0 -o wg1" belongs to wg1 */
+    private static boolean owns(String iface, List<String> rule) {
+        var out = option(rule, "-o");
+        return iface.equals(out) || (iface.equals(option(rule, "-i")) && out == null);
+    }
+
+    private static String option(List<String> rule, String name) {
+        var idx = rule.indexOf(name);
+        return idx == -1 || idx + 1 >= rule.size() ? null : rule.get(idx + 1);
+    }
+}
@@ -31,7 +31,12 @@ public class KernelLinuxAddress extends AbstractLinuxAddress {
 
     @Override
     protected void onDelete() throws IOException {
-        commands.privileged().logged().result("ip", "link", "del", "dev", nativeName());
+        var rt = platform.rtnetlink();
+        if (rt.isPresent()) {
+            rt.get().deleteLink(nativeName());
+            platform.linksChanged();
+        } else
+            platform.ip("link", "del", "dev", nativeName());
     } 
     
     @Override
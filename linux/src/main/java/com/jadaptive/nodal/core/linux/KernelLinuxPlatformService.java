@@ -22,11 +22,29 @@
 package com.jadaptive.nodal.core.linux;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jadaptive.nodal.core.lib.ConfigurationDiff;
 import com.jadaptive.nodal.core.lib.SystemContext;
+import com.jadaptive.nodal.core.lib.VpnAdapter;
+import com.jadaptive.nodal.core.lib.VpnAdapterConfiguration;
+import com.jadaptive.nodal.core.lib.VpnAddress;
+import com.jadaptive.nodal.core.lib.VpnInterfaceInformation;
+import com.jadaptive.nodal.core.linux.netlink.WireGuardDevice;
+import com.jadaptive.nodal.core.linux.netlink.WireGuardNetlink;
+import com.jadaptive.nodal.core.linux.netlink.WireGuardUpdate;
 
 public class KernelLinuxPlatformService extends AbstractLinuxPlatformService {
+    private final static Logger LOG = LoggerFactory.getLogger(KernelLinuxPlatformService.class);
+
+    private Optional<WireGuardNetlink> netlink;
 
     public KernelLinuxPlatformService(SystemContext context) {
         super(context);
@@ -34,7 +52,14 @@ public class KernelLinuxPlatformService extends AbstractLinuxPlatformService {
 
     @Override
     protected AbstractLinuxAddress add(String name, String nativeName, String type) throws IOException {
-        context().commands().privileged().logged().result("ip", "link", "add", "dev", nativeName, "type", type);
+        var rt = rtnetlink();
+        if(rt.isPresent()) {
+            /* The kernel has acknowledged the new link, it is brand new so there is nothing to scan for */
+            rt.get().createLink(nativeName, type);
+            linksChanged();
+            return createAddress(nativeNameToInterfaceName(nativeName).orElse(nativeName), nativeName);
+        }
+        ip("link", "add", "dev", nativeName, "type", type);
         return find(nativeName, addresses()).orElseThrow(() -> new IOException(MessageFormat.format("Could not find new network interface {0}", nativeName)));
     }
 
@@ -42,4 +67,155 @@ public class KernelLinuxPlatformService extends AbstractLinuxPlatformService {
     protected AbstractLinuxAddress createAddress(String name, String nativeName) {
         return new KernelLinuxAddress(name, nativeName, this);
     }
+
+    @Override
+    public VpnInterfaceInformation information(VpnAdapter adapter) {
+        var nl = netlink();
+        if(nl.isEmpty())
+            return super.information(adapter);
+        try {
+            return device(nl.get(), adapter.address().nativeName());
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public VpnAdapterConfiguration configuration(VpnAdapter adapter) {
+        var nl = netlink();
+        if(nl.isEmpty())
+            return super.configuration(adapter);
+        try {
+            return device(nl.get(), adapter.address().nativeName()).toConfiguration();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public void reconfigure(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty()) {
+            super.reconfigure(adapter, configuration);
+        }
+        else {
+            applyDiff(nl.get(), adapter, configuration);
+            addRoutes(adapter);
+        }
+    }
+
+    @Override
+    public void sync(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty()) {
+            super.sync(adapter, configuration);
+        }
+        else {
+            applyDiff(nl.get(), adapter, configuration);
+            addRoutes(adapter);
+        }
+    }
+
+    @Override
+    public void append(VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty()) {
+            super.append(adapter, configuration);
+        }
+        else {
+            nl.get().update(adapter.address().nativeName(), new WireGuardUpdate.Builder().
+                    fromConfiguration(configuration, false).
+                    build());
+            addRoutes(adapter);
+        }
+    }
+
+    @Override
+    public void remove(VpnAdapter adapter, String publicKey) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty()) {
+            super.remove(adapter, publicKey);
+        }
+        else {
+            nl.get().update(adapter.address().nativeName(), new WireGuardUpdate.Builder().
+                    removePeers(publicKey).
+                    build());
+        }
+    }
+
+    @Override
+    public Instant getLatestHandshake(VpnAddress iface, String publicKey) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty())
+            return super.getLatestHandshake(iface, publicKey);
+        return device(nl.get(), iface.nativeName()).devicePeers().stream().
+                filter(p -> p.publicKey().equals(publicKey)).
+                findFirst().
+                map(WireGuardDevice.Peer::lastHandshake).
+                orElse(Instant.ofEpochSecond(0));
+    }
+
+    @Override
+    protected Optional<String> getPublicKey(String interfaceName) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty())
+            return super.getPublicKey(interfaceName);
+        return nl.get().device(interfaceName).map(WireGuardDevice::publicKey).filter(k -> !k.equals(""));
+    }
+
+    @Override
+    protected List<String> allowedIps(VpnAdapter session) throws IOException {
+        var nl = netlink();
+        if(nl.isEmpty())
+            return super.allowedIps(session);
+        return device(nl.get(), session.address().nativeName()).devicePeers().stream().
+                flatMap(p -> p.allowedIps().stream()).
+                toList();
+    }
+
+    private void applyDiff(WireGuardNetlink nl, VpnAdapter adapter, VpnAdapterConfiguration configuration) throws IOException {
+        /* Only touch what changed, so sessions of every other peer carry on */
+        var nativeName = adapter.address().nativeName();
+        var diff = ConfigurationDiff.between(device(nl, nativeName).toConfiguration(), configuration);
+        LOG.debug("Applying {} to {}", diff, nativeName);
+        if(!diff.isEmpty()) {
+            nl.update(nativeName, new WireGuardUpdate.Builder().
+                    fromDiff(diff).
+                    build());
+        }
+    }
+
+    private WireGuardDevice device(WireGuardNetlink nl, String nativeName) throws IOException {
+        return nl.device(nativeName).orElseThrow(() -> new IOException(MessageFormat.format("No such WireGuard device {0}", nativeName)));
+    }
+
+    /**
+     * Get the in-process WireGuard netlink client, unless disabled with the
+     * <code>nodal.disableNetlink</code> system property, or it could not be
+     * initialised. If empty, the <code>wg</code> tool will be used instead.
+     *
+     * @return netlink client
+     */
+    protected final synchronized Optional<WireGuardNetlink> netlink() {
+        if(netlink == null) {
+            if(Boolean.getBoolean("nodal.disableNetlink")) {
+                netlink = Optional.empty();
+            }
+            else {
+                try {
+                    var nl = new WireGuardNetlink(context().commands());
+                    LOG.info("Using netlink for WireGuard (family {})", nl.family());
+                    netlink = Optional.of(nl);
+                }
+                catch(Exception | LinkageError e) {
+                    if(LOG.isDebugEnabled())
+                        LOG.warn("Netlink for WireGuard not available, falling back to wg tool.", e);
+                    else
+                        LOG.warn("Netlink for WireGuard not available, falling back to wg tool. {}", e.getMessage());
+                    netlink = Optional.empty();
+                }
+            }
+        }
+        return netlink;
+    }
 }
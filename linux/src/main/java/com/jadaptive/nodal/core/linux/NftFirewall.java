@@ -0,0 +1,158 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sshtools.liftlib.commands.SystemCommands;
+
+/**
+ * Maintains the firewall rules for WireGuard default routes in a single
+ * <code>inet</code> nftables table shared by all interfaces. Each interface
+ * gets its own chains and address sets inside that table, so it can be added,
+ * updated or removed by name in one atomic <code>nft -f -</code> batch without
+ * listing the ruleset first.
+ */
+final class NftFirewall {
+
+    static final String TABLE = "nodal";
+
+    private final static Logger LOG = LoggerFactory.getLogger(NftFirewall.class);
+
+    /* Tables used before all interfaces shared one */
+    private static final String LEGACY_TABLE_PREFIX = "nodal-";
+
+    private final SystemCommands commands;
+    private final String nativeName;
+    private final String id;
+
+    NftFirewall(SystemCommands commands, String nativeName) {
+        this.commands = commands;
+        this.nativeName = nativeName;
+        this.id = nativeName.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    /**
+     * Get if rules for this interface exist, either in the Nodal table or in
+     * the per-family tables of earlier versions. Only these tables are listed,
+     * not the whole ruleset.
+     *
+     * @return rules exist
+     * @throws IOException on error
+     */
+    boolean isSet() throws IOException {
+        var chain = "chain preraw_" + id + " {";
+        for(var line : commands.privileged().silentOutput("nft", "list", "table", "inet", TABLE)) {
+            if(line.trim().equals(chain))
+                return true;
+        }
+        for(var pf : new String[] { "ip", "ip6" }) {
+            if(!commands.privileged().silentOutput("nft", "list", "table", pf, LEGACY_TABLE_PREFIX + nativeName).isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create or replace the rules for this interface.
+     *
+     * @param fwmark    firewall mark (and table) of the interface
+     * @param addresses addresses of the interface (without prefix)
+     * @throws IOException on error
+     */
+    void set(int fwmark, Collection<String> addresses) throws IOException {
+        var batch = setBatch(fwmark, addresses);
+        LOG.info("Updating firewall (NFT): {}", batch);
+        commands.privileged().logged().pipeTo(batch, "nft", "-f", "-");
+    }
+
+    void remove() throws IOException {
+        var batch = removeBatch();
+        LOG.info("Removing firewall (NFT): {}", batch);
+        commands.privileged().logged().pipeTo(batch, "nft", "-f", "-");
+    }
+
+    String setBatch(int fwmark, Collection<String> addresses) {
+        var v4 = addresses.stream().filter(a -> !a.contains(":")).collect(Collectors.joining(", "));
+        var v6 = addresses.stream().filter(a -> a.contains(":")).collect(Collectors.joining(", "));
+        var tbl = "inet " + TABLE;
+
+        var nft = new StringBuilder();
+        nft.append(String.format("add table %s\n", tbl));
+
+        nft.append(String.format("add set %s addrs4_%s { type ipv4_addr; }\n", tbl, id));
+        nft.append(String.format("flush set %s addrs4_%s\n", tbl, id));
+        if(!v4.isEmpty())
+            nft.append(String.format("add element %s addrs4_%s { %s }\n", tbl, id, v4));
+        nft.append(String.format("add set %s addrs6_%s { type ipv6_addr; }\n", tbl, id));
+        nft.append(String.format("flush set %s addrs6_%s\n", tbl, id));
+        if(!v6.isEmpty())
+            nft.append(String.format("add element %s addrs6_%s { %s }\n", tbl, id, v6));
+
+        nft.append(String.format("add chain %s preraw_%s { type filter hook prerouting priority -300; }\n", tbl, id));
+        nft.append(String.format("flush chain %s preraw_%s\n", tbl, id));
+        nft.append(String.format("add rule %s preraw_%s iifname != \"%s\" ip daddr @addrs4_%s fib saddr type != local drop\n",
+                tbl, id, nativeName, id));
+        nft.append(String.format("add rule %s preraw_%s iifname != \"%s\" ip6 daddr @addrs6_%s fib saddr type != local drop\n",
+                tbl, id, nativeName, id));
+
+        nft.append(String.format("add chain %s premangle_%s { type filter hook prerouting priority -150; }\n", tbl, id));
+        nft.append(String.format("flush chain %s premangle_%s\n", tbl, id));
+        nft.append(String.format("add rule %s premangle_%s meta l4proto udp meta mark set ct mark\n", tbl, id));
+
+        nft.append(String.format("add chain %s postmangle_%s { type filter hook postrouting priority -150; }\n", tbl, id));
+        nft.append(String.format("flush chain %s postmangle_%s\n", tbl, id));
+        nft.append(String.format("add rule %s postmangle_%s meta l4proto udp mark %d ct mark set mark\n", tbl, id, fwmark));
+        legacy(nft);
+        return nft.toString();
+    }
+
+    String removeBatch() {
+        var tbl = "inet " + TABLE;
+        var nft = new StringBuilder();
+        /* Each object is added first, so deleting it cannot fail and abort the batch */
+        nft.append(String.format("add table %s\n", tbl));
+        for(var chain : new String[] { "preraw", "premangle", "postmangle" }) {
+            nft.append(String.format("add chain %s %s_%s\n", tbl, chain, id));
+            nft.append(String.format("delete chain %s %s_%s\n", tbl, chain, id));
+        }
+        nft.append(String.format("add set %s addrs4_%s { type ipv4_addr; }\n", tbl, id));
+        nft.append(String.format("delete set %s addrs4_%s\n", tbl, id));
+        nft.append(String.format("add set %s addrs6_%s { type ipv6_addr; }\n", tbl, id));
+        nft.append(String.format("delete set %s addrs6_%s\n", tbl, id));
+        legacy(nft);
+        return nft.toString();
+    }
+
+    /* Drop any tables left by an earlier version, so they are not left behind on upgrade */
+    private void legacy(StringBuilder nft) {
+        for(var pf : new String[] { "ip", "ip6" }) {
+            nft.append(String.format("add table %s %s%s\n", pf, LEGACY_TABLE_PREFIX, nativeName));
+            nft.append(String.format("delete table %s %s%s\n", pf, LEGACY_TABLE_PREFIX, nativeName));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+
+import uk.co.bithatch.nativeimage.annotations.Proxy;
+
+/**
+ * The tiny subset of libc needed to talk to the kernel over {@code AF_NETLINK}
+ * sockets, which the JDK does not support directly.
+ */
+@Proxy
+public interface LibC extends Library {
+
+    public static final String JNA_LIBRARY_NAME = "c";
+    public static final LibC INSTANCE = Native.load(JNA_LIBRARY_NAME, LibC.class);
+
+    int socket(int domain, int type, int protocol) throws LastErrorException;
+
+    int bind(int fd, byte[] addr, int addrlen) throws LastErrorException;
+
+    int setsockopt(int fd, int level, int optname, int[] optval, int optlen) throws LastErrorException;
+
+    NativeLong send(int fd, byte[] buf, NativeLong len, int flags) throws LastErrorException;
+
+    NativeLong recv(int fd, byte[] buf, NativeLong len, int flags) throws LastErrorException;
+
+    int close(int fd) throws LastErrorException;
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.util.Optional;
+
+/**
+ * A network link as reported by rtnetlink.
+ */
+public final class Link {
+
+	private final int index;
+	private final String name;
+	private final int mtu;
+	private final int flags;
+	private final String kind;
+	private final byte[] hardwareAddress;
+
+	Link(int index, String name, int mtu, int flags, String kind, byte[] hardwareAddress) {
+		this.index = index;
+		this.name = name;
+		this.mtu = mtu;
+		this.flags = flags;
+		this.kind = kind;
+		this.hardwareAddress = hardwareAddress;
+	}
+
+	public int index() {
+		return index;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public int mtu() {
+		return mtu;
+	}
+
+	public int flags() {
+		return flags;
+	}
+
+	public boolean isUp() {
+		return (flags & RtNetlink.IFF_UP) != 0;
+	}
+
+	/**
+	 * The link kind (e.g. <code>wireguard</code>) for virtual links.
+	 *
+	 * @return kind
+	 */
+	public Optional<String> kind() {
+		return Optional.ofNullable(kind);
+	}
+
+	public Optional<byte[]> hardwareAddress() {
+		return Optional.ofNullable(hardwareAddress).map(byte[]::clone);
+	}
+
+	@Override
+	public String toString() {
+		return "Link [index=" + index + ", name=" + name + ", mtu=" + mtu + ", flags=" + flags + ", kind=" + kind + "]";
+	}
+}
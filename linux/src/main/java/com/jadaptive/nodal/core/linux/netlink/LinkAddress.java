@@ -0,0 +1,131 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * An address assigned to a link, as reported by rtnetlink.
+ */
+public final class LinkAddress {
+
+	private final int family;
+	private final int ifindex;
+	private final byte[] local;
+	private final int prefixLength;
+	private final byte[] peer;
+	private final int scope;
+
+	LinkAddress(int family, int ifindex, byte[] local, int prefixLength, byte[] peer, int scope) {
+		this.family = family;
+		this.ifindex = ifindex;
+		this.local = local;
+		this.prefixLength = prefixLength;
+		this.peer = peer;
+		this.scope = scope;
+	}
+
+	/**
+	 * Parse an address in CIDR notation (or a single address, which will get a
+	 * full length prefix, as the <code>ip</code> command would do), with an
+	 * optional point-to-point peer.
+	 *
+	 * @param ifindex interface index
+	 * @param address address
+	 * @param peer    peer or <code>null</code>
+	 * @return address
+	 */
+	public static LinkAddress of(int ifindex, String address, String peer) {
+		var idx = address.indexOf('/');
+		var local = parse(idx == -1 ? address : address.substring(0, idx));
+		var len = idx == -1 ? local.length * 8 : Integer.parseInt(address.substring(idx + 1).trim());
+		byte[] peerAddr = null;
+		if (peer != null) {
+			var pidx = peer.indexOf('/');
+			peerAddr = parse(pidx == -1 ? peer : peer.substring(0, pidx));
+			if (pidx != -1)
+				len = Integer.parseInt(peer.substring(pidx + 1).trim());
+		}
+		return new LinkAddress(local.length == 4 ? Netlink.AF_INET : Netlink.AF_INET6, ifindex, local, len, peerAddr,
+				RtNetlink.RT_SCOPE_UNIVERSE);
+	}
+
+	public int family() {
+		return family;
+	}
+
+	public int ifindex() {
+		return ifindex;
+	}
+
+	public byte[] local() {
+		return local.clone();
+	}
+
+	public int prefixLength() {
+		return prefixLength;
+	}
+
+	public Optional<byte[]> peer() {
+		return Optional.ofNullable(peer).map(byte[]::clone);
+	}
+
+	public int scope() {
+		return scope;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * ifindex + prefixLength) + Arrays.hashCode(local);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		var other = (LinkAddress) obj;
+		return ifindex == other.ifindex && prefixLength == other.prefixLength && Arrays.equals(local, other.local);
+	}
+
+	/**
+	 * Same format as <code>ip address</code> shows, e.g.
+	 * <code>10.0.0.1/24</code>.
+	 */
+	@Override
+	public String toString() {
+		return Netlink.formatAddress(local) + "/" + prefixLength;
+	}
+
+	private static byte[] parse(String addr) {
+		try {
+			return InetAddress.getByName(addr.trim()).getAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(MessageFormat.format("Invalid address {0}", addr), e);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps an up-to-date picture of all links and their addresses by subscribing
+ * to rtnetlink link and address notifications. The current {@link Snapshot}
+ * is immutable and replaced as a whole on every change, so reading it never
+ * blocks and never touches the kernel.
+ */
+public final class LinkMonitor implements Closeable {
+
+	private final static Logger LOG = LoggerFactory.getLogger(LinkMonitor.class);
+
+	/** How often the event thread wakes up to check if it has been closed */
+	private final static int POLL_INTERVAL = 1000;
+
+	/**
+	 * All links and their addresses at a point in time.
+	 */
+	public final static class Snapshot {
+		private final Map<Integer, Link> links;
+		private final Map<Integer, List<LinkAddress>> addresses;
+
+		Snapshot(Map<Integer, Link> links, Map<Integer, List<LinkAddress>> addresses) {
+			this.links = links;
+			this.addresses = addresses;
+		}
+
+		public Collection<Link> links() {
+			return Collections.unmodifiableCollection(links.values());
+		}
+
+		public Optional<Link> link(int index) {
+			return Optional.ofNullable(links.get(index));
+		}
+
+		public Optional<Link> link(String name) {
+			return links.values().stream().filter(l -> name.equals(l.name())).findFirst();
+		}
+
+		public List<LinkAddress> addresses(int index) {
+			return addresses.getOrDefault(index, Collections.emptyList());
+		}
+	}
+
+	private final NetlinkSocket socket;
+	private final Thread thread;
+
+	private volatile Snapshot snapshot;
+	private volatile boolean closed;
+
+	/**
+	 * Subscribe to notifications, take the initial snapshot, and start
+	 * listening for changes.
+	 *
+	 * @throws IOException on error
+	 */
+	public LinkMonitor() throws IOException {
+		/* Subscribe before dumping, so nothing that happens in between is missed */
+		socket = new NetlinkSocket(Netlink.NETLINK_ROUTE,
+				RtNetlink.RTMGRP_LINK | RtNetlink.RTMGRP_IPV4_IFADDR | RtNetlink.RTMGRP_IPV6_IFADDR);
+		try {
+			socket.receiveTimeout(POLL_INTERVAL);
+			sync();
+		} catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+		thread = new Thread(this::monitor, "NetlinkLinkMonitor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The current snapshot.
+	 *
+	 * @return snapshot
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Replace the snapshot with a fresh dump of all links and addresses. This
+	 * happens automatically if notifications are lost, but may also be used
+	 * after making a change that must be visible immediately.
+	 *
+	 * @throws IOException on error
+	 */
+	public synchronized void sync() throws IOException {
+		/* Only one dump may be in progress per socket, so these are two transactions */
+		var msgs = new ArrayList<NetlinkMessage>();
+		msgs.addAll(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(RtNetlink.encodeDump(RtNetlink.RTM_GETLINK, Netlink.nextSeq(), RtNetlink.IFINFOMSG_LEN)))));
+		msgs.addAll(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(RtNetlink.encodeDump(RtNetlink.RTM_GETADDR, Netlink.nextSeq(), RtNetlink.IFADDRMSG_LEN)))));
+		Netlink.checkErrors(msgs, "Failed to list links and addresses");
+		var links = new LinkedHashMap<Integer, Link>();
+		var addresses = new LinkedHashMap<Integer, List<LinkAddress>>();
+		apply(msgs, links, addresses);
+		snapshot = new Snapshot(links, addresses);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	private void monitor() {
+		try {
+			while (!closed) {
+				try {
+					var msgs = NetlinkMessage.parse(socket.receive());
+					update(msgs);
+				} catch (IOException ioe) {
+					var errno = ioe instanceof NetlinkException ne ? ne.errno() : 0;
+					if (errno == Netlink.EAGAIN)
+						continue;
+					if (closed)
+						break;
+					if (errno == Netlink.ENOBUFS)
+						LOG.debug("Link notifications overran, resynchronizing.");
+					else
+						LOG.warn("Failed to receive link notifications, resynchronizing. {}", ioe.getMessage());
+					resync();
+				}
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	private void resync() {
+		try {
+			sync();
+		} catch (IOException | RuntimeException e) {
+			if (LOG.isDebugEnabled())
+				LOG.warn("Failed to resynchronize links.", e);
+			else
+				LOG.warn("Failed to resynchronize links. {}", e.getMessage());
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				closed = true;
+			}
+		}
+	}
+
+	private synchronized void update(List<NetlinkMessage> msgs) {
+		var current = snapshot;
+		var links = new LinkedHashMap<>(current.links);
+		var addresses = new LinkedHashMap<>(current.addresses);
+		if (apply(msgs, links, addresses)) {
+			snapshot = new Snapshot(links, addresses);
+		}
+	}
+
+	private static boolean apply(List<NetlinkMessage> msgs, Map<Integer, Link> links,
+			Map<Integer, List<LinkAddress>> addresses) {
+		var changed = false;
+		for (var msg : msgs) {
+			switch (msg.type()) {
+			case RtNetlink.RTM_NEWLINK: {
+				var link = RtNetlink.decodeLink(msg);
+				links.put(link.index(), link);
+				changed = true;
+				break;
+			}
+			case RtNetlink.RTM_DELLINK: {
+				var link = RtNetlink.decodeLink(msg);
+				links.remove(link.index());
+				addresses.remove(link.index());
+				changed = true;
+				break;
+			}
+			case RtNetlink.RTM_NEWADDR:
+			case RtNetlink.RTM_DELADDR: {
+				var addr = RtNetlink.decodeAddress(msg);
+				var l = new ArrayList<>(addresses.getOrDefault(addr.ifindex(), Collections.emptyList()));
+				var idx = l.indexOf(addr);
+				if (msg.type() == RtNetlink.RTM_NEWADDR) {
+					if (idx == -1)
+						l.add(addr);
+					else
+						l.set(idx, addr);
+				} else if (idx != -1) {
+					l.remove(idx);
+				}
+				if (l.isEmpty())
+					addresses.remove(addr.ifindex());
+				else
+					addresses.put(addr.ifindex(), Collections.unmodifiableList(l));
+				changed = true;
+				break;
+			}
+			default:
+				break;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.jadaptive.nodal.core.lib.ipmath.Ipv6;
+import com.sshtools.liftlib.ElevatedClosure;
+import com.sshtools.liftlib.commands.SystemCommands;
+
+import uk.co.bithatch.nativeimage.annotations.Serialization;
+
+/**
+ * Netlink constants and the entry points for exchanging messages with the
+ * kernel, either in this process or via a privileged helper.
+ */
+public final class Netlink {
+
+	public final static int AF_NETLINK = 16;
+	public final static int AF_INET = 2;
+	public final static int AF_INET6 = 10;
+
+	public final static int NETLINK_ROUTE = 0;
+	public final static int NETLINK_GENERIC = 16;
+
+	public final static int NLMSG_HDRLEN = 16;
+	public final static int NLA_HDRLEN = 4;
+	public final static int NLA_ALIGNTO = 4;
+	public final static int NLA_F_NESTED = 0x8000;
+	public final static int NLA_F_NET_BYTEORDER = 0x4000;
+	public final static int NLA_TYPE_MASK = ~(NLA_F_NESTED | NLA_F_NET_BYTEORDER) & 0xffff;
+
+	public final static int NLMSG_NOOP = 1;
+	public final static int NLMSG_ERROR = 2;
+	public final static int NLMSG_DONE = 3;
+
+	public final static int NLM_F_REQUEST = 0x01;
+	public final static int NLM_F_MULTI = 0x02;
+	public final static int NLM_F_ACK = 0x04;
+	public final static int NLM_F_ROOT = 0x100;
+	public final static int NLM_F_MATCH = 0x200;
+	public final static int NLM_F_DUMP = NLM_F_ROOT | NLM_F_MATCH;
+	public final static int NLM_F_REPLACE = 0x100;
+	public final static int NLM_F_EXCL = 0x200;
+	public final static int NLM_F_CREATE = 0x400;
+	public final static int NLM_F_APPEND = 0x800;
+	public final static int NLM_F_CAPPED = 0x100;
+	public final static int NLM_F_ACK_TLVS = 0x200;
+
+	public final static int NLMSGERR_ATTR_MSG = 1;
+
+	public final static int GENL_HDRLEN = 4;
+	public final static int GENL_ID_CTRL = 0x10;
+	public final static int CTRL_CMD_GETFAMILY = 3;
+	public final static int CTRL_ATTR_FAMILY_ID = 1;
+	public final static int CTRL_ATTR_FAMILY_NAME = 2;
+
+	final static int SOCK_RAW = 3;
+	final static int SOCK_CLOEXEC = 0x80000;
+	final static int SOL_SOCKET = 1;
+	final static int SO_RCVBUF = 8;
+	final static int SO_SNDBUF = 7;
+	final static int SO_RCVTIMEO = 20;
+	final static int SOL_NETLINK = 270;
+	final static int NETLINK_CAP_ACK = 10;
+	final static int NETLINK_EXT_ACK = 11;
+
+	final static int EINTR = 4;
+	final static int EAGAIN = 11;
+	final static int ENOBUFS = 105;
+
+	private static int seq = (int) (System.currentTimeMillis() / 1000);
+
+	private Netlink() {
+	}
+
+	public static int align(int len) {
+		return (len + NLA_ALIGNTO - 1) & ~(NLA_ALIGNTO - 1);
+	}
+
+	/**
+	 * Get the next sequence number for a request. Every request that is passed
+	 * to {@link #transact(int, Collection)} must have a unique sequence number,
+	 * and must either be a dump or ask for an acknowledgement.
+	 *
+	 * @return sequence
+	 */
+	public static synchronized int nextSeq() {
+		return ++seq;
+	}
+
+	/**
+	 * Send the requests over a new netlink socket in this process and collect
+	 * every datagram received in response.
+	 *
+	 * @param protocol netlink protocol
+	 * @param requests requests
+	 * @return response datagrams
+	 * @throws IOException on socket error
+	 */
+	public static List<byte[]> transact(int protocol, Collection<byte[]> requests) throws IOException {
+		try (var sock = new NetlinkSocket(protocol, 0)) {
+			return sock.transact(requests);
+		}
+	}
+
+	/**
+	 * Send the requests as the privileged user, and collect every datagram
+	 * received in response. This will be a single round trip to the elevated
+	 * helper regardless of the number of requests.
+	 *
+	 * @param commands commands
+	 * @param protocol netlink protocol
+	 * @param requests requests
+	 * @return response datagrams
+	 * @throws IOException on socket error
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<byte[]> transact(SystemCommands commands, int protocol, Collection<byte[]> requests)
+			throws IOException {
+		try {
+			return (List<byte[]>) commands.privileged().task(new Transact(protocol, requests));
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to exchange netlink messages.", e);
+		}
+	}
+
+	/**
+	 * Throw a {@link NetlinkException} for the first negative acknowledgement
+	 * amongst the messages, if any.
+	 *
+	 * @param messages messages
+	 * @param what     description used in the exception
+	 * @return messages
+	 * @throws NetlinkException if the kernel rejected a request
+	 */
+	public static List<NetlinkMessage> checkErrors(List<NetlinkMessage> messages, String what) throws NetlinkException {
+		for (var msg : messages) {
+			if (msg.isError() && msg.error() != 0) {
+				throw new NetlinkException(
+						msg.errorMessage().map(m -> what + ". " + m).orElse(what), -msg.error());
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Format a raw 4 or 16 byte address the same way the {@code ip} and
+	 * {@code wg} tools would.
+	 *
+	 * @param addr address
+	 * @return formatted address
+	 */
+	public static String formatAddress(byte[] addr) {
+		if (addr.length == 16) {
+			return Ipv6.of(new BigInteger(1, addr)).toString();
+		} else {
+			try {
+				return InetAddress.getByAddress(addr).getHostAddress();
+			} catch (UnknownHostException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	/**
+	 * Exchange netlink messages in the elevated helper. The requests and
+	 * responses are raw datagrams, all encoding and decoding happens on the
+	 * callers side.
+	 */
+	@SuppressWarnings("serial")
+	@Serialization
+	public final static class Transact implements ElevatedClosure<Serializable, Serializable> {
+
+		private int protocol;
+		private ArrayList<byte[]> requests;
+
+		public Transact() {
+		}
+
+		Transact(int protocol, Collection<byte[]> requests) {
+			this.protocol = protocol;
+			this.requests = new ArrayList<>(requests);
+		}
+
+		@Override
+		public Serializable call(ElevatedClosure<Serializable, Serializable> proxy) throws Exception {
+			return new ArrayList<>(Netlink.transact(protocol, requests));
+		}
+	}
+}
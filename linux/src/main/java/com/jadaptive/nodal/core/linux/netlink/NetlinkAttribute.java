@@ -0,0 +1,118 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single decoded netlink attribute (TLV). The value is a read-only view onto
+ * the original datagram.
+ */
+public final class NetlinkAttribute {
+
+	private final int type;
+	private final ByteBuffer value;
+
+	NetlinkAttribute(int type, ByteBuffer value) {
+		this.type = type;
+		this.value = value;
+	}
+
+	/**
+	 * Parse all attributes from the remaining bytes of the buffer. The buffers
+	 * position is not changed.
+	 *
+	 * @param buf buffer
+	 * @return attributes
+	 */
+	public static List<NetlinkAttribute> parse(ByteBuffer buf) {
+		var l = new ArrayList<NetlinkAttribute>();
+		var pos = buf.position();
+		var limit = buf.limit();
+		while (pos + Netlink.NLA_HDRLEN <= limit) {
+			var len = Short.toUnsignedInt(buf.getShort(pos));
+			var type = Short.toUnsignedInt(buf.getShort(pos + 2)) & Netlink.NLA_TYPE_MASK;
+			if (len < Netlink.NLA_HDRLEN || pos + len > limit)
+				break;
+			var val = buf.duplicate().order(buf.order());
+			val.position(pos + Netlink.NLA_HDRLEN);
+			val.limit(pos + len);
+			l.add(new NetlinkAttribute(type, val.slice().order(buf.order())));
+			pos += Netlink.align(len);
+		}
+		return l;
+	}
+
+	public int type() {
+		return type;
+	}
+
+	public int length() {
+		return value.remaining();
+	}
+
+	public int u8() {
+		return Byte.toUnsignedInt(value.get(0));
+	}
+
+	public int u16() {
+		return Short.toUnsignedInt(value.getShort(0));
+	}
+
+	public int u32() {
+		return value.getInt(0);
+	}
+
+	public long u64() {
+		return value.getLong(0);
+	}
+
+	public byte[] bytes() {
+		var b = new byte[value.remaining()];
+		value.duplicate().get(b);
+		return b;
+	}
+
+	public String string() {
+		var b = bytes();
+		var len = 0;
+		while (len < b.length && b[len] != 0)
+			len++;
+		return new String(b, 0, len, StandardCharsets.UTF_8);
+	}
+
+	public ByteBuffer buffer() {
+		return value.duplicate().order(value.order());
+	}
+
+	public List<NetlinkAttribute> nested() {
+		return parse(value);
+	}
+
+	@Override
+	public String toString() {
+		return "NetlinkAttribute [type=" + type + ", length=" + length() + "]";
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A single decoded netlink message. Datagrams received from the kernel (or
+ * recorded fixtures of them) may be turned into messages using
+ * {@link #parse(byte[])}.
+ */
+public final class NetlinkMessage {
+
+	private final int type;
+	private final int flags;
+	private final int seq;
+	private final int pid;
+	private final ByteBuffer payload;
+
+	NetlinkMessage(int type, int flags, int seq, int pid, ByteBuffer payload) {
+		this.type = type;
+		this.flags = flags;
+		this.seq = seq;
+		this.pid = pid;
+		this.payload = payload;
+	}
+
+	public static List<NetlinkMessage> parse(Collection<byte[]> datagrams) {
+		return parse(datagrams, ByteOrder.nativeOrder());
+	}
+
+	public static List<NetlinkMessage> parse(Collection<byte[]> datagrams, ByteOrder order) {
+		var l = new ArrayList<NetlinkMessage>();
+		for (var d : datagrams) {
+			l.addAll(parse(d, order));
+		}
+		return l;
+	}
+
+	public static List<NetlinkMessage> parse(byte[] datagram) {
+		return parse(datagram, ByteOrder.nativeOrder());
+	}
+
+	public static List<NetlinkMessage> parse(byte[] datagram, ByteOrder order) {
+		var l = new ArrayList<NetlinkMessage>();
+		var buf = ByteBuffer.wrap(datagram).order(order);
+		var pos = 0;
+		while (pos + Netlink.NLMSG_HDRLEN <= datagram.length) {
+			var len = buf.getInt(pos);
+			if (len < Netlink.NLMSG_HDRLEN || pos + len > datagram.length)
+				break;
+			var type = Short.toUnsignedInt(buf.getShort(pos + 4));
+			var flags = Short.toUnsignedInt(buf.getShort(pos + 6));
+			var seq = buf.getInt(pos + 8);
+			var pid = buf.getInt(pos + 12);
+			var payload = buf.duplicate();
+			payload.position(pos + Netlink.NLMSG_HDRLEN);
+			payload.limit(pos + len);
+			l.add(new NetlinkMessage(type, flags, seq, pid, payload.slice().order(order)));
+			pos += Netlink.align(len);
+		}
+		return l;
+	}
+
+	public int type() {
+		return type;
+	}
+
+	public int flags() {
+		return flags;
+	}
+
+	public int seq() {
+		return seq;
+	}
+
+	public int pid() {
+		return pid;
+	}
+
+	public boolean isError() {
+		return type == Netlink.NLMSG_ERROR;
+	}
+
+	public boolean isDone() {
+		return type == Netlink.NLMSG_DONE;
+	}
+
+	/**
+	 * The error code of an {@link Netlink#NLMSG_ERROR} message. Zero is an
+	 * acknowledgement, anything else is a negative errno.
+	 *
+	 * @return error
+	 */
+	public int error() {
+		return isError() ? payload.getInt(0) : 0;
+	}
+
+	/**
+	 * The extended acknowledgement message that may accompany an error, if the
+	 * kernel supplied one.
+	 *
+	 * @return message
+	 */
+	public Optional<String> errorMessage() {
+		if (!isError() || (flags & Netlink.NLM_F_ACK_TLVS) == 0)
+			return Optional.empty();
+		/* Original header is echoed back, capped to the header only if NETLINK_CAP_ACK is set */
+		var off = 4 + ((flags & Netlink.NLM_F_CAPPED) == 0 ? payload.getInt(4) : Netlink.NLMSG_HDRLEN);
+		if (off >= payload.limit())
+			return Optional.empty();
+		var tlvs = payload.duplicate().order(payload.order());
+		tlvs.position(Netlink.align(off));
+		return NetlinkAttribute.parse(tlvs).stream().filter(a -> a.type() == Netlink.NLMSGERR_ATTR_MSG)
+				.map(NetlinkAttribute::string).findFirst();
+	}
+
+	/**
+	 * The payload, positioned after the netlink header.
+	 *
+	 * @return payload
+	 */
+	public ByteBuffer payload() {
+		return payload.duplicate().order(payload.order());
+	}
+
+	/**
+	 * Attributes following a fixed size family header (e.g. 4 bytes for generic
+	 * netlink, 16 for an {@code ifinfomsg}).
+	 *
+	 * @param headerLength family header length
+	 * @return attributes
+	 */
+	public List<NetlinkAttribute> attributes(int headerLength) {
+		var buf = payload();
+		buf.position(Math.min(buf.limit(), Netlink.align(headerLength)));
+		return NetlinkAttribute.parse(buf);
+	}
+
+	@Override
+	public String toString() {
+		return "NetlinkMessage [type=" + type + ", flags=" + flags + ", seq=" + seq + ", pid=" + pid + ", length="
+				+ payload.limit() + "]";
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.NativeLong;
+
+/**
+ * A raw {@code AF_NETLINK} socket.
+ */
+public final class NetlinkSocket implements Closeable {
+
+	/** Maximum number of messages sent before waiting for their replies */
+	private final static int MAX_INFLIGHT = 64;
+	private final static int MAX_DATAGRAM = 65536;
+	private final static int BUFFER_SIZE = 1024 * 1024;
+
+	private final int fd;
+	private final byte[] rbuf = new byte[MAX_DATAGRAM];
+	private boolean closed;
+
+	/**
+	 * Open a socket, optionally subscribed to some multicast groups (for
+	 * {@link Netlink#NETLINK_ROUTE} these are the {@code RTMGRP_*} constants).
+	 *
+	 * @param protocol protocol
+	 * @param groups groups
+	 * @throws IOException on error
+	 */
+	public NetlinkSocket(int protocol, int groups) throws IOException {
+		var libc = LibC.INSTANCE;
+		try {
+			fd = libc.socket(Netlink.AF_NETLINK, Netlink.SOCK_RAW | Netlink.SOCK_CLOEXEC, protocol);
+		} catch (LastErrorException lee) {
+			throw new NetlinkException("Failed to open netlink socket", lee.getErrorCode());
+		}
+		try {
+			/* Optional, older kernels may not support these */
+			setOption(Netlink.SOL_NETLINK, Netlink.NETLINK_CAP_ACK, 1);
+			setOption(Netlink.SOL_NETLINK, Netlink.NETLINK_EXT_ACK, 1);
+			setOption(Netlink.SOL_SOCKET, Netlink.SO_RCVBUF, BUFFER_SIZE);
+			setOption(Netlink.SOL_SOCKET, Netlink.SO_SNDBUF, BUFFER_SIZE);
+
+			var addr = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+			addr.putShort((short) Netlink.AF_NETLINK);
+			addr.putShort((short) 0);
+			addr.putInt(0);
+			addr.putInt(groups);
+			try {
+				libc.bind(fd, addr.array(), addr.capacity());
+			} catch (LastErrorException lee) {
+				throw new NetlinkException("Failed to bind netlink socket", lee.getErrorCode());
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Make {@link #receive()} give up after a period of time, throwing a
+	 * {@link NetlinkException} with an errno of {@code EAGAIN}.
+	 *
+	 * @param millis timeout, or zero to block forever
+	 */
+	public void receiveTimeout(int millis) {
+		/* struct timeval, two longs */
+		var tv = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+		tv.putLong(millis / 1000);
+		tv.putLong((millis % 1000) * 1000L);
+		var val = new int[4];
+		tv.flip();
+		tv.asIntBuffer().get(val);
+		try {
+			LibC.INSTANCE.setsockopt(fd, Netlink.SOL_SOCKET, Netlink.SO_RCVTIMEO, val, 16);
+		} catch (LastErrorException lee) {
+		}
+	}
+
+	public void send(byte[] data) throws IOException {
+		try {
+			LibC.INSTANCE.send(fd, data, new NativeLong(data.length), 0);
+		} catch (LastErrorException lee) {
+			throw new NetlinkException("Failed to send netlink message", lee.getErrorCode());
+		}
+	}
+
+	/**
+	 * Block until the next datagram arrives.
+	 *
+	 * @return datagram
+	 * @throws IOException on error
+	 */
+	public byte[] receive() throws IOException {
+		while (true) {
+			try {
+				var len = LibC.INSTANCE.recv(fd, rbuf, new NativeLong(rbuf.length), 0).intValue();
+				return Arrays.copyOf(rbuf, len);
+			} catch (LastErrorException lee) {
+				if (lee.getErrorCode() != Netlink.EINTR)
+					throw new NetlinkException("Failed to receive netlink message", lee.getErrorCode());
+			}
+		}
+	}
+
+	/**
+	 * Send requests and wait for all of them to complete, i.e. each has been
+	 * acknowledged, rejected, or its dump has finished. Requests are sent in
+	 * batches, several messages per datagram, so that the replies cannot
+	 * overflow the receive buffer.
+	 *
+	 * @param requests requests, each containing one or more messages
+	 * @return all response datagrams
+	 * @throws IOException on error
+	 */
+	public List<byte[]> transact(Collection<byte[]> requests) throws IOException {
+		var responses = new ArrayList<byte[]>();
+		var pending = new HashSet<Integer>();
+		var batch = new ByteArrayOutputStream();
+		for (var req : requests) {
+			for (var msg : NetlinkMessage.parse(req)) {
+				pending.add(msg.seq());
+			}
+			batch.write(req, 0, req.length);
+			if (pending.size() >= MAX_INFLIGHT || batch.size() >= MAX_DATAGRAM / 2) {
+				exchange(batch, pending, responses);
+			}
+		}
+		if (batch.size() > 0)
+			exchange(batch, pending, responses);
+		return responses;
+	}
+
+	private void exchange(ByteArrayOutputStream batch, HashSet<Integer> pending, List<byte[]> responses)
+			throws IOException {
+		send(batch.toByteArray());
+		batch.reset();
+		while (!pending.isEmpty()) {
+			var datagram = receive();
+			responses.add(datagram);
+			for (var msg : NetlinkMessage.parse(datagram)) {
+				if (msg.isError() || msg.isDone()) {
+					pending.remove(msg.seq());
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				LibC.INSTANCE.close(fd);
+			} catch (LastErrorException lee) {
+			}
+		}
+	}
+
+	private void setOption(int level, int option, int value) {
+		try {
+			LibC.INSTANCE.setsockopt(fd, level, option, new int[] { value }, 4);
+		} catch (LastErrorException lee) {
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes one or more netlink messages into a single buffer. Headers and
+ * attributes are written in native byte order, attributes are padded to
+ * {@link Netlink#NLA_ALIGNTO}. Nothing here touches a socket, so the output can
+ * be compared directly against recorded fixtures.
+ */
+public final class NetlinkWriter {
+
+	private ByteBuffer buf;
+	private int message = -1;
+
+	public NetlinkWriter() {
+		this(ByteOrder.nativeOrder());
+	}
+
+	public NetlinkWriter(ByteOrder order) {
+		buf = ByteBuffer.allocate(1024).order(order);
+	}
+
+	public NetlinkWriter begin(int type, int flags, int seq) {
+		if (message != -1)
+			throw new IllegalStateException("Previous message not ended.");
+		message = buf.position();
+		ensure(Netlink.NLMSG_HDRLEN);
+		buf.putInt(0);
+		buf.putShort((short) type);
+		buf.putShort((short) flags);
+		buf.putInt(seq);
+		buf.putInt(0);
+		return this;
+	}
+
+	public NetlinkWriter end() {
+		if (message == -1)
+			throw new IllegalStateException("No message begun.");
+		buf.putInt(message, buf.position() - message);
+		message = -1;
+		return this;
+	}
+
+	/**
+	 * Size of the message currently being written (or the entire buffer if
+	 * there is none).
+	 *
+	 * @return size
+	 */
+	public int messageSize() {
+		return message == -1 ? buf.position() : buf.position() - message;
+	}
+
+	public int position() {
+		return buf.position();
+	}
+
+	/**
+	 * Discard everything written after the given position (as returned by
+	 * {@link #position()}.
+	 *
+	 * @param position position
+	 */
+	public void truncate(int position) {
+		Arrays.fill(buf.array(), position, buf.position(), (byte) 0);
+		buf.position(position);
+	}
+
+	public NetlinkWriter u8(int val) {
+		ensure(1);
+		buf.put((byte) val);
+		return this;
+	}
+
+	public NetlinkWriter u16(int val) {
+		ensure(2);
+		buf.putShort((short) val);
+		return this;
+	}
+
+	public NetlinkWriter u32(int val) {
+		ensure(4);
+		buf.putInt(val);
+		return this;
+	}
+
+	public NetlinkWriter bytes(byte[] val) {
+		ensure(val.length);
+		buf.put(val);
+		return this;
+	}
+
+	public NetlinkWriter pad() {
+		var pad = Netlink.align(buf.position()) - buf.position();
+		ensure(pad);
+		buf.position(buf.position() + pad);
+		return this;
+	}
+
+	public NetlinkWriter attr(int type, byte[] val) {
+		ensure(Netlink.NLA_HDRLEN + val.length + Netlink.NLA_ALIGNTO);
+		buf.putShort((short) (Netlink.NLA_HDRLEN + val.length));
+		buf.putShort((short) type);
+		buf.put(val);
+		return pad();
+	}
+
+	public NetlinkWriter attrU8(int type, int val) {
+		return attr(type, new byte[] { (byte) val });
+	}
+
+	public NetlinkWriter attrU16(int type, int val) {
+		ensure(Netlink.NLA_HDRLEN + 4);
+		buf.putShort((short) (Netlink.NLA_HDRLEN + 2));
+		buf.putShort((short) type);
+		buf.putShort((short) val);
+		return pad();
+	}
+
+	public NetlinkWriter attrU32(int type, int val) {
+		ensure(Netlink.NLA_HDRLEN + 4);
+		buf.putShort((short) (Netlink.NLA_HDRLEN + 4));
+		buf.putShort((short) type);
+		buf.putInt(val);
+		return this;
+	}
+
+	public NetlinkWriter attrString(int type, String val) {
+		var b = val.getBytes(StandardCharsets.UTF_8);
+		return attr(type, Arrays.copyOf(b, b.length + 1));
+	}
+
+	/**
+	 * Start a nested attribute. Pass the returned position to
+	 * {@link #endNest(int)} once all children have been written.
+	 *
+	 * @param type type
+	 * @return position of nest
+	 */
+	public int nest(int type) {
+		var pos = buf.position();
+		ensure(Netlink.NLA_HDRLEN);
+		buf.putShort((short) 0);
+		buf.putShort((short) (type | Netlink.NLA_F_NESTED));
+		return pos;
+	}
+
+	public NetlinkWriter endNest(int pos) {
+		buf.putShort(pos, (short) (buf.position() - pos));
+		return this;
+	}
+
+	public byte[] toByteArray() {
+		if (message != -1)
+			throw new IllegalStateException("Message not ended.");
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	 * Return the completed messages, and reset ready for more.
+	 *
+	 * @return messages
+	 */
+	public byte[] flush() {
+		var b = toByteArray();
+		truncate(0);
+		return b;
+	}
+
+	private void ensure(int len) {
+		if (buf.remaining() < len) {
+			var nbuf = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + len)).order(buf.order());
+			buf.flip();
+			nbuf.put(buf);
+			buf = nbuf;
+		}
+	}
+}
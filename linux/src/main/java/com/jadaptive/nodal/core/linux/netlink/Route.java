@@ -0,0 +1,158 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+/**
+ * A route as understood by rtnetlink. Identity is the destination prefix only,
+ * the remaining attributes are informational.
+ */
+public final class Route {
+
+	private final int family;
+	private final byte[] dst;
+	private final int prefixLength;
+	private final int table;
+	private final int ifindex;
+	private final int protocol;
+	private final int scope;
+	private final int type;
+
+	Route(int family, byte[] dst, int prefixLength, int table, int ifindex, int protocol, int scope, int type) {
+		this.family = family;
+		this.dst = mask(dst, prefixLength);
+		this.prefixLength = prefixLength;
+		this.table = table;
+		this.ifindex = ifindex;
+		this.protocol = protocol;
+		this.scope = scope;
+		this.type = type;
+	}
+
+	/**
+	 * Parse a destination in CIDR notation (or a single address) into a unicast
+	 * route in the given table via the given interface. Host bits are masked
+	 * off, as the kernel requires.
+	 *
+	 * @param cidr    destination
+	 * @param table   routing table
+	 * @param ifindex interface index
+	 * @return route
+	 */
+	public static Route of(String cidr, int table, int ifindex) {
+		var idx = cidr.indexOf('/');
+		byte[] addr;
+		try {
+			addr = InetAddress.getByName(idx == -1 ? cidr.trim() : cidr.substring(0, idx).trim()).getAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(MessageFormat.format("Invalid route {0}", cidr), e);
+		}
+		var len = idx == -1 ? addr.length * 8 : Integer.parseInt(cidr.substring(idx + 1).trim());
+		return new Route(addr.length == 4 ? Netlink.AF_INET : Netlink.AF_INET6, addr, len, table, ifindex,
+				RtNetlink.RTPROT_BOOT, addr.length == 4 ? RtNetlink.RT_SCOPE_LINK : RtNetlink.RT_SCOPE_UNIVERSE,
+				RtNetlink.RTN_UNICAST);
+	}
+
+	public int family() {
+		return family;
+	}
+
+	public byte[] dst() {
+		return dst.clone();
+	}
+
+	public int prefixLength() {
+		return prefixLength;
+	}
+
+	public int table() {
+		return table;
+	}
+
+	public int ifindex() {
+		return ifindex;
+	}
+
+	public int protocol() {
+		return protocol;
+	}
+
+	public int scope() {
+		return scope;
+	}
+
+	public int type() {
+		return type;
+	}
+
+	public boolean isDefault() {
+		return prefixLength == 0;
+	}
+
+	/**
+	 * Get if this route's prefix covers (or is equal to) the other's.
+	 *
+	 * @param other other
+	 * @return contains
+	 */
+	public boolean contains(Route other) {
+		if (other.family != family || other.prefixLength < prefixLength)
+			return false;
+		return Arrays.equals(dst, mask(other.dst, prefixLength));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * family + prefixLength) + Arrays.hashCode(dst);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		var other = (Route) obj;
+		return family == other.family && prefixLength == other.prefixLength && Arrays.equals(dst, other.dst);
+	}
+
+	@Override
+	public String toString() {
+		return Netlink.formatAddress(dst) + "/" + prefixLength;
+	}
+
+	private static byte[] mask(byte[] addr, int prefixLength) {
+		var m = addr.clone();
+		for (var i = 0; i < m.length; i++) {
+			var bits = prefixLength - (i * 8);
+			if (bits <= 0)
+				m[i] = 0;
+			else if (bits < 8)
+				m[i] &= (byte) (0xff << (8 - bits));
+		}
+		return m;
+	}
+}
@@ -0,0 +1,486 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+import com.sshtools.liftlib.commands.SystemCommands;
+
+/**
+ * Routing (rtnetlink) client for routes, links and addresses. Reads are done
+ * directly in this process, changes are sent through the privileged helper.
+ */
+public final class RtNetlink {
+
+	public final static int RTM_NEWLINK = 16;
+	public final static int RTM_DELLINK = 17;
+	public final static int RTM_GETLINK = 18;
+	public final static int RTM_SETLINK = 19;
+	public final static int RTM_NEWADDR = 20;
+	public final static int RTM_DELADDR = 21;
+	public final static int RTM_GETADDR = 22;
+
+	public final static int RTM_NEWROUTE = 24;
+	public final static int RTM_DELROUTE = 25;
+	public final static int RTM_GETROUTE = 26;
+
+	public final static int RTMGRP_LINK = 0x1;
+	public final static int RTMGRP_IPV4_IFADDR = 0x10;
+	public final static int RTMGRP_IPV6_IFADDR = 0x100;
+
+	public final static int RTMSG_LEN = 12;
+	public final static int IFINFOMSG_LEN = 16;
+	public final static int IFADDRMSG_LEN = 8;
+
+	public final static int IFLA_ADDRESS = 1;
+	public final static int IFLA_IFNAME = 3;
+	public final static int IFLA_MTU = 4;
+	public final static int IFLA_LINKINFO = 18;
+	public final static int IFLA_INFO_KIND = 1;
+
+	public final static int IFA_ADDRESS = 1;
+	public final static int IFA_LOCAL = 2;
+
+	public final static int IFF_UP = 0x1;
+
+	public final static int RTA_DST = 1;
+	public final static int RTA_OIF = 4;
+	public final static int RTA_TABLE = 15;
+
+	public final static int RT_TABLE_UNSPEC = 0;
+	public final static int RT_TABLE_MAIN = 254;
+
+	public final static int RTPROT_UNSPEC = 0;
+	public final static int RTPROT_KERNEL = 2;
+	public final static int RTPROT_BOOT = 3;
+
+	public final static int RT_SCOPE_UNIVERSE = 0;
+	public final static int RT_SCOPE_LINK = 253;
+	public final static int RT_SCOPE_NOWHERE = 255;
+
+	public final static int RTN_UNICAST = 1;
+
+	/**
+	 * A route to add or delete. After {@link RtNetlink#apply(List)}, the
+	 * {@link #errno()} will be set from the kernel's acknowledgement.
+	 */
+	public final static class RouteChange {
+		private final boolean add;
+		private final Route route;
+		private int errno = -1;
+
+		public RouteChange(boolean add, Route route) {
+			this.add = add;
+			this.route = route;
+		}
+
+		public boolean add() {
+			return add;
+		}
+
+		public Route route() {
+			return route;
+		}
+
+		/**
+		 * Zero if the change succeeded, a positive errno if it failed, or -1
+		 * if no acknowledgement was seen.
+		 *
+		 * @return errno
+		 */
+		public int errno() {
+			return errno;
+		}
+
+		public boolean succeeded() {
+			return errno == 0;
+		}
+
+		@Override
+		public String toString() {
+			return (add ? "add " : "del ") + route + (errno > 0 ? " (errno " + errno + ")" : "");
+		}
+	}
+
+	private final SystemCommands commands;
+
+	public RtNetlink(SystemCommands commands) {
+		this.commands = commands;
+	}
+
+	/**
+	 * Get the kernel index of a network interface.
+	 *
+	 * @param name native interface name
+	 * @return index
+	 * @throws IOException if no such interface
+	 */
+	public static int ifindex(String name) throws IOException {
+		try {
+			return Integer.parseInt(Files.readString(Paths.get("/sys/class/net", name, "ifindex")).trim());
+		} catch (IOException | NumberFormatException e) {
+			throw new IOException(MessageFormat.format("No such interface {0}", name), e);
+		}
+	}
+
+	/**
+	 * Get all unicast routes (both address families) via an interface in a
+	 * particular table with a single dump.
+	 *
+	 * @param ifindex interface index
+	 * @param table table
+	 * @return routes
+	 * @throws IOException on error
+	 */
+	public List<Route> routes(int ifindex, int table) throws IOException {
+		var msgs = Netlink.checkErrors(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(encodeGetRoutes(Netlink.nextSeq())))), "Failed to list routes");
+		return decodeRoutes(msgs).stream().
+				filter(r -> r.ifindex() == ifindex && r.table() == table && r.type() == RTN_UNICAST).
+				toList();
+	}
+
+	/**
+	 * Get the MTU of the link the main table IPv4 default route goes through.
+	 *
+	 * @return mtu or empty if there is no default route
+	 * @throws IOException on error
+	 */
+	public Optional<Integer> defaultRouteMtu() throws IOException {
+		var msgs = Netlink.checkErrors(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(encodeGetRoutes(Netlink.nextSeq())))), "Failed to list routes");
+		var dflt = decodeRoutes(msgs).stream().
+				filter(r -> r.family() == Netlink.AF_INET && r.isDefault() && r.table() == RT_TABLE_MAIN && r.ifindex() > 0).
+				findFirst();
+		if (dflt.isPresent())
+			return Optional.of(link(dflt.get().ifindex()).mtu());
+		else
+			return Optional.empty();
+	}
+
+	/**
+	 * Apply all changes in one privileged round trip. Every change is
+	 * individually acknowledged, and a failure of one does not prevent the
+	 * others, so check {@link RouteChange#errno()} of each.
+	 *
+	 * @param changes changes
+	 * @return changes
+	 * @throws IOException on socket error
+	 */
+	public List<RouteChange> apply(List<RouteChange> changes) throws IOException {
+		if (changes.isEmpty())
+			return changes;
+		var bySeq = new HashMap<Integer, RouteChange>();
+		var reqs = new ArrayList<byte[]>(changes.size());
+		for (var change : changes) {
+			var seq = Netlink.nextSeq();
+			bySeq.put(seq, change);
+			reqs.add(encodeRoute(seq, change.add, change.route));
+		}
+		for (var msg : NetlinkMessage.parse(Netlink.transact(commands, Netlink.NETLINK_ROUTE, reqs))) {
+			if (msg.isError()) {
+				var change = bySeq.get(msg.seq());
+				if (change != null)
+					change.errno = -msg.error();
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Create a new virtual link, e.g. of kind <code>wireguard</code>.
+	 *
+	 * @param name native interface name
+	 * @param kind link kind
+	 * @throws IOException on error
+	 */
+	public void createLink(String name, String kind) throws IOException {
+		exchange(encodeNewLink(Netlink.nextSeq(), name, kind),
+				MessageFormat.format("Failed to create {0} link {1}", kind, name));
+	}
+
+	public void deleteLink(String name) throws IOException {
+		exchange(encodeDelLink(Netlink.nextSeq(), name), MessageFormat.format("Failed to delete link {0}", name));
+	}
+
+	/**
+	 * Set the MTU of a link (if greater than zero) and bring it up or down in a
+	 * single request.
+	 *
+	 * @param name native interface name
+	 * @param mtu  mtu
+	 * @param up   up
+	 * @throws IOException on error
+	 */
+	public void setLink(String name, int mtu, boolean up) throws IOException {
+		exchange(encodeSetLink(Netlink.nextSeq(), name, mtu, up),
+				MessageFormat.format("Failed to set link {0}", name));
+	}
+
+	public void addAddress(LinkAddress address) throws IOException {
+		exchange(encodeAddress(Netlink.nextSeq(), true, address),
+				MessageFormat.format("Failed to add address {0}", address));
+	}
+
+	public void deleteAddress(LinkAddress address) throws IOException {
+		exchange(encodeAddress(Netlink.nextSeq(), false, address),
+				MessageFormat.format("Failed to remove address {0}", address));
+	}
+
+	/**
+	 * Get a single link by index.
+	 *
+	 * @param index index
+	 * @return link
+	 * @throws IOException on error (including no such link)
+	 */
+	public Link link(int index) throws IOException {
+		var msgs = Netlink.checkErrors(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(encodeGetLink(Netlink.nextSeq(), index)))), "Failed to get link " + index);
+		return msgs.stream().filter(m -> m.type() == RTM_NEWLINK).findFirst().map(RtNetlink::decodeLink)
+				.orElseThrow(() -> new IOException("No link " + index));
+	}
+
+	/**
+	 * Get all links with a single dump.
+	 *
+	 * @return links
+	 * @throws IOException on error
+	 */
+	public List<Link> links() throws IOException {
+		var msgs = Netlink.checkErrors(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(encodeDump(RTM_GETLINK, Netlink.nextSeq(), IFINFOMSG_LEN)))), "Failed to list links");
+		return msgs.stream().filter(m -> m.type() == RTM_NEWLINK).map(RtNetlink::decodeLink).toList();
+	}
+
+	/**
+	 * Get all addresses of all links (both families) with a single dump.
+	 *
+	 * @return addresses
+	 * @throws IOException on error
+	 */
+	public List<LinkAddress> addresses() throws IOException {
+		var msgs = Netlink.checkErrors(NetlinkMessage.parse(Netlink.transact(Netlink.NETLINK_ROUTE,
+				List.of(encodeDump(RTM_GETADDR, Netlink.nextSeq(), IFADDRMSG_LEN)))), "Failed to list addresses");
+		return msgs.stream().filter(m -> m.type() == RTM_NEWADDR).map(RtNetlink::decodeAddress).toList();
+	}
+
+	private void exchange(byte[] request, String what) throws IOException {
+		Netlink.checkErrors(NetlinkMessage.parse(Netlink.transact(commands, Netlink.NETLINK_ROUTE, List.of(request))),
+				what);
+	}
+
+	public static byte[] encodeNewLink(int seq, String name, String kind) {
+		var w = new NetlinkWriter().
+				begin(RTM_NEWLINK, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK | Netlink.NLM_F_CREATE | Netlink.NLM_F_EXCL, seq).
+				u8(0).u8(0).u16(0).u32(0).u32(0).u32(0).
+				attrString(IFLA_IFNAME, name);
+		var nest = w.nest(IFLA_LINKINFO);
+		w.attrString(IFLA_INFO_KIND, kind);
+		return w.endNest(nest).end().toByteArray();
+	}
+
+	public static byte[] encodeDelLink(int seq, String name) {
+		return new NetlinkWriter().
+				begin(RTM_DELLINK, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq).
+				u8(0).u8(0).u16(0).u32(0).u32(0).u32(0).
+				attrString(IFLA_IFNAME, name).
+				end().
+				toByteArray();
+	}
+
+	public static byte[] encodeSetLink(int seq, String name, int mtu, boolean up) {
+		var w = new NetlinkWriter().
+				begin(RTM_SETLINK, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq).
+				u8(0).u8(0).u16(0).u32(0).
+				u32(up ? IFF_UP : 0).
+				u32(IFF_UP).
+				attrString(IFLA_IFNAME, name);
+		if (mtu > 0)
+			w.attrU32(IFLA_MTU, mtu);
+		return w.end().toByteArray();
+	}
+
+	public static byte[] encodeGetLink(int seq, int index) {
+		return new NetlinkWriter().
+				begin(RTM_GETLINK, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq).
+				u8(0).u8(0).u16(0).u32(index).u32(0).u32(0).
+				end().
+				toByteArray();
+	}
+
+	public static byte[] encodeDump(int type, int seq, int headerLength) {
+		var w = new NetlinkWriter().begin(type, Netlink.NLM_F_REQUEST | Netlink.NLM_F_DUMP, seq);
+		for (var i = 0; i < headerLength; i++)
+			w.u8(0);
+		return w.end().toByteArray();
+	}
+
+	public static byte[] encodeAddress(int seq, boolean add, LinkAddress address) {
+		var w = new NetlinkWriter();
+		if (add)
+			w.begin(RTM_NEWADDR, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK | Netlink.NLM_F_CREATE | Netlink.NLM_F_EXCL, seq);
+		else
+			w.begin(RTM_DELADDR, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq);
+		var local = address.local();
+		w.u8(address.family()).
+			u8(address.prefixLength()).
+			u8(0).
+			u8(address.scope()).
+			u32(address.ifindex());
+		w.attr(IFA_LOCAL, local);
+		w.attr(IFA_ADDRESS, address.peer().orElse(local));
+		return w.end().toByteArray();
+	}
+
+	public static Link decodeLink(NetlinkMessage msg) {
+		var hdr = msg.payload();
+		var index = hdr.getInt(4);
+		var flags = hdr.getInt(8);
+		String name = null;
+		String kind = null;
+		byte[] hwaddr = null;
+		var mtu = 0;
+		for (var attr : msg.attributes(IFINFOMSG_LEN)) {
+			switch (attr.type()) {
+			case IFLA_IFNAME:
+				name = attr.string();
+				break;
+			case IFLA_MTU:
+				mtu = attr.u32();
+				break;
+			case IFLA_ADDRESS:
+				hwaddr = attr.bytes();
+				break;
+			case IFLA_LINKINFO:
+				for (var info : attr.nested()) {
+					if (info.type() == IFLA_INFO_KIND)
+						kind = info.string();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return new Link(index, name, mtu, flags, kind, hwaddr);
+	}
+
+	public static LinkAddress decodeAddress(NetlinkMessage msg) {
+		var hdr = msg.payload();
+		var family = Byte.toUnsignedInt(hdr.get(0));
+		var prefixLength = Byte.toUnsignedInt(hdr.get(1));
+		var scope = Byte.toUnsignedInt(hdr.get(3));
+		var index = hdr.getInt(4);
+		byte[] local = null;
+		byte[] address = null;
+		for (var attr : msg.attributes(IFADDRMSG_LEN)) {
+			if (attr.type() == IFA_LOCAL)
+				local = attr.bytes();
+			else if (attr.type() == IFA_ADDRESS)
+				address = attr.bytes();
+		}
+		if (local == null)
+			return new LinkAddress(family, index, address, prefixLength, null, scope);
+		else
+			return new LinkAddress(family, index, local, prefixLength,
+					address == null || Arrays.equals(local, address) ? null : address, scope);
+	}
+
+	public static byte[] encodeGetRoutes(int seq) {
+		return new NetlinkWriter().
+				begin(RTM_GETROUTE, Netlink.NLM_F_REQUEST | Netlink.NLM_F_DUMP, seq).
+				u8(0).u8(0).u8(0).u8(0).u8(0).u8(0).u8(0).u8(0).u32(0).
+				end().
+				toByteArray();
+	}
+
+	public static List<Route> decodeRoutes(Collection<NetlinkMessage> messages) {
+		var l = new ArrayList<Route>();
+		for (var msg : messages) {
+			if (msg.type() != RTM_NEWROUTE)
+				continue;
+			var hdr = msg.payload();
+			var family = Byte.toUnsignedInt(hdr.get(0));
+			var dstLen = Byte.toUnsignedInt(hdr.get(1));
+			var table = Byte.toUnsignedInt(hdr.get(4));
+			var protocol = Byte.toUnsignedInt(hdr.get(5));
+			var scope = Byte.toUnsignedInt(hdr.get(6));
+			var type = Byte.toUnsignedInt(hdr.get(7));
+			byte[] dst = null;
+			var oif = 0;
+			for (var attr : msg.attributes(RTMSG_LEN)) {
+				switch (attr.type()) {
+				case RTA_DST:
+					dst = attr.bytes();
+					break;
+				case RTA_OIF:
+					oif = attr.u32();
+					break;
+				case RTA_TABLE:
+					table = attr.u32();
+					break;
+				default:
+					break;
+				}
+			}
+			if (family != Netlink.AF_INET && family != Netlink.AF_INET6)
+				continue;
+			if (dst == null)
+				dst = new byte[family == Netlink.AF_INET ? 4 : 16];
+			l.add(new Route(family, dst, dstLen, table, oif, protocol, scope, type));
+		}
+		return l;
+	}
+
+	public static byte[] encodeRoute(int seq, boolean add, Route route) {
+		var w = new NetlinkWriter();
+		if (add) {
+			w.begin(RTM_NEWROUTE, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK | Netlink.NLM_F_CREATE | Netlink.NLM_F_EXCL, seq);
+		} else {
+			w.begin(RTM_DELROUTE, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq);
+		}
+		w.u8(route.family()).
+			u8(route.prefixLength()).
+			u8(0).
+			u8(0).
+			u8(route.table() < 256 ? route.table() : RT_TABLE_UNSPEC).
+			u8(add ? route.protocol() : RTPROT_UNSPEC).
+			u8(add ? route.scope() : RT_SCOPE_NOWHERE).
+			u8(add ? route.type() : 0).
+			u32(0);
+		if (route.prefixLength() > 0)
+			w.attr(RTA_DST, route.dst());
+		w.attrU32(RTA_OIF, route.ifindex());
+		if (route.table() >= 256)
+			w.attrU32(RTA_TABLE, route.table());
+		return w.end().toByteArray();
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.jadaptive.nodal.core.lib.VpnAdapterConfiguration;
+import com.jadaptive.nodal.core.lib.VpnInterfaceInformation;
+import com.jadaptive.nodal.core.lib.VpnPeer;
+import com.jadaptive.nodal.core.lib.VpnPeerInformation;
+
+import uk.co.bithatch.nativeimage.annotations.Serialization;
+
+/**
+ * The state of a kernel WireGuard device, as decoded from a
+ * {@link WireGuardNetlink#WG_CMD_GET_DEVICE} dump.
+ */
+@SuppressWarnings("serial")
+@Serialization
+public final class WireGuardDevice implements VpnInterfaceInformation {
+
+	@SuppressWarnings("serial")
+	@Serialization
+	public final static class Peer implements VpnPeerInformation {
+		private final String publicKey;
+		private final String presharedKey;
+		private final InetSocketAddress endpoint;
+		private final int persistentKeepalive;
+		private final Instant lastHandshake;
+		private final long rx;
+		private final long tx;
+		private final List<String> allowedIps;
+
+		Peer(String publicKey, String presharedKey, InetSocketAddress endpoint, int persistentKeepalive,
+				Instant lastHandshake, long rx, long tx, List<String> allowedIps) {
+			this.publicKey = publicKey;
+			this.presharedKey = presharedKey;
+			this.endpoint = endpoint;
+			this.persistentKeepalive = persistentKeepalive;
+			this.lastHandshake = lastHandshake;
+			this.rx = rx;
+			this.tx = tx;
+			this.allowedIps = allowedIps;
+		}
+
+		@Override
+		public List<String> allowedIps() {
+			return Collections.unmodifiableList(allowedIps);
+		}
+
+		@Override
+		public Optional<InetSocketAddress> remoteAddress() {
+			return Optional.ofNullable(endpoint);
+		}
+
+		@Override
+		public String publicKey() {
+			return publicKey;
+		}
+
+		@Override
+		public Optional<String> presharedKey() {
+			return Optional.ofNullable(presharedKey);
+		}
+
+		public Optional<Integer> persistentKeepalive() {
+			return persistentKeepalive == 0 ? Optional.empty() : Optional.of(persistentKeepalive);
+		}
+
+		@Override
+		public long tx() {
+			return tx;
+		}
+
+		@Override
+		public long rx() {
+			return rx;
+		}
+
+		@Override
+		public Instant lastHandshake() {
+			return lastHandshake;
+		}
+
+		@Override
+		public Optional<String> error() {
+			return Optional.empty();
+		}
+
+		public VpnPeer toPeer() {
+			return new VpnPeer.Builder().
+					withPublicKey(publicKey).
+					withPresharedKey(Optional.ofNullable(presharedKey)).
+					withEndpoint(endpoint).
+					withPersistentKeepalive(persistentKeepalive()).
+					withAllowedIps(allowedIps).
+					build();
+		}
+
+		@Override
+		public String toString() {
+			return "Peer [publicKey=" + publicKey + ", endpoint=" + endpoint + ", allowedIps=" + allowedIps + "]";
+		}
+	}
+
+	private final String interfaceName;
+	private final int ifindex;
+	private final String privateKey;
+	private final String publicKey;
+	private final int listenPort;
+	private final int fwmark;
+	private final List<Peer> peers;
+
+	WireGuardDevice(String interfaceName, int ifindex, String privateKey, String publicKey, int listenPort, int fwmark,
+			List<Peer> peers) {
+		this.interfaceName = interfaceName;
+		this.ifindex = ifindex;
+		this.privateKey = privateKey;
+		this.publicKey = publicKey;
+		this.listenPort = listenPort;
+		this.fwmark = fwmark;
+		this.peers = peers;
+	}
+
+	public int ifindex() {
+		return ifindex;
+	}
+
+	@Override
+	public String interfaceName() {
+		return interfaceName;
+	}
+
+	@Override
+	public long tx() {
+		return peers.stream().mapToLong(Peer::tx).sum();
+	}
+
+	@Override
+	public long rx() {
+		return peers.stream().mapToLong(Peer::rx).sum();
+	}
+
+	@Override
+	public List<VpnPeerInformation> peers() {
+		return Collections.unmodifiableList(peers);
+	}
+
+	public List<Peer> devicePeers() {
+		return Collections.unmodifiableList(peers);
+	}
+
+	@Override
+	public Instant lastHandshake() {
+		return peers.stream().map(Peer::lastHandshake).max(Instant::compareTo).orElse(Instant.ofEpochSecond(0));
+	}
+
+	@Override
+	public Optional<String> error() {
+		return Optional.empty();
+	}
+
+	@Override
+	public Optional<Integer> listenPort() {
+		return listenPort == 0 ? Optional.empty() : Optional.of(listenPort);
+	}
+
+	@Override
+	public Optional<Integer> fwmark() {
+		return fwmark == 0 ? Optional.empty() : Optional.of(fwmark);
+	}
+
+	/**
+	 * Public key, or an empty string if the device has no private key yet.
+	 */
+	@Override
+	public String publicKey() {
+		return publicKey == null ? "" : publicKey;
+	}
+
+	/**
+	 * Private key, or an empty string if the device has no private key yet.
+	 */
+	@Override
+	public String privateKey() {
+		return privateKey == null ? "" : privateKey;
+	}
+
+	/**
+	 * Build the same configuration that {@code wg showconf} would produce.
+	 *
+	 * @return configuration
+	 */
+	public VpnAdapterConfiguration toConfiguration() {
+		var bldr = new VpnAdapterConfiguration.Builder().
+				withListenPort(listenPort()).
+				withFwMark(fwmark());
+		if(privateKey != null) {
+			/* Kernel already supplies the public key, no need to derive it again */
+			bldr.withPrivateKey(privateKey);
+			bldr.withPublicKey(publicKey);
+		}
+		var l = new ArrayList<VpnPeer>();
+		for(var peer : peers)
+			l.add(peer.toPeer());
+		return bldr.withPeers(l).build();
+	}
+
+	@Override
+	public String toString() {
+		return "WireGuardDevice [interfaceName=" + interfaceName + ", ifindex=" + ifindex + ", publicKey=" + publicKey
+				+ ", listenPort=" + listenPort + ", fwmark=" + fwmark + ", peers=" + peers + "]";
+	}
+}
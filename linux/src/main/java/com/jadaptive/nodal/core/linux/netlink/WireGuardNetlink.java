@@ -0,0 +1,496 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import com.sshtools.liftlib.commands.SystemCommands;
+
+/**
+ * Talks to the kernel WireGuard module over generic netlink, the same way the
+ * {@code wg} tool does (see {@code include/uapi/linux/wireguard.h}).
+ * <p>
+ * The static {@code encode} and {@code decode} methods are pure functions over
+ * bytes, the instance methods do the actual exchange via a privileged helper.
+ */
+public final class WireGuardNetlink {
+
+	public final static String WG_GENL_NAME = "wireguard";
+	public final static int WG_GENL_VERSION = 1;
+
+	public final static int WG_CMD_GET_DEVICE = 0;
+	public final static int WG_CMD_SET_DEVICE = 1;
+
+	public final static int WGDEVICE_F_REPLACE_PEERS = 1;
+
+	public final static int WGDEVICE_A_IFINDEX = 1;
+	public final static int WGDEVICE_A_IFNAME = 2;
+	public final static int WGDEVICE_A_PRIVATE_KEY = 3;
+	public final static int WGDEVICE_A_PUBLIC_KEY = 4;
+	public final static int WGDEVICE_A_FLAGS = 5;
+	public final static int WGDEVICE_A_LISTEN_PORT = 6;
+	public final static int WGDEVICE_A_FWMARK = 7;
+	public final static int WGDEVICE_A_PEERS = 8;
+
+	public final static int WGPEER_F_REMOVE_ME = 1;
+	public final static int WGPEER_F_REPLACE_ALLOWEDIPS = 2;
+	public final static int WGPEER_F_UPDATE_ONLY = 4;
+
+	public final static int WGPEER_A_PUBLIC_KEY = 1;
+	public final static int WGPEER_A_PRESHARED_KEY = 2;
+	public final static int WGPEER_A_FLAGS = 3;
+	public final static int WGPEER_A_ENDPOINT = 4;
+	public final static int WGPEER_A_PERSISTENT_KEEPALIVE_INTERVAL = 5;
+	public final static int WGPEER_A_LAST_HANDSHAKE_TIME = 6;
+	public final static int WGPEER_A_RX_BYTES = 7;
+	public final static int WGPEER_A_TX_BYTES = 8;
+	public final static int WGPEER_A_ALLOWEDIPS = 9;
+	public final static int WGPEER_A_PROTOCOL_VERSION = 10;
+
+	public final static int WGALLOWEDIP_A_FAMILY = 1;
+	public final static int WGALLOWEDIP_A_IPADDR = 2;
+	public final static int WGALLOWEDIP_A_CIDR_MASK = 3;
+
+	public final static int WG_KEY_LEN = 32;
+
+	/** Same limit the wg tool uses, larger updates are split */
+	final static int MAX_MESSAGE_SIZE = 8192;
+
+	private final static int ENOENT = 2;
+	private final static int ENODEV = 19;
+
+	private final SystemCommands commands;
+	private int family = -1;
+
+	public WireGuardNetlink(SystemCommands commands) {
+		this.commands = commands;
+	}
+
+	/**
+	 * Get the generic netlink family ID of the WireGuard module, resolving it
+	 * on first use. Will fail if the module is not loaded.
+	 *
+	 * @return family
+	 * @throws IOException on error
+	 */
+	public synchronized int family() throws IOException {
+		if (family == -1) {
+			var msgs = NetlinkMessage.parse(Netlink.transact(commands, Netlink.NETLINK_GENERIC,
+					List.of(encodeGetFamily(Netlink.nextSeq(), WG_GENL_NAME))));
+			family = decodeFamily(Netlink.checkErrors(msgs, "Failed to resolve generic netlink family " + WG_GENL_NAME));
+		}
+		return family;
+	}
+
+	/**
+	 * Get the current state of a device.
+	 *
+	 * @param ifname native interface name
+	 * @return device, or empty if there is no such WireGuard device
+	 * @throws IOException on error
+	 */
+	public Optional<WireGuardDevice> device(String ifname) throws IOException {
+		try {
+			var fam = family();
+			var msgs = exchange(List.of(encodeGetDevice(fam, Netlink.nextSeq(), ifname)),
+					MessageFormat.format("Failed to get WireGuard device {0}", ifname));
+			return Optional.of(decodeDevice(fam, msgs));
+		} catch (NetlinkException ne) {
+			if (ne.errno() == ENODEV)
+				return Optional.empty();
+			throw ne;
+		}
+	}
+
+	/**
+	 * Apply an update to a device.
+	 *
+	 * @param ifname native interface name
+	 * @param update update
+	 * @throws IOException on error
+	 */
+	public void update(String ifname, WireGuardUpdate update) throws IOException {
+		exchange(encodeSetDevice(family(), Netlink.nextSeq(), ifname, update),
+				MessageFormat.format("Failed to configure WireGuard device {0}", ifname));
+	}
+
+	private List<NetlinkMessage> exchange(List<byte[]> requests, String what) throws IOException {
+		try {
+			return Netlink.checkErrors(
+					NetlinkMessage.parse(Netlink.transact(commands, Netlink.NETLINK_GENERIC, requests)), what);
+		} catch (NetlinkException ne) {
+			if (ne.errno() == ENOENT) {
+				/* Module may have been reloaded, family ID might have changed */
+				synchronized (this) {
+					family = -1;
+				}
+			}
+			throw ne;
+		}
+	}
+
+	public static byte[] encodeGetFamily(int seq, String name) {
+		return new NetlinkWriter().
+				begin(Netlink.GENL_ID_CTRL, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq).
+				u8(Netlink.CTRL_CMD_GETFAMILY).u8(1).u16(0).
+				attrString(Netlink.CTRL_ATTR_FAMILY_NAME, name).
+				end().
+				toByteArray();
+	}
+
+	public static int decodeFamily(List<NetlinkMessage> messages) throws IOException {
+		for (var msg : messages) {
+			if (msg.type() == Netlink.GENL_ID_CTRL) {
+				for (var attr : msg.attributes(Netlink.GENL_HDRLEN)) {
+					if (attr.type() == Netlink.CTRL_ATTR_FAMILY_ID)
+						return attr.u16();
+				}
+			}
+		}
+		throw new IOException("No generic netlink family ID in reply.");
+	}
+
+	public static byte[] encodeGetDevice(int family, int seq, String ifname) {
+		return new NetlinkWriter().
+				begin(family, Netlink.NLM_F_REQUEST | Netlink.NLM_F_DUMP, seq).
+				u8(WG_CMD_GET_DEVICE).u8(WG_GENL_VERSION).u16(0).
+				attrString(WGDEVICE_A_IFNAME, ifname).
+				end().
+				toByteArray();
+	}
+
+	/**
+	 * Decode the (possibly multi-part) reply to {@link #WG_CMD_GET_DEVICE}. A
+	 * peer with many allowed IPs may be continued in the next message, in which
+	 * case it appears again with just its public key and the remaining IPs.
+	 *
+	 * @param family   family ID
+	 * @param messages reply messages
+	 * @return device
+	 * @throws IOException if there is no device in the reply
+	 */
+	public static WireGuardDevice decodeDevice(int family, List<NetlinkMessage> messages) throws IOException {
+		String ifname = null;
+		var ifindex = 0;
+		String privateKey = null;
+		String publicKey = null;
+		var listenPort = 0;
+		var fwmark = 0;
+		var peers = new ArrayList<PeerState>();
+		for (var msg : messages) {
+			if (msg.type() != family)
+				continue;
+			for (var attr : msg.attributes(Netlink.GENL_HDRLEN)) {
+				switch (attr.type()) {
+				case WGDEVICE_A_IFINDEX:
+					ifindex = attr.u32();
+					break;
+				case WGDEVICE_A_IFNAME:
+					ifname = attr.string();
+					break;
+				case WGDEVICE_A_PRIVATE_KEY:
+					privateKey = key(attr);
+					break;
+				case WGDEVICE_A_PUBLIC_KEY:
+					publicKey = key(attr);
+					break;
+				case WGDEVICE_A_LISTEN_PORT:
+					listenPort = attr.u16();
+					break;
+				case WGDEVICE_A_FWMARK:
+					fwmark = attr.u32();
+					break;
+				case WGDEVICE_A_PEERS:
+					for (var peerAttr : attr.nested()) {
+						var peer = decodePeer(peerAttr);
+						var last = peers.isEmpty() ? null : peers.get(peers.size() - 1);
+						if (last != null && last.publicKey.equals(peer.publicKey))
+							last.allowedIps.addAll(peer.allowedIps);
+						else
+							peers.add(peer);
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		if (ifname == null)
+			throw new IOException("No WireGuard device in reply.");
+		return new WireGuardDevice(ifname, ifindex, privateKey, publicKey, listenPort, fwmark,
+				peers.stream().map(PeerState::toPeer).toList());
+	}
+
+	/**
+	 * Encode a {@link #WG_CMD_SET_DEVICE}, split into as many messages as needed
+	 * to keep each under {@link #MAX_MESSAGE_SIZE}. Only the first message
+	 * carries the interface attributes and the replace-peers flag, and a peer
+	 * that is split is repeated with just its public key, exactly as the
+	 * {@code wg} tool does it.
+	 *
+	 * @param family family ID
+	 * @param seq    sequence number of first message, subsequent messages
+	 *               increment this
+	 * @param ifname native interface name
+	 * @param update update
+	 * @return messages
+	 */
+	public static List<byte[]> encodeSetDevice(int family, int seq, String ifname, WireGuardUpdate update) {
+		var msgs = new ArrayList<byte[]>();
+		var w = new NetlinkWriter();
+		beginSetDevice(w, family, seq++, ifname);
+
+		if (update.replacePeers())
+			w.attrU32(WGDEVICE_A_FLAGS, WGDEVICE_F_REPLACE_PEERS);
+		update.privateKey().ifPresent(k -> w.attr(WGDEVICE_A_PRIVATE_KEY, keyBytes(k)));
+		update.listenPort().ifPresent(p -> w.attrU16(WGDEVICE_A_LISTEN_PORT, p));
+		update.fwmark().ifPresent(m -> w.attrU32(WGDEVICE_A_FWMARK, m));
+
+		var peersNest = -1;
+		var emptyMessage = true;
+		for (var peer : update.peers()) {
+			var ips = peer.allowedIps();
+			var ipIdx = 0;
+			var continued = false;
+			while (true) {
+				if (peersNest == -1)
+					peersNest = w.nest(WGDEVICE_A_PEERS);
+				var mark = w.position();
+				var peerNest = w.nest(0);
+				w.attr(WGPEER_A_PUBLIC_KEY, keyBytes(peer.publicKey()));
+				if (!continued)
+					writePeerAttributes(w, peer);
+
+				var ipStart = ipIdx;
+				var full = w.messageSize() > MAX_MESSAGE_SIZE;
+				if (!full && !peer.remove() && ipIdx < ips.size()) {
+					var ipsNest = w.nest(WGPEER_A_ALLOWEDIPS);
+					while (ipIdx < ips.size()) {
+						var ipMark = w.position();
+						writeAllowedIp(w, ips.get(ipIdx));
+						if (w.messageSize() > MAX_MESSAGE_SIZE) {
+							w.truncate(ipMark);
+							full = true;
+							break;
+						}
+						ipIdx++;
+					}
+					w.endNest(ipsNest);
+				}
+
+				if (full && ipIdx == ipStart) {
+					/* Made no progress with this peer, move all of it to the next message */
+					if (emptyMessage)
+						throw new IllegalStateException("Peer too large for a single netlink message.");
+					w.truncate(mark);
+				} else {
+					w.endNest(peerNest);
+					emptyMessage = false;
+					continued = continued || full;
+				}
+
+				if (full) {
+					w.endNest(peersNest).end();
+					msgs.add(w.flush());
+					peersNest = -1;
+					emptyMessage = true;
+					beginSetDevice(w, family, seq++, ifname);
+				} else
+					break;
+			}
+		}
+
+		if (peersNest != -1)
+			w.endNest(peersNest);
+		w.end();
+		msgs.add(w.flush());
+		return msgs;
+	}
+
+	private static void beginSetDevice(NetlinkWriter w, int family, int seq, String ifname) {
+		w.begin(family, Netlink.NLM_F_REQUEST | Netlink.NLM_F_ACK, seq).
+			u8(WG_CMD_SET_DEVICE).u8(WG_GENL_VERSION).u16(0).
+			attrString(WGDEVICE_A_IFNAME, ifname);
+	}
+
+	private static void writePeerAttributes(NetlinkWriter w, WireGuardUpdate.Peer peer) {
+		var flags = 0;
+		if (peer.remove())
+			flags |= WGPEER_F_REMOVE_ME;
+		if (peer.replaceAllowedIps())
+			flags |= WGPEER_F_REPLACE_ALLOWEDIPS;
+		if (flags != 0)
+			w.attrU32(WGPEER_A_FLAGS, flags);
+		if (peer.remove())
+			return;
+		peer.presharedKey().ifPresent(k -> w.attr(WGPEER_A_PRESHARED_KEY, keyBytes(k)));
+		peer.endpointAddress().ifPresent(a -> w.attr(WGPEER_A_ENDPOINT, sockaddr(a, peer.endpointPort().get())));
+		peer.persistentKeepalive().ifPresent(k -> w.attrU16(WGPEER_A_PERSISTENT_KEEPALIVE_INTERVAL, k));
+	}
+
+	private static void writeAllowedIp(NetlinkWriter w, String cidr) {
+		var idx = cidr.indexOf('/');
+		var addr = address(idx == -1 ? cidr : cidr.substring(0, idx));
+		var mask = idx == -1 ? addr.length * 8 : Integer.parseInt(cidr.substring(idx + 1).trim());
+		var nest = w.nest(0);
+		w.attrU16(WGALLOWEDIP_A_FAMILY, addr.length == 4 ? Netlink.AF_INET : Netlink.AF_INET6);
+		w.attr(WGALLOWEDIP_A_IPADDR, addr);
+		w.attrU8(WGALLOWEDIP_A_CIDR_MASK, mask);
+		w.endNest(nest);
+	}
+
+	private static PeerState decodePeer(NetlinkAttribute peerAttr) {
+		var peer = new PeerState();
+		for (var attr : peerAttr.nested()) {
+			switch (attr.type()) {
+			case WGPEER_A_PUBLIC_KEY:
+				peer.publicKey = key(attr);
+				break;
+			case WGPEER_A_PRESHARED_KEY:
+				/* Kernel always sends this, all zeros means none */
+				var psk = attr.bytes();
+				if (!Arrays.equals(psk, new byte[psk.length]))
+					peer.presharedKey = Base64.getEncoder().encodeToString(psk);
+				break;
+			case WGPEER_A_ENDPOINT:
+				peer.endpoint = decodeSockaddr(attr.buffer());
+				break;
+			case WGPEER_A_PERSISTENT_KEEPALIVE_INTERVAL:
+				peer.persistentKeepalive = attr.u16();
+				break;
+			case WGPEER_A_LAST_HANDSHAKE_TIME:
+				var ts = attr.buffer();
+				peer.lastHandshake = Instant.ofEpochSecond(ts.getLong(0), ts.getLong(8));
+				break;
+			case WGPEER_A_RX_BYTES:
+				peer.rx = attr.u64();
+				break;
+			case WGPEER_A_TX_BYTES:
+				peer.tx = attr.u64();
+				break;
+			case WGPEER_A_ALLOWEDIPS:
+				for (var ipAttr : attr.nested()) {
+					byte[] ip = null;
+					var mask = -1;
+					for (var ia : ipAttr.nested()) {
+						if (ia.type() == WGALLOWEDIP_A_IPADDR)
+							ip = ia.bytes();
+						else if (ia.type() == WGALLOWEDIP_A_CIDR_MASK)
+							mask = ia.u8();
+					}
+					if (ip != null && mask != -1)
+						peer.allowedIps.add(Netlink.formatAddress(ip) + "/" + mask);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return peer;
+	}
+
+	private static String key(NetlinkAttribute attr) {
+		return Base64.getEncoder().encodeToString(attr.bytes());
+	}
+
+	private static byte[] keyBytes(String key) {
+		var b = Base64.getDecoder().decode(key.trim());
+		if (b.length != WG_KEY_LEN)
+			throw new IllegalArgumentException("Invalid key length.");
+		return b;
+	}
+
+	private static byte[] address(String addr) {
+		try {
+			return InetAddress.getByName(addr.trim()).getAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(MessageFormat.format("Invalid address {0}", addr), e);
+		}
+	}
+
+	static InetSocketAddress decodeSockaddr(ByteBuffer buf) {
+		var family = Short.toUnsignedInt(buf.getShort(0));
+		var port = Short.toUnsignedInt(buf.duplicate().order(ByteOrder.BIG_ENDIAN).getShort(2));
+		try {
+			if (family == Netlink.AF_INET) {
+				var addr = new byte[4];
+				buf.get(4, addr);
+				return new InetSocketAddress(InetAddress.getByAddress(addr), port);
+			} else if (family == Netlink.AF_INET6) {
+				var addr = new byte[16];
+				buf.get(8, addr);
+				var scope = buf.getInt(24);
+				return new InetSocketAddress(scope == 0 ? InetAddress.getByAddress(addr)
+						: Inet6Address.getByAddress(null, addr, scope), port);
+			}
+		} catch (UnknownHostException e) {
+		}
+		return null;
+	}
+
+	static byte[] sockaddr(String host, int port) {
+		var addr = new InetSocketAddress(host, port);
+		if (addr.isUnresolved())
+			throw new IllegalArgumentException(MessageFormat.format("Could not resolve endpoint {0}", host));
+		var ip = addr.getAddress().getAddress();
+		var buf = ByteBuffer.allocate(ip.length == 4 ? 16 : 28).order(ByteOrder.nativeOrder());
+		buf.putShort((short) (ip.length == 4 ? Netlink.AF_INET : Netlink.AF_INET6));
+		buf.order(ByteOrder.BIG_ENDIAN).putShort((short) port).order(ByteOrder.nativeOrder());
+		if (ip.length == 4) {
+			buf.put(ip);
+		} else {
+			buf.putInt(0);
+			buf.put(ip);
+			buf.putInt(addr.getAddress() instanceof Inet6Address i6 ? i6.getScopeId() : 0);
+		}
+		return buf.array();
+	}
+
+	private final static class PeerState {
+		private String publicKey = "";
+		private String presharedKey;
+		private InetSocketAddress endpoint;
+		private int persistentKeepalive;
+		private Instant lastHandshake = Instant.ofEpochSecond(0);
+		private long rx;
+		private long tx;
+		private final List<String> allowedIps = new ArrayList<>();
+
+		WireGuardDevice.Peer toPeer() {
+			return new WireGuardDevice.Peer(publicKey, presharedKey, endpoint, persistentKeepalive, lastHandshake, rx,
+					tx, allowedIps);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright ©2023-2025 LogonBox Ltd
+ * All changes post March 2025 Copyright © 2023 JADAPTIVE Limited (support@jadaptive.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the “Software”), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.jadaptive.nodal.core.linux.netlink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.jadaptive.nodal.core.lib.ConfigurationDiff;
+import com.jadaptive.nodal.core.lib.Vpn;
+import com.jadaptive.nodal.core.lib.VpnAdapterConfiguration;
+import com.jadaptive.nodal.core.lib.VpnPeer;
+
+/**
+ * A set of changes to apply to a kernel WireGuard device with a single
+ * {@link WireGuardNetlink#WG_CMD_SET_DEVICE} (which may be split over several
+ * messages). Anything not specified is left as is.
+ */
+public final class WireGuardUpdate {
+
+	public final static class Builder {
+		private Optional<String> privateKey = Optional.empty();
+		private Optional<Integer> listenPort = Optional.empty();
+		private Optional<Integer> fwmark = Optional.empty();
+		private boolean replacePeers;
+		private final List<Peer> peers = new ArrayList<>();
+
+		/**
+		 * Set the interface attributes and all peers from a configuration, in the
+		 * same way {@code wg setconf} or {@code wg addconf} would.
+		 *
+		 * @param configuration     configuration
+		 * @param replaceAllowedIps replace each peers allowed IPs rather than add to
+		 *                          them
+		 * @return this for chaining
+		 */
+		public Builder fromConfiguration(VpnAdapterConfiguration configuration, boolean replaceAllowedIps) {
+			try {
+				withPrivateKey(configuration.privateKey());
+			} catch (IllegalStateException ise) {
+				/* Public key only */
+			}
+			withListenPort(configuration.listenPort());
+			withFwMark(configuration.fwMark());
+			for (var peer : configuration.peers()) {
+				addPeer(peer, replaceAllowedIps);
+			}
+			return this;
+		}
+
+		/**
+		 * Apply only the changes in a {@link ConfigurationDiff}, so peers that
+		 * have not changed are not touched at all, and those that have only get
+		 * the attributes that actually differ.
+		 *
+		 * @param diff changes
+		 * @return this for chaining
+		 */
+		public Builder fromDiff(ConfigurationDiff diff) {
+			diff.privateKey().ifPresent(this::withPrivateKey);
+			diff.listenPort().ifPresent(p -> withListenPort(Optional.of(p)));
+			diff.fwMark().ifPresent(m -> withFwMark(Optional.of(m)));
+			removePeers(diff.removed());
+			for (var change : diff.changed()) {
+				var peer = change.peer();
+				var endpoint = change.endpointChanged() ? peer.endpointAddress() : Optional.<String>empty();
+				peers.add(new Peer(peer.publicKey(), false, change.allowedIpsChanged(),
+						change.presharedKeyChanged()
+								? Optional.of(peer.presharedKey().orElse(ConfigurationDiff.NO_KEY))
+								: Optional.empty(),
+						endpoint,
+						endpoint.map(a -> peer.endpointPort().orElse(Vpn.DEFAULT_PORT)),
+						change.persistentKeepaliveChanged()
+								? Optional.of(peer.persistentKeepalive().orElse(0))
+								: Optional.empty(),
+						change.allowedIpsChanged() ? peer.allowedIps() : Collections.emptyList()));
+			}
+			return this;
+		}
+
+		public Builder withPrivateKey(String privateKey) {
+			this.privateKey = Optional.of(privateKey);
+			return this;
+		}
+
+		public Builder withListenPort(Optional<Integer> listenPort) {
+			this.listenPort = listenPort;
+			return this;
+		}
+
+		public Builder withFwMark(Optional<Integer> fwmark) {
+			this.fwmark = fwmark;
+			return this;
+		}
+
+		/**
+		 * Remove all peers that are not part of this update.
+		 *
+		 * @return this for chaining
+		 */
+		public Builder withReplacePeers() {
+			this.replacePeers = true;
+			return this;
+		}
+
+		public Builder addPeer(VpnPeer peer, boolean replaceAllowedIps) {
+			var port = peer.endpointAddress().isPresent()
+					? Optional.of(peer.endpointPort().orElse(Vpn.DEFAULT_PORT))
+					: Optional.<Integer>empty();
+			peers.add(new Peer(peer.publicKey(), false, replaceAllowedIps, peer.presharedKey(),
+					peer.endpointAddress(), port, peer.persistentKeepalive(), peer.allowedIps()));
+			return this;
+		}
+
+		public Builder removePeers(String... publicKeys) {
+			return removePeers(Arrays.asList(publicKeys));
+		}
+
+		public Builder removePeers(Collection<String> publicKeys) {
+			for (var key : publicKeys) {
+				peers.add(new Peer(key, true, false, Optional.empty(), Optional.empty(), Optional.empty(),
+						Optional.empty(), Collections.emptyList()));
+			}
+			return this;
+		}
+
+		public WireGuardUpdate build() {
+			return new WireGuardUpdate(this);
+		}
+	}
+
+	public final static class Peer {
+		private final String publicKey;
+		private final boolean remove;
+		private final boolean replaceAllowedIps;
+		private final Optional<String> presharedKey;
+		private final Optional<String> endpointAddress;
+		private final Optional<Integer> endpointPort;
+		private final Optional<Integer> persistentKeepalive;
+		private final List<String> allowedIps;
+
+		Peer(String publicKey, boolean remove, boolean replaceAllowedIps, Optional<String> presharedKey,
+				Optional<String> endpointAddress, Optional<Integer> endpointPort,
+				Optional<Integer> persistentKeepalive, List<String> allowedIps) {
+			this.publicKey = publicKey;
+			this.remove = remove;
+			this.replaceAllowedIps = replaceAllowedIps;
+			this.presharedKey = presharedKey;
+			this.endpointAddress = endpointAddress;
+			this.endpointPort = endpointPort;
+			this.persistentKeepalive = persistentKeepalive;
+			this.allowedIps = Collections.unmodifiableList(new ArrayList<>(allowedIps));
+		}
+
+		public String publicKey() {
+			return publicKey;
+		}
+
+		public boolean remove() {
+			return remove;
+		}
+
+		public boolean replaceAllowedIps() {
+			return replaceAllowedIps;
+		}
+
+		public Optional<String> presharedKey() {
+			return presharedKey;
+		}
+
+		public Optional<String> endpointAddress() {
+			return endpointAddress;
+		}
+
+		public Optional<Integer> endpointPort() {
+			return endpointPort;
+		}
+
+		public Optional<Integer> persistentKeepalive() {
+			return persistentKeepalive;
+		}
+
+		public List<String> allowedIps() {
+			return allowedIps;
+		}
+	}
+
+	private final Optional<String> privateKey;
+	private final Optional<Integer> listenPort;
+	private final Optional<Integer> fwmark;
+	private final boolean replacePeers;
+	private final List<Peer> peers;
+
+	private WireGuardUpdate(Builder builder) {
+		privateKey = builder.privateKey;
+		listenPort = builder.listenPort;
+		fwmark = builder.fwmark;
+		replacePeers = builder.replacePeers;
+		peers = Collections.unmodifiableList(new ArrayList<>(builder.peers));
+	}
+
+	public Optional<String> privateKey() {
+		return privateKey;
+	}
+
+	public Optional<Integer> listenPort() {
+		return listenPort;
+	}
+
+	public Optional<Integer> fwmark() {
+		return fwmark;
+	}
+
+	public boolean replacePeers() {
+		return replacePeers;
+	}
+
+	public List<Peer> peers() {
+		return peers;
+	}
+
+	public boolean isEmpty() {
+		return privateKey.isEmpty() && listenPort.isEmpty() && fwmark.isEmpty() && !replacePeers && peers.isEmpty();
+	}
+}
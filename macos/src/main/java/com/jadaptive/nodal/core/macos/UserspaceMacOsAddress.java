@@ -28,7 +28,7 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -38,7 +38,8 @@ import org.slf4j.LoggerFactory;
 
 import com.jadaptive.nodal.core.lib.AbstractUnixAddress;
 import com.jadaptive.nodal.core.lib.NetworkInterfaceInfo;
-import com.jadaptive.nodal.core.lib.util.IpUtil;
+import com.jadaptive.nodal.core.lib.RouteDiff;
+import com.jadaptive.nodal.core.lib.ipmath.IpPrefix;
 import com.jadaptive.nodal.core.lib.util.OsUtil;
 import com.jadaptive.nodal.core.lib.util.Util;
 import com.sshtools.liftlib.commands.SystemCommands.ProcessRedirect;
@@ -214,51 +215,89 @@ public class UserspaceMacOsAddress extends AbstractUnixAddress<UserspaceMacOsPla
 	@Override
 	public void setRoutes(Collection<String> allows) throws IOException {
 
-    	allows = allows.stream().map(IpUtil::normalizeMasked).toList();
+    	var wanted = RouteDiff.parse(allows);
 
-        /* Remove all the current routes for this interface. Normalize all the addresses (both
-         * those we want and those we have) to be full masked */
+        /* Find all the current routes for this interface, then work out the minimal
+         * changes between those and the ones we want */
     	
+        var gateways = new LinkedHashMap<IpPrefix, String>();
 		var ipv6 = false;
-        var have = new HashSet<>();
 		for (var row : commands.privileged().output(OsUtil.debugCommandArgs("netstat", "-nr"))) {
 			var l = row.trim().split("\\s+");
 			String routeAddr = l[0];
 			if (routeAddr.equals("Destination") || routeAddr.equals("Routing")) {
 				continue;
 			}
-			if (l.length > 0 && routeAddr.equals("Internet6:")) {
+			if (routeAddr.equals("Internet6:")) {
 				ipv6 = true;
 			} else if (l.length > 3 && l[3].equals(nativeName())) {
 				var gateway = l[1];
 				try {
 					InetAddress.getByName(gateway);
-					if(!getAddresses().contains(gateway)) {
-						routeAddr = IpUtil.normalizeMasked(routeAddr);
-						have.add(routeAddr);
-		                if (!allows.contains(routeAddr)) {
-							LOG.info("Removing route {} {} for {}", routeAddr, gateway, nativeName());
-							if (ipv6) {
-								commands.privileged().logged().stdout(ProcessRedirect.DISCARD).result(
-										OsUtil.debugCommandArgs("route", "-qn", "delete", "-inet6", "-ifp",
-												nativeName(), routeAddr, gateway));
-							} else {
-								commands.privileged().logged().stdout(ProcessRedirect.DISCARD).result(
-										OsUtil.debugCommandArgs("route", "-qn", "delete", "-ifp", nativeName(), routeAddr, gateway));
-							}
-		                }
-					}
 				}
 				catch(Exception e) {
-
+					/* Not a gateway route, e.g. link#12 */
+					continue;
+				}
+				if(!getAddresses().contains(gateway)) {
+					try {
+						gateways.put(parseDestination(routeAddr, ipv6), gateway);
+					}
+					catch(IllegalArgumentException iae) {
+						LOG.warn("Ignoring route {} {} for {}, the destination could not be parsed.", routeAddr, gateway, nativeName());
+					}
 				}
 			}
 		}
 
-		for (String route : allows) {
-            if (!have.contains(route))
-            	addRoute(route);
+		var diff = RouteDiff.between(wanted, gateways.keySet());
+		for (var route : diff.remove()) {
+			var gateway = gateways.get(route);
+			LOG.info("Removing route {} {} for {}", route, gateway, nativeName());
+			if (!route.isIpv4()) {
+				commands.privileged().logged().stdout(ProcessRedirect.DISCARD).result(
+						OsUtil.debugCommandArgs("route", "-qn", "delete", "-inet6", "-ifp",
+								nativeName(), route.toString(), gateway));
+			} else {
+				commands.privileged().logged().stdout(ProcessRedirect.DISCARD).result(
+						OsUtil.debugCommandArgs("route", "-qn", "delete", "-ifp", nativeName(), route.toString(), gateway));
+			}
+		}
+
+		for (var route : diff.add()) {
+           	addRoute(route.toString());
+		}
+	}
+
+	/**
+	 * Parse a destination as shown by BSD <code>netstat -nr</code>, which leaves
+	 * out trailing zero octets of IPv4 networks (e.g. <code>10.8/16</code>), may
+	 * omit the length of such a network (e.g. <code>127</code>), scopes link
+	 * local IPv6 addresses and shows <code>default</code> for either family.
+	 *
+	 * @param dest destination
+	 * @param ipv6 whether in the IPv6 section of the output
+	 * @return prefix
+	 * @throws IllegalArgumentException if the destination cannot be parsed
+	 */
+	static IpPrefix parseDestination(String dest, boolean ipv6) {
+		if (dest.equals("default"))
+			return IpPrefix.parse(ipv6 ? "::/0" : "0.0.0.0/0");
+		var idx = dest.indexOf('/');
+		var addr = idx == -1 ? dest : dest.substring(0, idx);
+		var len = idx == -1 ? null : dest.substring(idx + 1);
+		var scope = addr.indexOf('%');
+		if (scope != -1)
+			addr = addr.substring(0, scope);
+		if (!ipv6 && addr.indexOf(':') == -1) {
+			var octets = addr.split("\\.", -1).length;
+			if (octets < 4) {
+				if (len == null)
+					len = String.valueOf(octets * 8);
+				addr += ".0".repeat(4 - octets);
+			}
 		}
+		return IpPrefix.parse(len == null ? addr : addr + "/" + len);
 	}
 
 	@Override
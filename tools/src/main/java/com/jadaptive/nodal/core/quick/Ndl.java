@@ -29,6 +29,7 @@ import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
@@ -52,6 +53,7 @@ import com.sshtools.liftlib.commands.SystemCommands;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Help.Ansi;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import picocli.CommandLine.ParentCommand;
 
@@ -644,16 +646,52 @@ public class Ndl extends AbstractCommand implements SystemContext {
         @ParentCommand
         private Ndl parent;
 
+        @Option(names = { "-c", "--count" }, paramLabel = "COUNT", description = "Generate this many keys in parallel, one per line.")
+        private Optional<Integer> count;
+
+        @Option(names = { "-p", "--public-key" }, description = "When generating many keys, follow each private key with a tab and its public key.")
+        private boolean publicKey;
+
         @Override
         public Integer call() throws Exception {
             parent.initCommand();
-            out.println(Keys.genkey().getBase64PrivateKey());
+            if (count.isPresent()) {
+                /* Keys are written as they are generated, order does not matter */
+                Keys.genkeys(count.get()).forEach(kp -> {
+                    if (publicKey)
+                        out.println(kp.getBase64PrivateKey() + "\t" + kp.getBase64PublicKey());
+                    else
+                        out.println(kp.getBase64PrivateKey());
+                });
+                out.flush();
+            }
+            else
+                out.println(Keys.genkey().getBase64PrivateKey());
             return 0;
         }
     }
 
     @Command(name = "genpsk", description = "Generates a new preshared key and writes it to stdout")
-    public final static class GenPsk extends GenKey {
+    public final static class GenPsk implements Callable<Integer> {
+
+        @ParentCommand
+        private Ndl parent;
+
+        @Option(names = { "-c", "--count" }, paramLabel = "COUNT", description = "Generate this many keys in parallel, one per line.")
+        private Optional<Integer> count;
+
+        @Override
+        public Integer call() throws Exception {
+            parent.initCommand();
+            var encoder = Base64.getEncoder();
+            if (count.isPresent()) {
+                Keys.genpsks(count.get()).forEach(k -> out.println(encoder.encodeToString(k)));
+                out.flush();
+            }
+            else
+                out.println(encoder.encodeToString(Keys.genpsk()));
+            return 0;
+        }
     }
 
     @Command(name = "pubkey", description = "Reads a private key from stdin and writes a public key to stdout")